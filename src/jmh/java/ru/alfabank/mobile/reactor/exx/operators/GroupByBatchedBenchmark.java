@@ -0,0 +1,63 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цепочка map(String::valueOf) из GroupByTest за groupBy по элементу и за groupByBatched по пачке.
+ * Ключей не больше конкурентности flatMap, чтобы groupBy не завис. Результат в операциях на элемент.
+ * <p>
+ * gradle jmh -PjmhArgs="GroupByBatchedBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(GroupByBatchedBenchmark.ELEMENTS)
+public class GroupByBatchedBenchmark {
+
+    static final int ELEMENTS = 1_000_000;
+
+    @Param({"4", "256"})
+    int keys;
+
+    @Param({"16", "256"})
+    int batchSize;
+
+    @Benchmark
+    public void groupBy(Blackhole bh) {
+        Flux.range(0, ELEMENTS)
+                .groupBy(i -> i % keys)
+                .flatMap(g -> g.map(String::valueOf), keys)
+                .subscribe(bh::consume);
+    }
+
+    @Benchmark
+    public void groupByBatched(Blackhole bh) {
+        Flux.range(0, ELEMENTS)
+                .transform(ExxFlux.groupByBatched(i -> i % keys, batchSize, Duration.ofSeconds(1)))
+                .subscribe(batch -> {
+                    List<Integer> elements = batch.elements();
+                    for (int i = 0; i < elements.size(); i++) {
+                        bh.consume(String.valueOf(elements.get(i)));
+                    }
+                });
+    }
+}
@@ -0,0 +1,123 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цена выбора между groupBy, flatMap и concatMap из GroupByTest при разном количестве элементов и групп,
+ * разном prefetch groupBy и разной конкурентности flatMap.
+ * <p>
+ * Throughput считается в элементах: счётчик {@link Elements} добавляет в отчёт колонку elements, ops/ms.
+ * SampleTime меряет прогон всей последовательности, p99 на элемент это p0.99 прогона, делённый на elements.
+ * Аллокации снимает gc-профайлер:
+ * <p>
+ * gradle jmh -PjmhArgs="GroupByBenchmark -prof gc"
+ * <p>
+ * Стандартный groupBy зависает, если конкурентность flatMap меньше количества групп,
+ * поэтому для него конкурентность поднимается до groups. Оператор библиотеки в этом случае
+ * ограничивает живые группы через {@link GroupBySpec#maxGroups(int)} и платит за их пересоздание.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupByBenchmark {
+
+    @Param({"1000", "100000"})
+    int elements;
+
+    @Param({"4", "256", "65536"})
+    int groups;
+
+    @Param({"32", "256"})
+    int prefetch;
+
+    @Param({"4", "256"})
+    int concurrency;
+
+    /**
+     * Сколько элементов прошло через последовательность за итерацию
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Elements {
+
+        public long elements;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            elements = 0L;
+        }
+    }
+
+    @Benchmark
+    public long groupByFlatMap(Elements counter) {
+        return counter.elements += Flux.range(0, elements)
+                .groupBy(i -> i % groups, prefetch)
+                .flatMap(g -> g, Math.max(concurrency, groups))
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public long exxGroupByFlatMap(Elements counter) {
+        return counter.elements += Flux.range(0, elements)
+                .transform(ExxFlux.groupBy(i -> i % groups, GroupBySpec.create()
+                        .prefetch(prefetch)
+                        .maxGroups(concurrency)))
+                .flatMap(g -> g, concurrency)
+                .count()
+                .block();
+    }
+
+    /**
+     * concatMap подписывается на группы по одной, остальные группы до конца источника
+     * лежат в буфере парковки, поэтому он рассчитан на все элементы
+     */
+    @Benchmark
+    public long exxGroupByConcatMap(Elements counter) {
+        return counter.elements += Flux.range(0, elements)
+                .transform(ExxFlux.groupBy(i -> i % groups, GroupBySpec.create()
+                        .prefetch(prefetch)
+                        .maxSpilled(elements)))
+                .concatMap(g -> g)
+                .count()
+                .block();
+    }
+
+    /**
+     * Базовая линия без группировки: на каждый элемент внутренний Flux из двух элементов,
+     * не скалярный, чтобы flatMap не срезал путь
+     */
+    @Benchmark
+    public long flatMap(Elements counter) {
+        return counter.elements += Flux.range(0, elements)
+                .flatMap(i -> Flux.range(i, 2), concurrency, prefetch)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public long concatMap(Elements counter) {
+        return counter.elements += Flux.range(0, elements)
+                .concatMap(i -> Flux.range(i, 2), prefetch)
+                .count()
+                .block();
+    }
+}
@@ -0,0 +1,58 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Много короткоживущих групп по groupSize элементов: заголовок группы через
+ * defaultIfEmpty + map + startWith из GroupByTest против {@link ExxFlux#groupWithHeader}.
+ * Время и аллокации считаются на группу:
+ * <p>
+ * gradle jmh -PjmhArgs="GroupWithHeaderBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(GroupWithHeaderBenchmark.GROUPS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupWithHeaderBenchmark {
+
+    static final int GROUPS = 100_000;
+
+    @Param({"1", "8"})
+    int groupSize;
+
+    @Benchmark
+    public Long startWith() {
+        return Flux.range(0, GROUPS * groupSize)
+                .transform(ExxFlux.groupBy(i -> i / groupSize, GroupBySpec.create().maxGroups(1)))
+                .concatMap(g -> g.defaultIfEmpty(-1)
+                        .map(String::valueOf)
+                        .startWith(String.valueOf(g.key())))
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long groupWithHeader() {
+        return Flux.range(0, GROUPS * groupSize)
+                .transform(ExxFlux.groupBy(i -> i / groupSize, GroupBySpec.create().maxGroups(1)))
+                .concatMap(ExxFlux.groupWithHeader(String::valueOf, String::valueOf, "-1"))
+                .count()
+                .block();
+    }
+}
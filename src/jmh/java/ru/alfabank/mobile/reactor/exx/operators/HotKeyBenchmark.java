@@ -0,0 +1,129 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Свёртка по ключу при ключах с распределением Ципфа: ключ ранга k встречается с частотой 1 / k^skew.
+ * При skew = 0 ключи равновероятны, при skew = 1.2 первые несколько ключей дают больше половины трафика.
+ * <p>
+ * reduceByKey раскладывает горячие ключи по всем дорожкам, reduceByKeyNoSplit это тот же оператор
+ * с выключенным разделением, partitionByReduce это свёртка на partitionBy без оператора,
+ * groupByReduce стандартный groupBy с publishOn на каждую группу.
+ * <p>
+ * gradle jmh -PjmhArgs="HotKeyBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotKeyBenchmark {
+
+    @Param({"1000000"})
+    int elements;
+
+    @Param({"10000"})
+    int keys;
+
+    @Param({"0", "0.8", "1.2"})
+    double skew;
+
+    /**
+     * Сколько условной работы делается на каждый элемент
+     */
+    @Param({"64"})
+    int tokens;
+
+    final int partitions = Runtime.getRuntime().availableProcessors();
+
+    Integer[] source;
+
+    @Setup
+    public void setup() {
+        Zipf zipf = new Zipf(keys, skew);
+        SplittableRandom random = new SplittableRandom(42);
+        source = new Integer[elements];
+        for (int i = 0; i < elements; i++) {
+            source[i] = zipf.next(random);
+        }
+    }
+
+    @Benchmark
+    public Object reduceByKey() {
+        return Flux.fromArray(source)
+                .transform(ExxFlux.reduceByKey(k -> k, this::work, Long::sum, partitions))
+                .blockLast();
+    }
+
+    @Benchmark
+    public Object reduceByKeyNoSplit() {
+        return Flux.fromArray(source)
+                .transform(ExxFlux.reduceByKey(k -> k, this::work, Long::sum, partitions, 1.0, Schedulers.parallel()))
+                .blockLast();
+    }
+
+    @Benchmark
+    public Object partitionByReduce() {
+        return Flux.fromArray(source)
+                .transform(ExxFlux.partitionBy(k -> k, partitions, Schedulers.parallel()))
+                .flatMap(lane -> lane.reduce(0L, (sum, k) -> sum + work(k)), partitions)
+                .blockLast();
+    }
+
+    @Benchmark
+    public Object groupByReduce() {
+        return Flux.fromArray(source)
+                .groupBy(k -> k)
+                .flatMap(g -> g.publishOn(Schedulers.parallel()).reduce(0L, (sum, k) -> sum + work(k)), keys)
+                .blockLast();
+    }
+
+    Long work(Integer key) {
+        Blackhole.consumeCPU(tokens);
+        return (long) key;
+    }
+
+    /**
+     * Генератор рангов 0..n-1 с распределением Ципфа обращением функции распределения:
+     * кумулятивные веса считаются один раз, ранг находится двоичным поиском
+     */
+    static final class Zipf {
+
+        final double[] cdf;
+
+        Zipf(int n, double skew) {
+            cdf = new double[n];
+            double sum = 0.0;
+            for (int k = 0; k < n; k++) {
+                sum += 1.0 / Math.pow(k + 1, skew);
+                cdf[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cdf[k] /= sum;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Масштабирование parallelGroupBy по ядрам на сценарии range/modulo из GroupByTest:
+ * то же количество групп раскладывается на 1, 2, 4 и 8 рельс, у каждой рельсы свой воркер.
+ * exxGroupBy это тот же groupBy без рельс, все группы в одном дренаже.
+ * Рельс больше, чем ядер, смысла не имеют, такие прогоны показывают только накладные расходы.
+ * <p>
+ * gradle jmh -PjmhArgs="ParallelGroupByBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelGroupByBenchmark {
+
+    @Param({"1000000"})
+    int elements;
+
+    @Param({"64"})
+    int groups;
+
+    @Param({"1", "2", "4", "8"})
+    int rails;
+
+    /**
+     * Сколько условной работы делается на каждый элемент
+     */
+    @Param({"16"})
+    int tokens;
+
+    Scheduler scheduler;
+
+    @Setup
+    public void setup() {
+        scheduler = Schedulers.newParallel("bench", rails);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Benchmark
+    public Integer parallelGroupBy() {
+        return Flux.range(0, elements)
+                .as(ExxFlux.parallelGroupBy(i -> i % groups, rails, GroupBySpec.create(), scheduler))
+                .flatMap(g -> g.map(this::work))
+                .sequential()
+                .blockLast();
+    }
+
+    @Benchmark
+    public Integer exxGroupBy() {
+        return Flux.range(0, elements)
+                .transform(ExxFlux.groupBy(i -> i % groups))
+                .flatMap(g -> g.map(this::work), groups)
+                .blockLast();
+    }
+
+    Integer work(Integer i) {
+        Blackhole.consumeCPU(tokens);
+        return i;
+    }
+}
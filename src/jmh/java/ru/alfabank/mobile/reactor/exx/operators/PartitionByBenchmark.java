@@ -0,0 +1,67 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Ключи параллельно, элементы ключа по очереди": partitionBy против groupBy + flatMap
+ * на 3, 1k и 1M различных ключей. У groupBy конкурентность flatMap равна количеству ключей,
+ * иначе он зависнет, и каждая группа уходит на свой publishOn.
+ * <p>
+ * gradle jmh -PjmhArgs="PartitionByBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PartitionByBenchmark {
+
+    @Param({"1000000"})
+    int elements;
+
+    @Param({"3", "1000", "1000000"})
+    int keys;
+
+    /**
+     * Сколько условной работы делается на каждый элемент
+     */
+    @Param({"16"})
+    int tokens;
+
+    final int partitions = Runtime.getRuntime().availableProcessors();
+
+    @Benchmark
+    public Integer partitionBy() {
+        return Flux.range(0, elements)
+                .transform(ExxFlux.partitionBy(i -> i % keys, partitions, this::work))
+                .blockLast();
+    }
+
+    @Benchmark
+    public Integer groupByFlatMap() {
+        return Flux.range(0, elements)
+                .groupBy(i -> i % keys)
+                .flatMap(g -> g.publishOn(Schedulers.parallel()).map(this::work), keys)
+                .blockLast();
+    }
+
+    Integer work(Integer i) {
+        Blackhole.consumeCPU(tokens);
+        return i;
+    }
+}
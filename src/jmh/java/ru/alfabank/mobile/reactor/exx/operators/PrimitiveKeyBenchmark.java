@@ -0,0 +1,77 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ключи-long (идентификаторы счетов): стандартный groupBy, groupBy библиотеки с упакованным ключом
+ * и {@link ExxFlux#groupByLong(java.util.function.ToLongFunction, GroupBySpec)}.
+ * Элементы заготовлены заранее, поэтому источник не аллоцирует, и gc.alloc.rate.norm
+ * показывает аллокации самой группировки на элемент:
+ * <p>
+ * gradle jmh -PjmhArgs="PrimitiveKeyBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(PrimitiveKeyBenchmark.ELEMENTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimitiveKeyBenchmark {
+
+    static final int ELEMENTS = 100_000;
+
+    @Param({"16", "1024"})
+    int keys;
+
+    Long[] accounts;
+
+    @Setup
+    public void setup() {
+        accounts = new Long[ELEMENTS];
+        for (int i = 0; i < ELEMENTS; i++) {
+            accounts[i] = 40_817_810_000_000L + i;
+        }
+    }
+
+    @Benchmark
+    public Long groupBy() {
+        return Flux.fromArray(accounts)
+                .groupBy(id -> id % keys)
+                .flatMap(g -> g, keys)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long exxGroupBy() {
+        return Flux.fromArray(accounts)
+                .transform(ExxFlux.groupBy(id -> id % keys))
+                .flatMap(g -> g, keys)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long exxGroupByLong() {
+        return Flux.fromArray(accounts)
+                .transform(ExxFlux.groupByLong(id -> id % keys, GroupBySpec.create()))
+                .flatMap(g -> g, keys)
+                .count()
+                .block();
+    }
+}
@@ -0,0 +1,85 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Передача миллиона элементов с потока источника на воркер parallel: publishOn против
+ * {@link ExxFlux#publishOnBatched}. Источник выдаёт rate элементов в секунду, 0 означает без ограничения.
+ * Время считается на элемент: при rate = 1 000 000 оператор, который успевает, держит 1000 нс на элемент,
+ * а всё, что сверх, это отставание от источника. Цена передачи видна в -prof gc и по загрузке CPU:
+ * <p>
+ * gradle jmh -PjmhArgs="PublishOnBatchedBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(PublishOnBatchedBenchmark.ELEMENTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishOnBatchedBenchmark {
+
+    static final int ELEMENTS = 1_000_000;
+
+    @Param({"1000000", "0"})
+    long rate;
+
+    @Param({"16", "256"})
+    int maxBatch;
+
+    @Benchmark
+    public Long publishOn() {
+        return source()
+                .publishOn(Schedulers.parallel())
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long publishOnBatched() {
+        return source()
+                .transform(ExxFlux.publishOnBatched(Schedulers.parallel(), maxBatch, Duration.ofMillis(1)))
+                .count()
+                .block();
+    }
+
+    /**
+     * Элемент i выдаётся не раньше, чем через i / rate секунды после подписки, поток источника ждёт в спине,
+     * чтобы не зависеть от точности таймеров ОС
+     */
+    Flux<Integer> source() {
+        if (rate == 0L) {
+            return Flux.range(0, ELEMENTS);
+        }
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return Flux.<Integer, Integer>generate(() -> 0, (i, sink) -> {
+                long due = start + i * periodNanos;
+                while (System.nanoTime() < due) {
+                    Thread.onSpinWait();
+                }
+                sink.next(i);
+                if (i + 1 == ELEMENTS) {
+                    sink.complete();
+                }
+                return i + 1;
+            });
+        });
+    }
+}
@@ -0,0 +1,77 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Строковые ключи из GroupByTest ("modulo is %s:".formatted(i % keys)): стандартный groupBy,
+ * groupBy библиотеки с тем же ключом и {@link ExxFlux#groupBySlot}, который форматирует ключ один раз на слот.
+ * Элементы заготовлены заранее, gc.alloc.rate.norm показывает аллокации группировки на элемент:
+ * <p>
+ * gradle jmh -PjmhArgs="SlotKeyBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(SlotKeyBenchmark.ELEMENTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SlotKeyBenchmark {
+
+    static final int ELEMENTS = 100_000;
+
+    @Param({"3", "64"})
+    int keys;
+
+    Integer[] elements;
+
+    @Setup
+    public void setup() {
+        elements = new Integer[ELEMENTS];
+        for (int i = 0; i < ELEMENTS; i++) {
+            elements[i] = i;
+        }
+    }
+
+    @Benchmark
+    public Long groupBy() {
+        return Flux.fromArray(elements)
+                .groupBy(i -> "modulo is %s:".formatted(i % keys))
+                .flatMap(g -> g, keys)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long exxGroupBy() {
+        return Flux.fromArray(elements)
+                .transform(ExxFlux.groupBy(i -> "modulo is %s:".formatted(i % keys)))
+                .flatMap(g -> g, keys)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long exxGroupBySlot() {
+        return Flux.fromArray(elements)
+                .transform(ExxFlux.groupBySlot(i -> i % keys, keys, slot -> "modulo is %s:".formatted(slot),
+                        GroupBySpec.create()))
+                .flatMap(g -> g, keys)
+                .count()
+                .block();
+    }
+}
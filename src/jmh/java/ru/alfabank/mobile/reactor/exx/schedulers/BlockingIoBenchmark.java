@@ -0,0 +1,79 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10 000 одновременных блокирующих вызовов (Thread.sleep вместо ввода-вывода) через subscribeOn:
+ * {@link Schedulers#boundedElastic()} выполняет их волнами по 10 * cores потоков, остальные ждут в очереди,
+ * {@link ExxSchedulers#newVirtualThread(String)} паркует каждый вызов в своём виртуальном потоке.
+ * Имеет смысл на JDK 21+, на более ранних JDK виртуальный планировщик создаёт обычные потоки:
+ * <p>
+ * gradle jmh -PjmhArgs="BlockingIoBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockingIoBenchmark {
+
+    @Param({"10000"})
+    int tasks;
+
+    @Param({"1", "20"})
+    long ioMillis;
+
+    Scheduler boundedElastic;
+    Scheduler virtualThread;
+
+    @Setup
+    public void setup() {
+        boundedElastic = Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "boundedElastic");
+        virtualThread = ExxSchedulers.newVirtualThread("virtualThread");
+    }
+
+    @TearDown
+    public void tearDown() {
+        boundedElastic.dispose();
+        virtualThread.dispose();
+    }
+
+    @Benchmark
+    public Long boundedElastic() {
+        return run(boundedElastic);
+    }
+
+    @Benchmark
+    public Long virtualThread() {
+        return run(virtualThread);
+    }
+
+    Long run(Scheduler scheduler) {
+        return Flux.range(0, tasks)
+                .flatMap(i -> Mono.fromCallable(() -> {
+                    Thread.sleep(ioMillis);
+                    return i;
+                }).subscribeOn(scheduler), tasks)
+                .count()
+                .block();
+    }
+}
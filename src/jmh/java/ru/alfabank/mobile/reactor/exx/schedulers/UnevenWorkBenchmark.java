@@ -0,0 +1,114 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Неравномерная нагрузка на элемент: {@link Schedulers#parallel()} против {@link ExxSchedulers#newWorkStealing}
+ * с тем же количеством потоков. При skewed тяжёлые элементы идут через один поток из threads:
+ * у parallel они копятся на одном исполнителе, а у кражи задач их разбирают простаивающие потоки.
+ * <ul>
+ * <li>subscribeOn - отдельный Mono на элемент через subscribeOn, воркеры раздаются по кругу;</li>
+ * <li>runOn - ParallelFlux на 4 * threads рельсах, тяжёлые рельсы у parallel попадают на один поток.</li>
+ * </ul>
+ * gradle jmh -PjmhArgs="UnevenWorkBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnevenWorkBenchmark {
+
+    @Param({"100000"})
+    int elements;
+
+    @Param({"false", "true"})
+    boolean skewed;
+
+    @Param({"100"})
+    long lightTokens;
+
+    @Param({"10000"})
+    long heavyTokens;
+
+    int threads;
+    Scheduler parallel;
+    Scheduler workStealing;
+
+    @Setup
+    public void setup() {
+        threads = Schedulers.DEFAULT_POOL_SIZE;
+        parallel = Schedulers.newParallel("parallel", threads);
+        workStealing = ExxSchedulers.newWorkStealing("workStealing", threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        parallel.dispose();
+        workStealing.dispose();
+    }
+
+    @Benchmark
+    public Long subscribeOnParallel() {
+        return subscribeOn(parallel);
+    }
+
+    @Benchmark
+    public Long subscribeOnWorkStealing() {
+        return subscribeOn(workStealing);
+    }
+
+    @Benchmark
+    public Long runOnParallel() {
+        return runOn(parallel);
+    }
+
+    @Benchmark
+    public Long runOnWorkStealing() {
+        return runOn(workStealing);
+    }
+
+    Long subscribeOn(Scheduler scheduler) {
+        return Flux.range(0, elements)
+                .flatMap(i -> Mono.fromCallable(() -> work(i)).subscribeOn(scheduler), 4 * threads)
+                .count()
+                .block();
+    }
+
+    Long runOn(Scheduler scheduler) {
+        int rails = 4 * threads;
+        return Flux.range(0, elements)
+                .parallel(rails)
+                .runOn(scheduler)
+                .map(this::work)
+                .sequential()
+                .count()
+                .block();
+    }
+
+    int work(int i) {
+        // тяжёлых элементов поровну, skewed отличается только тем, куда они попадают
+        boolean heavy = skewed ? i % threads == 0 : i % threads == (i / threads) % threads;
+        Blackhole.consumeCPU(heavy ? heavyTokens : lightTokens);
+        return i;
+    }
+}
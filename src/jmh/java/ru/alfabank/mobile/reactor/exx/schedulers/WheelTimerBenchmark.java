@@ -0,0 +1,101 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 100 000 одновременных Flux.interval: {@link Schedulers#parallel()} против {@link ExxSchedulers#newWheelTimer}.
+ * <ul>
+ * <li>startAndCancel - запуск и отмена всех интервалов, то есть постановка и отмена таймеров;</li>
+ * <li>ticks - время, за которое каждый интервал тикнет ticks раз, в идеале ticks * periodMillis.</li>
+ * </ul>
+ * Количество пробуждений потоков смотреть профилировщиком, например -prof perfnorm или по context-switches:
+ * <p>
+ * gradle jmh -PjmhArgs="WheelTimerBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WheelTimerBenchmark {
+
+    @Param({"100000"})
+    int intervals;
+
+    @Param({"100"})
+    long periodMillis;
+
+    @Param({"5"})
+    int ticks;
+
+    Scheduler wheelTimer;
+
+    @Setup
+    public void setup() {
+        wheelTimer = ExxSchedulers.newWheelTimer("wheelTimer", Duration.ofMillis(5), Schedulers.parallel());
+    }
+
+    @TearDown
+    public void tearDown() {
+        wheelTimer.dispose();
+    }
+
+    @Benchmark
+    public int startAndCancelParallel() {
+        return startAndCancel(Schedulers.parallel());
+    }
+
+    @Benchmark
+    public int startAndCancelWheelTimer() {
+        return startAndCancel(wheelTimer);
+    }
+
+    @Benchmark
+    public Long ticksParallel() {
+        return ticks(Schedulers.parallel());
+    }
+
+    @Benchmark
+    public Long ticksWheelTimer() {
+        return ticks(wheelTimer);
+    }
+
+    int startAndCancel(Scheduler scheduler) {
+        Disposable[] subscriptions = new Disposable[intervals];
+        Duration period = Duration.ofMillis(periodMillis);
+        for (int i = 0; i < intervals; i++) {
+            subscriptions[i] = Flux.interval(period, scheduler).subscribe();
+        }
+        for (Disposable d : subscriptions) {
+            d.dispose();
+        }
+        return subscriptions.length;
+    }
+
+    Long ticks(Scheduler scheduler) {
+        Duration period = Duration.ofMillis(periodMillis);
+        return Flux.range(0, intervals)
+                .flatMap(i -> Flux.interval(period, scheduler).take(ticks), intervals)
+                .count()
+                .block();
+    }
+}
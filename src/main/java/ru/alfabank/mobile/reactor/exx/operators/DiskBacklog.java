@@ -0,0 +1,170 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.util.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Очередь элементов группы на диске, продолжение её очереди в памяти.
+ * <p>
+ * Элементы пишутся записями [длина, флаг, байты] в цепочку страниц общего для оператора {@link SpillFile},
+ * запись может переходить со страницы на страницу. Вычитанная страница сразу возвращается в файл.
+ * Пишет поток источника, читает поток подписчика группы, обе стороны берут монитор очереди,
+ * поэтому очередь годится только для холодного пути.
+ * Когда читатель вычитал всё, очередь закрывается: писатель узнаёт об этом по false из
+ * {@link #offer(Object, boolean)} и возвращается к очереди в памяти, порядок элементов при этом не нарушается.
+ * <p>
+ * Флаг записи помнит, занимает ли элемент окно prefetch: элементы группы без подписчика дозапрашиваются
+ * сразу при записи, остальные, как обычно, при потреблении.
+ *
+ * @param <T> тип элементов
+ */
+final class DiskBacklog<T> {
+
+    static final int HEADER = Integer.BYTES + 1;
+
+    final SpillFile file;
+    final GroupBySpillSerializer<T> serializer;
+
+    /**
+     * Занятые страницы от читаемой к записываемой
+     */
+    final ArrayDeque<Integer> pages = new ArrayDeque<>();
+
+    final ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+    int readOffset;
+    int writeOffset;
+
+    /**
+     * Сколько байт записано и ещё не прочитано
+     */
+    long size;
+
+    /**
+     * Сколько записей в очереди занимают окно prefetch
+     */
+    int windowed;
+
+    boolean closed;
+
+    /**
+     * Флаг последней прочитанной записи, читается только потоком подписчика сразу после {@link #poll()}
+     */
+    boolean polledWindowed;
+
+    DiskBacklog(SpillFile file, GroupBySpillSerializer<T> serializer) {
+        this.file = file;
+        this.serializer = serializer;
+    }
+
+    /**
+     * @param windowed занимает ли элемент окно prefetch
+     * @return false, если очередь уже вычитана и закрыта
+     */
+    boolean offer(T value, boolean windowed) {
+        byte[] bytes = serializer.serialize(value);
+        ByteBuffer record = ByteBuffer.allocate(HEADER + bytes.length)
+                .putInt(bytes.length)
+                .put(windowed ? (byte) 1 : (byte) 0)
+                .put(bytes)
+                .flip();
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            write(record);
+            size += record.capacity();
+            if (windowed) {
+                this.windowed++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return следующий элемент или null, если очередь пуста, тогда она закрывается
+     */
+    @Nullable
+    T poll() {
+        byte[] bytes = pollBytes();
+        return bytes == null ? null : serializer.deserialize(bytes);
+    }
+
+    @Nullable
+    synchronized byte[] pollBytes() {
+        if (size == 0L) {
+            discard();
+            return null;
+        }
+        header.clear();
+        read(header);
+        int length = header.getInt(0);
+        polledWindowed = header.get(Integer.BYTES) != 0;
+        byte[] bytes = new byte[length];
+        read(ByteBuffer.wrap(bytes));
+        size -= HEADER + length;
+        if (polledWindowed) {
+            windowed--;
+        }
+        return bytes;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0L;
+    }
+
+    /**
+     * Закрывает очередь и возвращает страницы файлу вместе с непрочитанными элементами
+     *
+     * @return сколько выброшенных записей занимали окно prefetch
+     */
+    synchronized int discard() {
+        closed = true;
+        Integer page;
+        while ((page = pages.pollFirst()) != null) {
+            file.release(page);
+        }
+        size = 0L;
+        int w = windowed;
+        windowed = 0;
+        return w;
+    }
+
+    void write(ByteBuffer src) {
+        int pageSize = file.pageSize;
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            if (pages.isEmpty() || writeOffset == pageSize) {
+                pages.addLast(file.allocate());
+                writeOffset = 0;
+                if (pages.size() == 1) {
+                    readOffset = 0;
+                }
+            }
+            int n = Math.min(src.remaining(), pageSize - writeOffset);
+            src.limit(src.position() + n);
+            file.write(pages.peekLast(), writeOffset, src);
+            src.limit(limit);
+            writeOffset += n;
+        }
+    }
+
+    void read(ByteBuffer dst) {
+        int pageSize = file.pageSize;
+        int limit = dst.limit();
+        while (dst.hasRemaining()) {
+            int n = Math.min(dst.remaining(), pageSize - readOffset);
+            dst.limit(dst.position() + n);
+            file.read(pages.peekFirst(), readOffset, dst);
+            dst.limit(limit);
+            readOffset += n;
+            if (readOffset == pageSize) {
+                // страница вычитана, писать в неё тоже больше некуда
+                file.release(pages.pollFirst());
+                readOffset = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Точка входа в операторы библиотеки.
+ * Операторы подключаются к цепочке через {@link Flux#transform(Function)}:
+ * <pre>
+ * Flux.range(0, 10)
+ *         .transform(ExxFlux.groupBy(i -> i % 3, GroupBySpec.create().prefetch(3)))
+ *         .flatMap(g -> g.map(String::valueOf), 2)
+ * </pre>
+ */
+public final class ExxFlux {
+
+    private ExxFlux() {
+    }
+
+    /**
+     * groupBy с настройками по умолчанию, см. {@link #groupBy(Function, GroupBySpec)}
+     */
+    public static <T, K> Function<Flux<T>, Flux<GroupedFlux<K, T>>> groupBy(
+            Function<? super T, ? extends K> keySelector) {
+        return groupBy(keySelector, GroupBySpec.create());
+    }
+
+    /**
+     * Аналог {@link Flux#groupBy(Function, int)}, который продолжает вычитывать источник,
+     * даже когда окно prefetch занято элементами групп, на которые ещё никто не подписался.
+     * Такие элементы паркуются в ограниченном буфере {@link GroupBySpec#maxSpilled},
+     * переполнение буфера завершает последовательность ошибкой вместо тихого зависания.
+     *
+     * @param keySelector функция получения ключа группы
+     * @param spec        настройки оператора
+     */
+    public static <T, K> Function<Flux<T>, Flux<GroupedFlux<K, T>>> groupBy(
+            Function<? super T, ? extends K> keySelector, GroupBySpec spec) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(spec, "spec");
+        return source -> new FluxGroupByExx<>(source, () -> new GroupIndex.Hashed<>(keySelector), spec, null);
+    }
+
+    /**
+     * {@link #groupBy(Function, GroupBySpec)} для ключей-long, например идентификаторов счетов.
+     * Группа ищется по примитивному ключу в открытой адресации, ключ упаковывается в Long
+     * только при создании группы, поэтому на элемент не приходится ни одной аллокации ключа
+     *
+     * @param keySelector функция получения ключа группы
+     * @param spec        настройки оператора
+     */
+    public static <T> Function<Flux<T>, Flux<GroupedFlux<Long, T>>> groupByLong(
+            ToLongFunction<? super T> keySelector, GroupBySpec spec) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(spec, "spec");
+        return source -> new FluxGroupByExx<>(source,
+                () -> new GroupIndex.LongHashed<T, Long>(keySelector, Long::valueOf), spec, null);
+    }
+
+    /**
+     * Как {@link #groupByLong(ToLongFunction, GroupBySpec)}, но для ключей-int
+     */
+    public static <T> Function<Flux<T>, Flux<GroupedFlux<Integer, T>>> groupByInt(
+            ToIntFunction<? super T> keySelector, GroupBySpec spec) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(spec, "spec");
+        return source -> new FluxGroupByExx<>(source,
+                () -> new GroupIndex.LongHashed<T, Integer>(keySelector::applyAsInt, key -> (int) key), spec, null);
+    }
+
+    /**
+     * {@link #groupBy(Function, GroupBySpec)} для ключей, которые дорого строить на каждый элемент,
+     * например строк вида "modulo is %s:".formatted(i % n). Элемент отображается в номер слота
+     * из [0, slots), группа ищется обращением к массиву, а ключ группы строится из номера слота
+     * функцией slotKey один раз на слот, даже если группа слота вытесняется и создаётся заново.
+     * На элемент не приходится ни форматирования, ни аллокации ключа.
+     * <pre>
+     * .transform(ExxFlux.groupBySlot(i -> i % 3, 3, slot -> "modulo is %s:".formatted(slot), spec))
+     * </pre>
+     *
+     * @param slotSelector номер слота элемента, от 0 до slots не включительно, иначе ошибка
+     * @param slots        количество слотов
+     * @param slotKey      ключ группы по номеру слота
+     * @param spec         настройки оператора
+     */
+    public static <T, K> Function<Flux<T>, Flux<GroupedFlux<K, T>>> groupBySlot(
+            ToIntFunction<? super T> slotSelector, int slots, IntFunction<? extends K> slotKey, GroupBySpec spec) {
+        Objects.requireNonNull(slotSelector, "slotSelector");
+        Objects.requireNonNull(slotKey, "slotKey");
+        Objects.requireNonNull(spec, "spec");
+        if (slots <= 0) {
+            throw new IllegalArgumentException("slots > 0 required but it was " + slots);
+        }
+        return source -> new FluxGroupByExx<>(source,
+                () -> new GroupIndex.Slotted<T, K>(slotSelector, slots, slotKey), spec, null);
+    }
+
+    /**
+     * {@link #parallelGroupBy(Function, int, GroupBySpec, Scheduler)} на рельсах по количеству воркеров
+     * {@link Schedulers#parallel()} с настройками по умолчанию
+     */
+    public static <T, K> Function<Flux<T>, ParallelFlux<GroupedFlux<K, T>>> parallelGroupBy(
+            Function<? super T, ? extends K> keySelector) {
+        return parallelGroupBy(keySelector, Schedulers.DEFAULT_POOL_SIZE, GroupBySpec.create(), Schedulers.parallel());
+    }
+
+    /**
+     * groupBy, который масштабируется по ядрам: ключи раскладываются по rails рельсам {@link ParallelFlux}
+     * по хешу, и у каждой рельсы свои группы, своя таблица групп и свой дренаж на отдельном воркере scheduler.
+     * Группы отдаются на воркере своей рельсы. Подключается через {@link Flux#as(Function)},
+     * transform свернул бы рельсы обратно в один Flux:
+     * <pre>
+     * source.as(ExxFlux.parallelGroupBy(i -&gt; i % 3, 4, GroupBySpec.create(), Schedulers.parallel()))
+     *         .flatMap(g -&gt; g.map(String::valueOf))
+     *         .sequential()
+     * </pre>
+     * keySelector вызывается дважды на элемент: при выборе рельсы и при выборе группы внутри неё
+     *
+     * @param keySelector функция получения ключа группы
+     * @param rails       количество рельс
+     * @param spec        настройки groupBy каждой рельсы
+     * @param scheduler   откуда брать воркеров для рельс
+     */
+    public static <T, K> Function<Flux<T>, ParallelFlux<GroupedFlux<K, T>>> parallelGroupBy(
+            Function<? super T, ? extends K> keySelector, int rails, GroupBySpec spec, Scheduler scheduler) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(spec, "spec");
+        Objects.requireNonNull(scheduler, "scheduler");
+        if (rails <= 0) {
+            throw new IllegalArgumentException("rails > 0 required but it was " + rails);
+        }
+        return source -> new ParallelFluxGroupBy<>(source, keySelector, rails, spec, scheduler);
+    }
+
+    /**
+     * Сливает группы по очереди: подписывается на каждую группу, но берёт у неё не больше quantum элементов
+     * за раз и передаёт очередь следующей группе с данными. В отличие от flatMap с конкурентностью меньше
+     * количества ключей, ни одна группа не ждёт завершения других, что важно на бесконечном источнике.
+     * <pre>
+     * source.transform(ExxFlux.groupBy(keySelector, GroupBySpec.create().maxGroups(10_000)))
+     *         .transform(ExxFlux.groupedMerge(8))
+     * </pre>
+     * Каждая группа буферизует не больше quantum элементов, поэтому память растёт с количеством живых групп,
+     * при неограниченном количестве ключей их стоит ограничить через {@link GroupBySpec#maxGroups(int)}
+     *
+     * @param quantum сколько элементов группа отдаёт за свою очередь
+     */
+    public static <K, T> Function<Flux<GroupedFlux<K, T>>, Flux<T>> groupedMerge(int quantum) {
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("quantum > 0 required but it was " + quantum);
+        }
+        return groups -> new FluxGroupedMerge<>(groups, quantum);
+    }
+
+    /**
+     * Группа с заголовком из ключа: то же, что g.map(mapper).defaultIfEmpty(emptyMarker).startWith(header(key)),
+     * но одним подписчиком на группу без concat и промежуточных операторов. Подписывается на группу сразу,
+     * спрос подписчика соблюдается, заголовок и маркер пустоты занимают по единице спроса.
+     * <pre>
+     * .groupBy(i -> "modulo is %s:".formatted(i % 5))
+     * .concatMap(ExxFlux.groupWithHeader(key -> key, String::valueOf, "-1"))
+     * </pre>
+     *
+     * @param header      заголовок по ключу группы, вычисляется при подписке
+     * @param mapper      преобразование элементов группы
+     * @param emptyMarker что отдать после заголовка, если группа завершилась пустой
+     */
+    public static <K, T, R> Function<GroupedFlux<K, T>, Flux<R>> groupWithHeader(
+            Function<? super K, ? extends R> header, Function<? super T, ? extends R> mapper, R emptyMarker) {
+        Objects.requireNonNull(header, "header");
+        Objects.requireNonNull(mapper, "mapper");
+        Objects.requireNonNull(emptyMarker, "emptyMarker");
+        return group -> new FluxGroupWithHeader<>(group, header, mapper, emptyMarker);
+    }
+
+    /**
+     * Раскладывает элементы по фиксированному количеству дорожек по хешу ключа.
+     * Элементы одного ключа всегда попадают в одну дорожку и идут в ней в исходном порядке.
+     * <p>
+     * В отличие от groupBy, здесь не создаётся GroupedFlux на каждый ключ: дорожек всегда не больше partitions,
+     * поиск дорожки это обращение к массиву. Каждая дорожка получает своего воркера из scheduler и отдаёт
+     * элементы на нём, очередь дорожки заполняет только поток источника.
+     * Подписываться на дорожки нужно с конкурентностью не меньше partitions, например flatMap(..., partitions)
+     *
+     * @param keySelector функция получения ключа
+     * @param partitions  количество дорожек
+     * @param scheduler   откуда брать воркеров для дорожек
+     * @return дорожки, ключ дорожки это её номер
+     */
+    public static <T, K> Function<Flux<T>, Flux<GroupedFlux<Integer, T>>> partitionBy(
+            Function<? super T, ? extends K> keySelector, int partitions, Scheduler scheduler) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(scheduler, "scheduler");
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions > 0 required but it was " + partitions);
+        }
+        GroupBySpec spec = GroupBySpec.create();
+        return source -> new FluxGroupByExx<>(source,
+                () -> new GroupIndex.Slotted<T, Integer>(t -> partition(keySelector.apply(t), partitions),
+                        partitions, Integer::valueOf),
+                spec, scheduler);
+    }
+
+    /**
+     * Обрабатывает ключи параллельно, а элементы одного ключа последовательно и по порядку:
+     * mapper вызывается на воркере дорожки из {@link Schedulers#parallel()}, см. {@link #partitionBy(Function, int, Scheduler)}
+     *
+     * @param keySelector функция получения ключа
+     * @param partitions  количество дорожек, обычно по количеству ядер
+     * @param mapper      обработка элемента
+     */
+    public static <T, K, R> Function<Flux<T>, Flux<R>> partitionBy(
+            Function<? super T, ? extends K> keySelector, int partitions, Function<? super T, ? extends R> mapper) {
+        return partitionBy(keySelector, partitions, mapper, Schedulers.parallel());
+    }
+
+    /**
+     * Как {@link #partitionBy(Function, int, Function)}, но воркеры дорожек берутся из scheduler
+     */
+    public static <T, K, R> Function<Flux<T>, Flux<R>> partitionBy(
+            Function<? super T, ? extends K> keySelector,
+            int partitions,
+            Function<? super T, ? extends R> mapper,
+            Scheduler scheduler) {
+        Objects.requireNonNull(mapper, "mapper");
+        Function<Flux<T>, Flux<GroupedFlux<Integer, T>>> lanes = partitionBy(keySelector, partitions, scheduler);
+        return source -> lanes.apply(source).flatMap(lane -> lane.map(mapper), partitions);
+    }
+
+    /**
+     * {@link #partitionByOrdered(Function, int, Function, int, Scheduler)} с окном {@link Queues#SMALL_BUFFER_SIZE}
+     * на воркерах {@link Schedulers#parallel()}
+     */
+    public static <T, K, R> Function<Flux<T>, Flux<R>> partitionByOrdered(
+            Function<? super T, ? extends K> keySelector, int partitions, Function<? super T, ? extends R> mapper) {
+        return partitionByOrdered(keySelector, partitions, mapper, Queues.SMALL_BUFFER_SIZE, Schedulers.parallel());
+    }
+
+    /**
+     * Как {@link #partitionBy(Function, int, Function)}, но результаты отдаются в порядке элементов источника,
+     * а не в порядке готовности, как после flatMap. Ключи по-прежнему обрабатываются параллельно.
+     * <p>
+     * Результаты, обогнавшие ещё не готовый, ждут его в буфере. Источник не читается дальше, чем на
+     * maxInFlight элементов вперёд последнего отданного результата, поэтому буфер никогда не больше maxInFlight
+     *
+     * @param keySelector функция получения ключа
+     * @param partitions  количество дорожек, обычно по количеству ядер
+     * @param mapper      обработка элемента
+     * @param maxInFlight сколько элементов может обрабатываться одновременно, включая готовые, но ждущие своей очереди
+     * @param scheduler   откуда брать воркеров для дорожек
+     */
+    public static <T, K, R> Function<Flux<T>, Flux<R>> partitionByOrdered(
+            Function<? super T, ? extends K> keySelector,
+            int partitions,
+            Function<? super T, ? extends R> mapper,
+            int maxInFlight,
+            Scheduler scheduler) {
+        Objects.requireNonNull(mapper, "mapper");
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight > 0 required but it was " + maxInFlight);
+        }
+        Function<Flux<FluxOrderedMerge.Sequenced<T>>, Flux<GroupedFlux<Integer, FluxOrderedMerge.Sequenced<T>>>>
+                lanes = partitionBy(s -> keySelector.apply(s.value), partitions, scheduler);
+        return source -> new FluxOrderedMerge<T, R>(source,
+                sequenced -> lanes.apply(sequenced).flatMap(lane -> lane.map(s -> s.map(mapper)), partitions),
+                maxInFlight);
+    }
+
+    /**
+     * {@link #reduceByKey(Function, Function, BinaryOperator, int, double, Scheduler)}, где горячим считается ключ
+     * с долей трафика больше 1 / (2 * partitions), на воркерах {@link Schedulers#parallel()}
+     */
+    public static <T, K, V> Function<Flux<T>, Flux<Tuple2<K, V>>> reduceByKey(
+            Function<? super T, ? extends K> keySelector,
+            Function<? super T, ? extends V> mapper,
+            BinaryOperator<V> combiner,
+            int partitions) {
+        return reduceByKey(keySelector, mapper, combiner, partitions, 0.5 / partitions, Schedulers.parallel());
+    }
+
+    /**
+     * Сворачивает значения каждого ключа через combiner и отдаёт по одному результату на ключ,
+     * когда источник завершится. Значения считаются mapper параллельно на partitions дорожках,
+     * как в {@link #partitionBy(Function, int, Function, Scheduler)}.
+     * <p>
+     * На реальном трафике несколько горячих ключей занимают свои дорожки, пока остальные простаивают.
+     * Здесь частоты ключей оцениваются count-min sketch, и ключ с долей трафика больше hotKeyShare
+     * раскладывается по всем дорожкам по кругу. Каждая дорожка сворачивает свою часть, частичные результаты
+     * одного ключа сводятся в конце, поэтому combiner обязан быть ассоциативным и коммутативным,
+     * например сумма, максимум или объединение множеств. keySelector вызывается дважды на элемент:
+     * при выборе дорожки и при свёртке
+     *
+     * @param keySelector функция получения ключа
+     * @param mapper      значение элемента, не null
+     * @param combiner    ассоциативная и коммутативная свёртка значений
+     * @param partitions  количество дорожек, обычно по количеству ядер
+     * @param hotKeyShare с какой доли трафика ключ считается горячим, 1.0 выключает разделение
+     * @param scheduler   откуда брать воркеров для дорожек
+     */
+    public static <T, K, V> Function<Flux<T>, Flux<Tuple2<K, V>>> reduceByKey(
+            Function<? super T, ? extends K> keySelector,
+            Function<? super T, ? extends V> mapper,
+            BinaryOperator<V> combiner,
+            int partitions,
+            double hotKeyShare,
+            Scheduler scheduler) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(mapper, "mapper");
+        Objects.requireNonNull(combiner, "combiner");
+        Objects.requireNonNull(scheduler, "scheduler");
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions > 0 required but it was " + partitions);
+        }
+        if (!(hotKeyShare > 0.0 && hotKeyShare <= 1.0)) {
+            throw new IllegalArgumentException("hotKeyShare in (0, 1] required but it was " + hotKeyShare);
+        }
+        GroupBySpec spec = GroupBySpec.create();
+        return source -> new FluxGroupByExx<T, Integer>(source,
+                () -> {
+                    HotKeySplitter<K> splitter = new HotKeySplitter<>(partitions, hotKeyShare);
+                    return new GroupIndex.Slotted<T, Integer>(t -> splitter.lane(keySelector.apply(t)),
+                            partitions, Integer::valueOf);
+                },
+                spec, scheduler)
+                .flatMap(lane -> lane.collect(HashMap<K, V>::new,
+                                (partial, t) -> partial.merge(keySelector.apply(t), mapper.apply(t), combiner)),
+                        partitions)
+                .collect(HashMap<K, V>::new,
+                        (result, partial) -> partial.forEach((key, value) -> result.merge(key, value, combiner)))
+                .flatMapIterable(Map::entrySet)
+                .map(entry -> Tuples.of(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * Сворачивает элементы каждого ключа в окнах времени и отдаёт по итогу на ключ, когда окно закрывается.
+     * В отличие от groupBy + window + reduce, элементы нигде не копятся: на ключ в каждом открытом окне
+     * хранится только аккумулятор, поэтому память растёт с количеством ключей и окон, а не элементов.
+     * <pre>
+     * payments.transform(ExxFlux.keyedAggregate(Payment::accountId,
+     *         WindowSpec.sliding(Duration.ofMinutes(5), Duration.ofMinutes(1)),
+     *         () -&gt; 0L, (sum, p) -&gt; sum + p.amount()))
+     * </pre>
+     * Ключи, от которых за окно не пришло ни одного элемента, в итогах окна не появляются.
+     * При завершении источника открытые окна отдаются досрочно. Если подписчик не забирает итоги,
+     * источник перестаёт вычитываться, см. {@link WindowSpec#maxPending(int)}
+     *
+     * @param keySelector функция получения ключа
+     * @param windowSpec  длина и шаг окон
+     * @param initial     начальное значение аккумулятора ключа в новом окне
+     * @param accumulator добавляет элемент в аккумулятор, может менять и возвращать тот же объект
+     */
+    public static <T, K, A> Function<Flux<T>, Flux<KeyedWindow<K, A>>> keyedAggregate(
+            Function<? super T, ? extends K> keySelector,
+            WindowSpec windowSpec,
+            Supplier<? extends A> initial,
+            BiFunction<A, ? super T, A> accumulator) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(windowSpec, "windowSpec");
+        Objects.requireNonNull(initial, "initial");
+        Objects.requireNonNull(accumulator, "accumulator");
+        return source -> new FluxKeyedAggregate<>(source, keySelector, windowSpec, initial, accumulator);
+    }
+
+    /**
+     * {@link #groupByBatched(Function, int, Duration, int, Scheduler)} с окном запроса на
+     * {@link Queues#SMALL_BUFFER_SIZE} полных пачек и таймером на {@link Schedulers#parallel()}
+     */
+    public static <T, K> Function<Flux<T>, Flux<GroupBatch<K, T>>> groupByBatched(
+            Function<? super T, ? extends K> keySelector, int maxSize, Duration maxTime) {
+        return groupByBatched(keySelector, maxSize, maxTime,
+                (int) Math.min(Integer.MAX_VALUE, (long) Queues.SMALL_BUFFER_SIZE * maxSize), null);
+    }
+
+    /**
+     * Группирует элементы по ключу и отдаёт их пачками: пачка уходит, как только в ней maxSize элементов,
+     * неполные пачки выгружаются не реже раза в maxTime. Подходит, когда группы нужны ради обработки
+     * элементов ключа вместе, а не ради отдельного GroupedFlux на ключ: на пачку приходится один onNext,
+     * и следующие операторы платят за сигнал один раз на пачку, а не на элемент.
+     * <p>
+     * У источника запрашивается не больше prefetch элементов сверх отданных подписчику. Пачки наполняются
+     * до maxSize, только если окно вмещает по пачке на активный ключ, иначе они уходят раньше, неполными
+     *
+     * @param keySelector функция получения ключа
+     * @param maxSize     наибольший размер пачки
+     * @param maxTime     сколько неполная пачка может ждать
+     * @param prefetch    окно запроса к источнику в элементах
+     * @param scheduler   таймер выгрузки неполных пачек, null означает {@link Schedulers#parallel()}
+     */
+    public static <T, K> Function<Flux<T>, Flux<GroupBatch<K, T>>> groupByBatched(
+            Function<? super T, ? extends K> keySelector,
+            int maxSize,
+            Duration maxTime,
+            int prefetch,
+            @Nullable Scheduler scheduler) {
+        Objects.requireNonNull(keySelector, "keySelector");
+        Objects.requireNonNull(maxTime, "maxTime");
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize > 0 required but it was " + maxSize);
+        }
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch > 0 required but it was " + prefetch);
+        }
+        GroupBySpec.requirePositive(maxTime, "maxTime");
+        return source -> new FluxGroupByBatched<>(source, keySelector, maxSize, maxTime, prefetch, scheduler);
+    }
+
+    /**
+     * {@link #publishOnBatched(Scheduler, int, Duration, int)} с окном запроса к источнику
+     * в четыре пачки, но не меньше {@link Queues#SMALL_BUFFER_SIZE}
+     */
+    public static <T> Function<Flux<T>, Flux<T>> publishOnBatched(Scheduler scheduler, int maxBatch, Duration maxDelay) {
+        return publishOnBatched(scheduler, maxBatch, maxDelay,
+                (int) Math.min(Integer.MAX_VALUE, Math.max(Queues.SMALL_BUFFER_SIZE, 4L * maxBatch)));
+    }
+
+    /**
+     * Аналог {@link Flux#publishOn(Scheduler, int)} для источников с высокой частотой: элементы переходят
+     * на воркер scheduler пачками до maxBatch, а не по одному. Очередь и пробуждение воркера
+     * оплачиваются раз на пачку, и подписчик получает всю пачку за один проход дренажа.
+     * Неполная пачка уходит не позже чем через maxDelay, так что на редком источнике
+     * элементы задерживаются не больше чем на maxDelay.
+     * <p>
+     * Порядок элементов, спрос подписчика и ошибка после уже пришедших элементов такие же, как в publishOn
+     *
+     * @param scheduler куда переносить элементы
+     * @param maxBatch  наибольший размер пачки
+     * @param maxDelay  сколько неполная пачка может ждать
+     * @param prefetch  окно запроса к источнику в элементах, не меньше maxBatch
+     */
+    public static <T> Function<Flux<T>, Flux<T>> publishOnBatched(Scheduler scheduler,
+                                                                  int maxBatch,
+                                                                  Duration maxDelay,
+                                                                  int prefetch) {
+        Objects.requireNonNull(scheduler, "scheduler");
+        Objects.requireNonNull(maxDelay, "maxDelay");
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch > 0 required but it was " + maxBatch);
+        }
+        if (prefetch < maxBatch) {
+            throw new IllegalArgumentException("prefetch >= maxBatch required but it was "
+                    + prefetch + " < " + maxBatch);
+        }
+        GroupBySpec.requirePositive(maxDelay, "maxDelay");
+        return source -> new FluxPublishOnBatched<>(source, scheduler, maxBatch, maxDelay.toNanos(), prefetch);
+    }
+
+    static int partition(Object key, int partitions) {
+        int h = Objects.requireNonNull(key, "The keySelector returned a null value").hashCode();
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+}
@@ -0,0 +1,373 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * groupBy, который отдаёт не группы, а пачки элементов ключа.
+ * <p>
+ * Элемент кладётся в список своего ключа, полный список (maxSize) сразу уходит подписчику пачкой,
+ * неполные раз в maxTime выгружает таймер. Подписчик получает один onNext на пачку вместо цепочки
+ * GroupedFlux - очередь группы - onNext на каждый элемент.
+ * <p>
+ * У источника запрашивается не больше prefetch элементов сверх отданных подписчику. Если все они лежат
+ * в неполных списках, ждать таймера бессмысленно: больше элементов не придёт, поэтому списки выгружаются сразу.
+ * Списки пишут поток источника и таймер, обращения к ним идут под монитором оператора
+ *
+ * @param <T> тип элементов
+ * @param <K> тип ключа
+ */
+final class FluxGroupByBatched<T, K> extends FluxOperator<T, GroupBatch<K, T>> {
+
+    final Function<? super T, ? extends K> keySelector;
+    final int maxSize;
+    final Duration maxTime;
+    final int prefetch;
+    @Nullable
+    final Scheduler scheduler;
+
+    FluxGroupByBatched(Flux<? extends T> source,
+                       Function<? super T, ? extends K> keySelector,
+                       int maxSize,
+                       Duration maxTime,
+                       int prefetch,
+                       @Nullable Scheduler scheduler) {
+        super(source);
+        this.keySelector = keySelector;
+        this.maxSize = maxSize;
+        this.maxTime = maxTime;
+        this.prefetch = prefetch;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super GroupBatch<K, T>> actual) {
+        source.subscribe(new BatchedMain<>(actual, this, scheduler != null ? scheduler : Schedulers.parallel()));
+    }
+
+    @Override
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    static final class BatchedMain<T, K> implements CoreSubscriber<T>, Subscription, Scannable {
+
+        final CoreSubscriber<? super GroupBatch<K, T>> actual;
+        final Function<? super T, ? extends K> keySelector;
+        final int maxSize;
+        final long maxTimeNanos;
+        final int prefetch;
+        final Scheduler scheduler;
+        final Queue<GroupBatch<K, T>> queue = Queues.<GroupBatch<K, T>>unboundedMultiproducer().get();
+
+        /*
+         * Неполные списки ключей и количество элементов в них, только под монитором
+         */
+        final Map<K, List<T>> buffers = new HashMap<>();
+        int held;
+
+        Subscription s;
+
+        volatile Disposable timer;
+
+        volatile boolean done;
+
+        volatile boolean cancelled;
+
+        Throwable error;
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<BatchedMain> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(BatchedMain.class, "wip");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<BatchedMain> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(BatchedMain.class, "requested");
+
+        BatchedMain(CoreSubscriber<? super GroupBatch<K, T>> actual,
+                    FluxGroupByBatched<T, K> parent,
+                    Scheduler scheduler) {
+            this.actual = actual;
+            this.keySelector = parent.keySelector;
+            this.maxSize = parent.maxSize;
+            this.maxTimeNanos = parent.maxTime.toNanos();
+            this.prefetch = parent.prefetch;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                actual.onSubscribe(this);
+                Disposable t;
+                try {
+                    t = scheduler.schedulePeriodically(this::tick, maxTimeNanos, maxTimeNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException ex) {
+                    s.cancel();
+                    actual.onError(Operators.onRejectedExecution(ex, s, null, null, currentContext()));
+                    return;
+                }
+                timer = t;
+                if (cancelled) {
+                    t.dispose();
+                    return;
+                }
+                s.request(Operators.unboundedOrPrefetch(prefetch));
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            if (cancelled) {
+                Operators.onDiscard(t, currentContext());
+                return;
+            }
+            K key;
+            try {
+                key = Objects.requireNonNull(keySelector.apply(t), "The keySelector returned a null value");
+            } catch (Throwable ex) {
+                onError(Operators.onOperatorError(s, ex, t, currentContext()));
+                return;
+            }
+            boolean flushed;
+            synchronized (this) {
+                List<T> batch = buffers.get(key);
+                if (batch == null) {
+                    batch = new ArrayList<>(Math.min(maxSize, 16));
+                    buffers.put(key, batch);
+                }
+                batch.add(t);
+                held++;
+                flushed = true;
+                if (batch.size() == maxSize) {
+                    buffers.remove(key);
+                    held -= maxSize;
+                    queue.offer(new GroupBatch<>(key, batch));
+                } else if (held == prefetch) {
+                    // всё окно запроса лежит в неполных списках, и новых элементов не будет, пока их не отдать
+                    flushAll();
+                } else {
+                    flushed = false;
+                }
+            }
+            if (flushed) {
+                drain();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                if (done) {
+                    Operators.onErrorDropped(t, currentContext());
+                    return;
+                }
+                discardBuffers();
+                error = t;
+                done = true;
+            }
+            disposeTimer();
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                flushAll();
+                done = true;
+            }
+            disposeTimer();
+            drain();
+        }
+
+        void tick() {
+            synchronized (this) {
+                if (done || cancelled || held == 0) {
+                    return;
+                }
+                flushAll();
+            }
+            drain();
+        }
+
+        /**
+         * Выгружает все неполные списки, вызывается под монитором
+         */
+        void flushAll() {
+            for (Map.Entry<K, List<T>> entry : buffers.entrySet()) {
+                queue.offer(new GroupBatch<>(entry.getKey(), entry.getValue()));
+            }
+            buffers.clear();
+            held = 0;
+        }
+
+        /**
+         * Вызывается под монитором
+         */
+        void discardBuffers() {
+            for (List<T> batch : buffers.values()) {
+                Operators.onDiscardMultiple(batch, currentContext());
+            }
+            buffers.clear();
+            held = 0;
+        }
+
+        void disposeTimer() {
+            Disposable t = timer;
+            if (t != null) {
+                t.dispose();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            disposeTimer();
+            s.cancel();
+            synchronized (this) {
+                discardBuffers();
+            }
+            drain();
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    discardQueue();
+                } else {
+                    long r = requested;
+                    long e = 0L;
+                    while (e != r) {
+                        boolean d = done;
+                        GroupBatch<K, T> b = queue.poll();
+                        boolean empty = b == null;
+                        if (checkTerminated(d, empty)) {
+                            return;
+                        }
+                        if (empty) {
+                            break;
+                        }
+                        actual.onNext(b);
+                        e++;
+                        replenish(b.elements.size());
+                    }
+                    if (e == r && checkTerminated(done, queue.isEmpty())) {
+                        return;
+                    }
+                    if (e != 0L && r != Long.MAX_VALUE) {
+                        REQUESTED.addAndGet(this, -e);
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Дозапрашивает у источника столько, сколько было в отданной пачке. Запрос идёт сразу, а не порциями:
+         * окно в prefetch тогда складывается только из пачек и элементов в пути, и заполненное окно
+         * в неполных списках точно означает, что новых элементов не будет. Пачка и так делит цену запроса
+         * на свои элементы
+         */
+        void replenish(int n) {
+            if (prefetch != Integer.MAX_VALUE) {
+                s.request(n);
+            }
+        }
+
+        boolean checkTerminated(boolean d, boolean empty) {
+            if (!d) {
+                return false;
+            }
+            Throwable e = error;
+            if (e != null) {
+                discardQueue();
+                actual.onError(e);
+                return true;
+            }
+            if (empty) {
+                actual.onComplete();
+                return true;
+            }
+            return false;
+        }
+
+        void discardQueue() {
+            GroupBatch<K, T> b;
+            while ((b = queue.poll()) != null) {
+                Operators.onDiscardMultiple(b.elements, currentContext());
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done && queue.isEmpty();
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.PREFETCH) return prefetch;
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_ON) return scheduler;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.ASYNC;
+            return null;
+        }
+    }
+}
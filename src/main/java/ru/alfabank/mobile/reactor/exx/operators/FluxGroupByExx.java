@@ -0,0 +1,1338 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * groupBy, который не зависает, когда группы без подписчика забили всё окно prefetch.
+ * <p>
+ * Элемент, попавший в группу без подписчика, паркуется в очереди группы и сразу же дозапрашивается
+ * у источника. Когда на группу подпишутся, такие элементы отдаются первыми и повторно не дозапрашиваются.
+ * Элементы групп с подписчиком, как и в стандартном groupBy, дозапрашиваются по мере потребления.
+ * Общее количество запаркованных элементов ограничено {@link GroupBySpec#maxSpilled}, сверх него
+ * элементы паркуются в {@link DiskBacklog}, если задан {@link GroupBySpec#spillDirectory}.
+ * <p>
+ * Оператор ведёт счётчики полученных и запрошенных у источника элементов,
+ * по ним {@link StarvationWatchdog} распознаёт зависание, если оно всё-таки случилось.
+ * <p>
+ * При ограничении {@link GroupBySpec#maxGroups} или {@link GroupBySpec#maxIdle} живые группы выстраиваются
+ * в LRU-список. Список принадлежит потоку onNext, поэтому обходится без блокировок: группы, завершённые
+ * в других потоках, передаются в него через очередь и вычёркиваются при следующем элементе.
+ * Так же устроен и {@link GroupIndex}: поиск группы по элементу идёт без блокировок,
+ * а потокобезопасный набор живых групп трогается только при создании и завершении группы.
+ * <p>
+ * С {@link GroupBySpec#idleTimeout} простаивающие группы завершает {@link HashedWheelTimer}, общий на все группы
+ * оператора. Чтобы таймер не завершил группу посреди элемента, поток onNext на время передачи элемента
+ * занимает группу CAS-ом, а таймер занимает её на время проверки, см. {@link Group#enterBusy()}.
+ * <p>
+ * Метрики ({@link GroupByMetrics}) и события групп ({@link GroupByEvents}) включаются отдельно,
+ * без них горячий путь проверяет только ссылку на null.
+ * <p>
+ * Если задан планировщик групп, каждая группа получает своего воркера и отдаёт элементы подписчику на нём,
+ * так очередь группы одновременно служит очередью перехода между потоками, как в publishOn.
+ * <p>
+ * С {@link GroupBySpec#adaptivePrefetch(int, int)} окно запроса к источнику не фиксировано:
+ * оно удваивается, когда выбрано целиком и часть его держат группы без подписчика,
+ * и сжимается за счёт недозапроса потреблённых элементов, когда такие группы вычитаны.
+ *
+ * @param <T> тип элементов
+ * @param <K> тип ключа группы
+ */
+final class FluxGroupByExx<T, K> extends FluxOperator<T, GroupedFlux<K, T>> {
+
+    final Supplier<? extends GroupIndex<T, K>> indexSupplier;
+
+    final GroupBySpec spec;
+
+    @Nullable
+    final Scheduler groupScheduler;
+
+    FluxGroupByExx(Flux<? extends T> source,
+                   Supplier<? extends GroupIndex<T, K>> indexSupplier,
+                   GroupBySpec spec,
+                   @Nullable Scheduler groupScheduler) {
+        super(source);
+        this.indexSupplier = Objects.requireNonNull(indexSupplier, "indexSupplier");
+        this.spec = Objects.requireNonNull(spec, "spec");
+        this.groupScheduler = groupScheduler;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super GroupedFlux<K, T>> actual) {
+        source.subscribe(new GroupByMain<>(actual, indexSupplier.get(), spec, groupScheduler));
+    }
+
+    @Override
+    public int getPrefetch() {
+        return spec.prefetch;
+    }
+
+    static final class GroupByMain<T, K> implements CoreSubscriber<T>, Subscription, Scannable {
+
+        final CoreSubscriber<? super GroupedFlux<K, T>> actual;
+        final GroupIndex<T, K> index;
+        final int prefetch;
+        final int maxSpilled;
+        @Nullable
+        final SpillFile spillFile;
+        @Nullable
+        final GroupBySpillSerializer<T> spillSerializer;
+        final int maxPrefetch;
+        final boolean adaptive;
+        final GroupBySpec spec;
+        @Nullable
+        final GroupByMetrics metrics;
+        @Nullable
+        final GroupByEvents events;
+        @Nullable
+        final Scheduler groupScheduler;
+        final Set<Group<K, T>> groups = ConcurrentHashMap.newKeySet();
+        final Queue<Group<K, T>> queue = Queues.<Group<K, T>>unbounded().get();
+        final Queue<Group<K, T>> terminatedGroups = Queues.<Group<K, T>>unboundedMultiproducer().get();
+
+        final boolean tracksRecency;
+        final int maxGroups;
+        final long maxIdleMillis;
+        @Nullable
+        final Scheduler clock;
+        final long idleTimeoutMillis;
+        @Nullable
+        final HashedWheelTimer idleTimer;
+
+        /**
+         * Голова LRU-списка, группа, дольше всех не получавшая элементов. Трогается только из onNext
+         */
+        Group<K, T> lruHead;
+        Group<K, T> lruTail;
+
+        Subscription s;
+
+        Disposable watchdog;
+
+        volatile boolean done;
+        volatile Throwable error;
+
+        /**
+         * Ошибка зависания от таймера ждёт здесь, если в этот момент источник внутри onNext
+         */
+        GroupByStarvationException starvationError;
+
+        /**
+         * Сигналы источника плюс единица от таймера зависания, считается только с failOnStarvation.
+         * Ошибку отправляет тот, кто застал счётчик нулевым или вернул его не в ноль, после неё счётчик
+         * больше не обнуляется и следующие сигналы источника отбрасываются
+         */
+        volatile int signalling;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> SIGNALLING =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "signalling");
+
+        final boolean failsOnStarvation;
+
+        volatile int cancelled;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> CANCELLED =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "cancelled");
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "wip");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<GroupByMain> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(GroupByMain.class, "requested");
+
+        /**
+         * Живые группы плюс единица за саму подписку на группы.
+         * Когда счётчик обнуляется, источник больше никому не нужен
+         */
+        volatile int groupCount;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> GROUP_COUNT =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "groupCount");
+
+        volatile int spilled;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> SPILLED =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "spilled");
+
+        /**
+         * Сколько элементов пришло от источника, пишется только из onNext
+         */
+        volatile long received;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<GroupByMain> RECEIVED =
+                AtomicLongFieldUpdater.newUpdater(GroupByMain.class, "received");
+
+        /**
+         * Текущий размер окна запроса к источнику, меняется только при адаптивном prefetch
+         */
+        volatile int window;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> WINDOW =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "window");
+
+        /**
+         * Сколько элементов окна лежит в группах без подписчика, считается только при адаптивном prefetch
+         */
+        volatile int held;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GroupByMain> HELD =
+                AtomicIntegerFieldUpdater.newUpdater(GroupByMain.class, "held");
+
+        /**
+         * Сколько элементов всего запрошено у источника
+         */
+        volatile long upstreamRequested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<GroupByMain> UPSTREAM_REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(GroupByMain.class, "upstreamRequested");
+
+        GroupByMain(CoreSubscriber<? super GroupedFlux<K, T>> actual,
+                    GroupIndex<T, K> index,
+                    GroupBySpec spec,
+                    @Nullable Scheduler groupScheduler) {
+            this.actual = actual;
+            this.index = index;
+            this.groupScheduler = groupScheduler;
+            this.prefetch = spec.prefetch;
+            this.maxSpilled = spec.spillLimit();
+            this.spillFile = spec.spillDirectory == null ? null
+                    : new SpillFile(spec.spillDirectory, spec.spillSegmentSize);
+            @SuppressWarnings("unchecked")
+            GroupBySpillSerializer<T> serializer = (GroupBySpillSerializer<T>) spec.spillSerializer;
+            this.spillSerializer = serializer;
+            this.maxPrefetch = spec.maxPrefetch;
+            this.adaptive = spec.adaptive();
+            this.spec = spec;
+            this.tracksRecency = spec.tracksRecency();
+            this.maxGroups = spec.maxGroups;
+            this.maxIdleMillis = spec.maxIdle == null ? Long.MAX_VALUE : spec.maxIdle.toMillis();
+            this.clock = spec.maxIdle == null ? null : Schedulers.parallel();
+            this.idleTimeoutMillis = spec.idleTimeout == null ? 0L : spec.idleTimeout.toMillis();
+            this.idleTimer = spec.idleTimeout == null ? null
+                    : new HashedWheelTimer(Schedulers.parallel(), Math.max(1L, idleTimeoutMillis / 16), 32);
+            GROUP_COUNT.lazySet(this, 1);
+            WINDOW.lazySet(this, prefetch);
+            this.metrics = spec.metricsRegistry == null ? null : new GroupByMetrics(spec.metricsName, this);
+            this.events = spec.events;
+            this.failsOnStarvation = spec.failOnStarvation && spec.starvationCheckInterval != null
+                    && prefetch != Integer.MAX_VALUE;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                if (metrics != null) {
+                    spec.metricsRegistry.register(metrics);
+                }
+                actual.onSubscribe(this);
+                if (spec.starvationCheckInterval != null && prefetch != Integer.MAX_VALUE) {
+                    long period = spec.starvationCheckInterval.toNanos();
+                    watchdog = Schedulers.parallel().schedulePeriodically(
+                            new StarvationWatchdog(this), period, period, TimeUnit.NANOSECONDS);
+                }
+                if (idleTimer != null) {
+                    idleTimer.start();
+                }
+                long n = prefetch == Integer.MAX_VALUE ? Long.MAX_VALUE : prefetch;
+                UPSTREAM_REQUESTED.lazySet(this, n);
+                s.request(n);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (!failsOnStarvation) {
+                next(t);
+                return;
+            }
+            if (SIGNALLING.getAndIncrement(this) != 0) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            next(t);
+            if (SIGNALLING.decrementAndGet(this) != 0) {
+                // таймер зафиксировал зависание, пока шёл элемент, ошибку отправляем мы
+                fail(starvationError);
+            }
+        }
+
+        void next(T t) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            RECEIVED.lazySet(this, received + 1);
+            removeTerminated();
+            Group<K, T> g;
+            try {
+                g = index.get(t);
+            } catch (Throwable ex) {
+                fail(Operators.onOperatorError(s, ex, t, currentContext()));
+                return;
+            }
+            if (g != null && idleTimer != null && g.terminated == 0 && !g.enterBusy()) {
+                // группу только что завершил таймер простоя, элемент откроет новую
+                g = null;
+            }
+            if (g == null || g.terminated != 0) {
+                if (cancelled != 0) {
+                    Operators.onDiscard(t, currentContext());
+                    replenish(1);
+                    return;
+                }
+                K key;
+                try {
+                    key = index.key();
+                } catch (Throwable ex) {
+                    fail(Operators.onOperatorError(s, ex, t, currentContext()));
+                    return;
+                }
+                g = new Group<>(key, this, groupScheduler == null ? null : groupScheduler.createWorker());
+                if (idleTimer != null) {
+                    Group.IDLE.lazySet(g, Group.BUSY);
+                    idleTimer.schedule(g::checkIdle, idleTimeoutMillis);
+                }
+                if (tracksRecency) {
+                    long now = evictBeforeCreate();
+                    g.lastAccess = now;
+                    link(g);
+                }
+                GROUP_COUNT.getAndIncrement(this);
+                if (metrics != null) {
+                    metrics.groupsCreated++;
+                }
+                index.put(g);
+                groups.add(g);
+                if (events != null) {
+                    events.publish(GroupByEvent.Type.CREATED, key, 0);
+                }
+                queue.offer(g);
+                // группу отдаём до элемента: если на неё подпишутся сразу, элемент не придётся парковать
+                drain();
+            } else if (tracksRecency) {
+                touch(g);
+            }
+            g.onNext(t);
+            if (idleTimer != null) {
+                g.exitBusy(idleTimer.now());
+            }
+            if (adaptive) {
+                growIfStuck();
+            }
+        }
+
+        /**
+         * Удваивает окно, если источнику больше ничего не должно, а часть окна держат группы без подписчика
+         */
+        void growIfStuck() {
+            if (held == 0 || upstreamRequested != received || done) {
+                return;
+            }
+            int w = window;
+            if (w >= maxPrefetch) {
+                return;
+            }
+            int grown = (int) Math.min(maxPrefetch, 2L * w);
+            if (WINDOW.compareAndSet(this, w, grown)) {
+                requestUpstream(grown - w);
+            }
+        }
+
+        /**
+         * Освобождает место под новую группу: сначала завершает простаивающие группы,
+         * затем, если лимит всё ещё достигнут, самые давно использованные
+         *
+         * @return текущее время по часам оператора
+         */
+        long evictBeforeCreate() {
+            long now = 0L;
+            if (clock != null) {
+                now = clock.now(TimeUnit.MILLISECONDS);
+                while (lruHead != null && now - lruHead.lastAccess >= maxIdleMillis) {
+                    evict(lruHead);
+                }
+            }
+            while (lruHead != null && groups.size() >= maxGroups) {
+                evict(lruHead);
+            }
+            return now;
+        }
+
+        void evict(Group<K, T> g) {
+            unlink(g);
+            g.evicted = true;
+            g.onComplete();
+        }
+
+        void touch(Group<K, T> g) {
+            if (clock != null) {
+                g.lastAccess = clock.now(TimeUnit.MILLISECONDS);
+            }
+            if (g != lruTail && g.linked) {
+                unlink(g);
+                link(g);
+            }
+        }
+
+        void link(Group<K, T> g) {
+            g.linked = true;
+            g.lruPrev = lruTail;
+            g.lruNext = null;
+            if (lruTail == null) {
+                lruHead = g;
+            } else {
+                lruTail.lruNext = g;
+            }
+            lruTail = g;
+        }
+
+        void unlink(Group<K, T> g) {
+            if (!g.linked) {
+                return;
+            }
+            g.linked = false;
+            Group<K, T> prev = g.lruPrev;
+            Group<K, T> next = g.lruNext;
+            if (prev == null) {
+                lruHead = next;
+            } else {
+                prev.lruNext = next;
+            }
+            if (next == null) {
+                lruTail = prev;
+            } else {
+                next.lruPrev = prev;
+            }
+            g.lruPrev = null;
+            g.lruNext = null;
+        }
+
+        /**
+         * Вычёркивает из индекса и LRU-списка группы, завершённые с прошлого элемента
+         */
+        void removeTerminated() {
+            Group<K, T> g;
+            while ((g = terminatedGroups.poll()) != null) {
+                index.remove(g);
+                unlink(g);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (failsOnStarvation && SIGNALLING.getAndIncrement(this) != 0) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            fail(t);
+        }
+
+        /**
+         * Ошибка из потока источника: из onNext или из его сигналов
+         */
+        void fail(Throwable t) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            error = t;
+            done = true;
+            stopTimers();
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            if (done || failsOnStarvation && SIGNALLING.getAndIncrement(this) != 0) {
+                return;
+            }
+            for (Group<K, T> g : groups) {
+                g.onComplete();
+            }
+            groups.clear();
+            index.clear();
+            done = true;
+            stopTimers();
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (CANCELLED.compareAndSet(this, 0, 1)) {
+                if (GROUP_COUNT.decrementAndGet(this) == 0) {
+                    cancelUpstream();
+                } else {
+                    drain();
+                }
+            }
+        }
+
+        /**
+         * Пытается занять место в буфере парковки
+         *
+         * @return false, если парковка выключена или буфер уже заполнен
+         */
+        boolean trySpill() {
+            if (SPILLED.incrementAndGet(this) <= maxSpilled) {
+                return true;
+            }
+            SPILLED.decrementAndGet(this);
+            return false;
+        }
+
+        void spillReleased() {
+            SPILLED.decrementAndGet(this);
+        }
+
+        /**
+         * @return очередь на диске для группы или null, если парковка на диск не настроена
+         */
+        @Nullable
+        DiskBacklog<T> newBacklog() {
+            if (spillFile == null || spillSerializer == null) {
+                return null;
+            }
+            return new DiskBacklog<>(spillFile, spillSerializer);
+        }
+
+        void spillFailed(T t, Throwable ex) {
+            Operators.onDiscard(t, currentContext());
+            fail(Operators.onOperatorError(s, ex, t, currentContext()));
+        }
+
+        void overflow(T t) {
+            Operators.onDiscard(t, currentContext());
+            fail(Operators.onOperatorError(s,
+                    Exceptions.failWithOverflow("groupBy spill buffer of " + maxSpilled
+                            + " elements is exhausted by groups without subscriber"),
+                    t, currentContext()));
+        }
+
+        void replenish(long n) {
+            if (prefetch != Integer.MAX_VALUE) {
+                if (adaptive) {
+                    n -= shrink(n);
+                    if (n == 0L) {
+                        return;
+                    }
+                }
+                requestUpstream(n);
+            }
+        }
+
+        void requestUpstream(long n) {
+            UPSTREAM_REQUESTED.addAndGet(this, n);
+            s.request(n);
+        }
+
+        /**
+         * Сжимает окно, пока оно больше нужного: минимального, если группы без подписчика ничего не держат,
+         * иначе вдвое больше занятого ими с запасом на минимальное
+         *
+         * @return сколько из n потреблённых элементов не нужно дозапрашивать
+         */
+        long shrink(long n) {
+            for (; ; ) {
+                int w = window;
+                int h = held;
+                long target = h == 0 ? prefetch : 2L * (prefetch + h);
+                if (w <= target) {
+                    return 0L;
+                }
+                int withheld = (int) Math.min(n, w - target);
+                if (WINDOW.compareAndSet(this, w, w - withheld)) {
+                    return withheld;
+                }
+            }
+        }
+
+        void heldAdded() {
+            HELD.incrementAndGet(this);
+        }
+
+        void heldReleased() {
+            HELD.decrementAndGet(this);
+        }
+
+        void groupTerminated(Group<K, T> g) {
+            groups.remove(g);
+            if (!done) {
+                terminatedGroups.offer(g);
+            }
+            if (GROUP_COUNT.decrementAndGet(this) == 0) {
+                cancelUpstream();
+            }
+        }
+
+        void cancelUpstream() {
+            stopTimers();
+            unregisterMetrics();
+            s.cancel();
+        }
+
+        void unregisterMetrics() {
+            if (metrics != null) {
+                spec.metricsRegistry.unregister(metrics);
+            }
+        }
+
+        void stopTimers() {
+            Disposable w = watchdog;
+            if (w != null) {
+                w.dispose();
+            }
+            if (idleTimer != null) {
+                idleTimer.stop();
+            }
+        }
+
+        /**
+         * @return растёт при каждом элементе от источника и каждом дозапросе
+         */
+        long progress() {
+            return received + upstreamRequested;
+        }
+
+        /**
+         * Собирает диагностику, если окно prefetch целиком занято группами без подписчика
+         *
+         * @return null, если оператор не завис
+         */
+        @Nullable
+        GroupByStarvation starvation() {
+            if (done || groupCount == 0) {
+                return null;
+            }
+            long outstanding = upstreamRequested - received;
+            if (outstanding > 0) {
+                return null;
+            }
+            int subscribedGroups = 0;
+            long bufferedInSubscribed = 0L;
+            List<GroupByStarvation.GroupState> unsubscribed = new ArrayList<>();
+            for (Group<K, T> g : groups) {
+                int buffered = g.queue.size();
+                if (g.subscribed) {
+                    subscribedGroups++;
+                    bufferedInSubscribed += buffered;
+                } else {
+                    int held = buffered - g.spilled;
+                    if (held > 0) {
+                        unsubscribed.add(new GroupByStarvation.GroupState(g.key, held));
+                    }
+                }
+            }
+            if (bufferedInSubscribed != 0L || unsubscribed.isEmpty()) {
+                return null;
+            }
+            return new GroupByStarvation(window, outstanding, requested, queue.size(),
+                    subscribedGroups, bufferedInSubscribed, unsubscribed);
+        }
+
+        /**
+         * Вызывается с таймера. Источник к этому моменту ничего не должен, но дозапрос из группы мог
+         * успеть вызвать onNext, поэтому ошибка отправляется только вне сигналов источника, см. {@link #signalling}
+         */
+        void starved(GroupByStarvation starvation) {
+            if (spec.starvationListener != null) {
+                try {
+                    spec.starvationListener.accept(starvation);
+                } catch (Throwable ex) {
+                    Operators.onErrorDropped(ex, currentContext());
+                }
+            }
+            if (failsOnStarvation) {
+                s.cancel();
+                starvationError = new GroupByStarvationException(starvation);
+                if (SIGNALLING.getAndIncrement(this) == 0) {
+                    fail(starvationError);
+                }
+            }
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled != 0) {
+                    Group<K, T> g;
+                    while ((g = queue.poll()) != null) {
+                        g.cancel();
+                    }
+                    // подписчик групп ушёл, но уже отданные группы должны узнать об ошибке источника
+                    Throwable e = error;
+                    if (done && e != null) {
+                        errorGroups(e);
+                    }
+                } else {
+                    long r = requested;
+                    long e = 0L;
+                    while (e != r) {
+                        boolean d = done;
+                        Group<K, T> g = queue.poll();
+                        boolean empty = g == null;
+                        if (checkTerminated(d, empty)) {
+                            return;
+                        }
+                        if (empty) {
+                            break;
+                        }
+                        actual.onNext(g);
+                        e++;
+                    }
+                    if (e == r && checkTerminated(done, queue.isEmpty())) {
+                        return;
+                    }
+                    if (e != 0L && r != Long.MAX_VALUE) {
+                        REQUESTED.addAndGet(this, -e);
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        boolean checkTerminated(boolean d, boolean empty) {
+            if (!d || cancelled != 0) {
+                return false;
+            }
+            Throwable e = error;
+            if (e != null) {
+                queue.clear();
+                errorGroups(e);
+                unregisterMetrics();
+                actual.onError(e);
+                return true;
+            }
+            if (empty) {
+                unregisterMetrics();
+                actual.onComplete();
+                return true;
+            }
+            return false;
+        }
+
+        void errorGroups(Throwable e) {
+            for (Group<K, T> g : groups) {
+                g.onError(e);
+            }
+            groups.clear();
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done;
+            if (key == Attr.CANCELLED) return cancelled == 1;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.PREFETCH) return prefetch;
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+
+        @Override
+        public Stream<? extends Scannable> inners() {
+            return groups.stream();
+        }
+    }
+
+    static final class Group<K, T> extends GroupedFlux<K, T> implements Subscription, Scannable, Runnable {
+
+        final K key;
+        final GroupByMain<T, K> parent;
+        final Queue<T> queue;
+        @Nullable
+        final Scheduler.Worker worker;
+
+        volatile CoreSubscriber<? super T> actual;
+
+        /**
+         * Выставляется один раз при подписке и больше не сбрасывается,
+         * поэтому запаркованные элементы всегда лежат в голове очереди
+         */
+        volatile boolean subscribed;
+
+        volatile boolean done;
+        Throwable error;
+
+        volatile boolean cancelled;
+
+        volatile int once;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> ONCE =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "once");
+
+        volatile int terminated;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> TERMINATED =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "terminated");
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "wip");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<Group> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(Group.class, "requested");
+
+        /**
+         * Сколько элементов в голове очереди уже дозапрошено у источника при парковке
+         */
+        volatile int spilled;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> SPILLED =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "spilled");
+
+        /**
+         * Сколько элементов в голове очереди пришло без подписчика и держит окно адаптивного prefetch
+         */
+        volatile int held;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> HELD =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "held");
+
+        /**
+         * Продолжение очереди на диске. Создаётся и обнуляется потоком onNext,
+         * читается подписчиком группы после очереди в памяти
+         */
+        @Nullable
+        volatile DiskBacklog<T> backlog;
+
+        /*
+         * Метрики группы, считаются только при включённых метриках. received и pendingSince пишет поток onNext,
+         * emitted пишет дренаж группы, дренаж же обнуляет pendingSince, когда вычитывает очередь до конца
+         */
+        volatile long received;
+        volatile long emitted;
+        volatile long pendingSince;
+
+        /*
+         * Состояние группы для таймера простоя: поток onNext держит BUSY, пока отдаёт группе элемент,
+         * таймер держит CHECKING, пока решает, не пора ли её завершить. EXPIRED ставит таймер, завершая группу
+         */
+        static final int ACTIVE = 0;
+        static final int BUSY = 1;
+        static final int CHECKING = 2;
+        static final int EXPIRED = 3;
+
+        volatile int idle;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> IDLE =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "idle");
+
+        /**
+         * Время последнего элемента по часам таймера простоя, пишется под BUSY, читается под CHECKING
+         */
+        long idleSince;
+
+        /**
+         * Размер очереди, о котором последним сообщило событие {@link GroupByEvent.Type#HIGH_WATER},
+         * или 0, если очередь с тех пор вычитана. Растит поток onNext, обнуляет дренаж группы
+         */
+        volatile int highWater;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Group> HIGH_WATER =
+                AtomicIntegerFieldUpdater.newUpdater(Group.class, "highWater");
+
+        /**
+         * Группу завершает сам оператор, выставляется тем же потоком перед {@link #onComplete()}
+         */
+        boolean evicted;
+
+        /*
+         * Поля LRU-списка, принадлежат потоку onNext
+         */
+        Group<K, T> lruPrev;
+        Group<K, T> lruNext;
+        boolean linked;
+        long lastAccess;
+
+        /**
+         * Ключ группы в представлении {@link GroupIndex}, если оно отличается от {@link #key}
+         */
+        long indexKey;
+
+        Group(K key, GroupByMain<T, K> parent, @Nullable Scheduler.Worker worker) {
+            this.key = key;
+            this.parent = parent;
+            this.worker = worker;
+            this.queue = Queues.<T>unbounded().get();
+        }
+
+        @Override
+        public K key() {
+            return key;
+        }
+
+        void onNext(T t) {
+            if (parent.metrics != null) {
+                received++;
+                if (pendingSince == 0L) {
+                    pendingSince = System.nanoTime();
+                }
+            }
+            DiskBacklog<T> b = backlog;
+            if (b != null) {
+                if (offerToDisk(b, t)) {
+                    return;
+                }
+                // подписчик вычитал диск до конца, дальше снова память
+                backlog = null;
+            }
+            if (!subscribed && parent.maxSpilled > 0) {
+                if (!parent.trySpill()) {
+                    b = parent.newBacklog();
+                    if (b == null) {
+                        parent.overflow(t);
+                        return;
+                    }
+                    backlog = b;
+                    offerToDisk(b, t);
+                    return;
+                }
+                SPILLED.incrementAndGet(this);
+                queue.offer(t);
+                if (parent.events != null) {
+                    reportHighWater(parent.events);
+                }
+                drain();
+                parent.replenish(1);
+                return;
+            }
+            if (!subscribed && parent.adaptive) {
+                HELD.incrementAndGet(this);
+                parent.heldAdded();
+            }
+            queue.offer(t);
+            if (parent.events != null) {
+                reportHighWater(parent.events);
+            }
+            drain();
+        }
+
+        /**
+         * Сообщает о росте очереди, когда она достигает следующей степени двойки
+         */
+        void reportHighWater(GroupByEvents events) {
+            int hw = highWater;
+            int next = hw == 0 ? GroupByEvents.HIGH_WATER_START : hw << 1;
+            int size = queue.size();
+            if (size >= next && next > 0 && HIGH_WATER.compareAndSet(this, hw, next)) {
+                events.publish(GroupByEvent.Type.HIGH_WATER, key, size);
+            }
+        }
+
+        /**
+         * Сообщает, что очередь вычитана, если до этого сообщалось о её росте
+         */
+        void reportDrained() {
+            GroupByEvents events = parent.events;
+            if (events != null && highWater != 0 && HIGH_WATER.getAndSet(this, 0) != 0) {
+                events.publish(GroupByEvent.Type.DRAINED, key, 0);
+            }
+        }
+
+        /**
+         * @return false, если очередь на диске уже вычитана и закрыта
+         */
+        boolean offerToDisk(DiskBacklog<T> b, T t) {
+            boolean windowed = subscribed;
+            try {
+                if (!b.offer(t, windowed)) {
+                    return false;
+                }
+            } catch (Throwable ex) {
+                parent.spillFailed(t, ex);
+                return true;
+            }
+            drain();
+            if (!windowed) {
+                parent.replenish(1);
+            }
+            return true;
+        }
+
+        /**
+         * Занимает группу под передачу элемента, чтобы таймер простоя не завершил её посередине.
+         * Если таймер как раз проверяет группу, ждёт его решения, проверка это несколько чтений
+         *
+         * @return false, если таймер уже завершил группу
+         */
+        boolean enterBusy() {
+            for (; ; ) {
+                int state = idle;
+                if (state == ACTIVE) {
+                    if (IDLE.compareAndSet(this, ACTIVE, BUSY)) {
+                        return true;
+                    }
+                } else if (state == EXPIRED) {
+                    return false;
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+
+        void exitBusy(long now) {
+            idleSince = now;
+            IDLE.lazySet(this, ACTIVE);
+        }
+
+        /**
+         * Выполняется на тике {@link HashedWheelTimer}: завершает группу, если она простояла idleTimeout,
+         * иначе переставляет проверку на момент, когда срок истечёт считая от последнего элемента
+         */
+        void checkIdle() {
+            if (terminated != 0) {
+                return;
+            }
+            HashedWheelTimer timer = parent.idleTimer;
+            if (!IDLE.compareAndSet(this, ACTIVE, CHECKING)) {
+                // поток onNext прямо сейчас отдаёт группе элемент
+                timer.schedule(this::checkIdle, parent.idleTimeoutMillis);
+                return;
+            }
+            long idleFor = timer.now() - idleSince;
+            if (idleFor >= parent.idleTimeoutMillis) {
+                idle = EXPIRED;
+                evicted = true;
+                onComplete();
+            } else {
+                idle = ACTIVE;
+                timer.schedule(this::checkIdle, parent.idleTimeoutMillis - idleFor);
+            }
+        }
+
+        void onError(Throwable t) {
+            error = t;
+            done = true;
+            doTerminate();
+            drain();
+        }
+
+        void onComplete() {
+            done = true;
+            doTerminate();
+            drain();
+        }
+
+        void doTerminate() {
+            if (TERMINATED.compareAndSet(this, 0, 1)) {
+                GroupByEvents events = parent.events;
+                if (events != null) {
+                    events.publish(evicted ? GroupByEvent.Type.EVICTED : GroupByEvent.Type.COMPLETED,
+                            key, queue.size());
+                }
+                parent.groupTerminated(this);
+            }
+        }
+
+        @Override
+        public void subscribe(CoreSubscriber<? super T> actual) {
+            if (once == 0 && ONCE.compareAndSet(this, 0, 1)) {
+                actual.onSubscribe(this);
+                this.actual = actual;
+                subscribed = true;
+                if (parent.events != null) {
+                    parent.events.publish(GroupByEvent.Type.SUBSCRIBED, key, queue.size());
+                }
+                drain();
+            } else {
+                Operators.error(actual, new IllegalStateException("GroupedFlux allows only one Subscriber"));
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            doTerminate();
+            drain();
+        }
+
+        /**
+         * Учитывает взятый из очереди элемент
+         *
+         * @return true, если элемент был запаркован и уже дозапрошен у источника
+         */
+        boolean releaseSpilled() {
+            if (spilled != 0) {
+                SPILLED.decrementAndGet(this);
+                parent.spillReleased();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Учитывает взятый из очереди элемент, который держал окно адаптивного prefetch без подписчика
+         */
+        void releaseHeld() {
+            if (held != 0) {
+                HELD.decrementAndGet(this);
+                parent.heldReleased();
+            }
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            Scheduler.Worker w = worker;
+            if (w != null) {
+                try {
+                    w.schedule(this);
+                    return;
+                } catch (RejectedExecutionException ignored) {
+                    // воркер уже освобождён после завершения группы, остаётся только прибраться на месте
+                }
+            }
+            drainLoop();
+        }
+
+        @Override
+        public void run() {
+            drainLoop();
+        }
+
+        void drainLoop() {
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    discardQueue();
+                } else {
+                    CoreSubscriber<? super T> a = actual;
+                    if (a != null && drainTo(a)) {
+                        return;
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @return true, если группа завершилась и больше дренить нечего
+         */
+        boolean drainTo(CoreSubscriber<? super T> a) {
+            long r = requested;
+            long e = 0L;
+            int unspilled = 0;
+            while (e != r) {
+                if (cancelled) {
+                    break;
+                }
+                boolean d = done;
+                T t = queue.poll();
+                boolean fromDisk = false;
+                if (t == null) {
+                    DiskBacklog<T> b = backlog;
+                    if (b != null) {
+                        try {
+                            t = b.poll();
+                        } catch (Throwable ex) {
+                            failBacklog(a, ex);
+                            return true;
+                        }
+                        fromDisk = t != null;
+                        if (fromDisk && b.polledWindowed) {
+                            unspilled++;
+                        }
+                    }
+                }
+                boolean empty = t == null;
+                if (empty) {
+                    reportDrained();
+                }
+                if (d && empty) {
+                    terminate(a);
+                    return true;
+                }
+                if (empty) {
+                    break;
+                }
+                if (!fromDisk && !releaseSpilled()) {
+                    releaseHeld();
+                    unspilled++;
+                }
+                a.onNext(t);
+                e++;
+            }
+            if (e == r && !cancelled && done && queue.isEmpty() && backlogIsEmpty()) {
+                reportDrained();
+                terminate(a);
+                return true;
+            }
+            if (unspilled != 0) {
+                parent.replenish(unspilled);
+            }
+            if (e != 0L) {
+                if (parent.metrics != null) {
+                    recordEmitted(e);
+                }
+                if (r != Long.MAX_VALUE) {
+                    REQUESTED.addAndGet(this, -e);
+                }
+            }
+            return false;
+        }
+
+        void recordEmitted(long e) {
+            emitted += e;
+            parent.metrics.emitted.add(e);
+            if (queue.isEmpty() && backlogIsEmpty()) {
+                pendingSince = 0L;
+                // элемент мог прийти, пока очередь проверялась
+                if (!queue.isEmpty()) {
+                    pendingSince = System.nanoTime();
+                }
+            }
+        }
+
+        /**
+         * @return сколько группа держит невычитанные элементы
+         */
+        long backlogAgeNanos(long now) {
+            long since = pendingSince;
+            return since == 0L ? 0L : now - since;
+        }
+
+        boolean backlogIsEmpty() {
+            DiskBacklog<T> b = backlog;
+            return b == null || b.isEmpty();
+        }
+
+        /**
+         * Элемент с диска не прочитался: группа отменяется, а её подписчик получает ошибку
+         */
+        void failBacklog(CoreSubscriber<? super T> a, Throwable ex) {
+            cancelled = true;
+            doTerminate();
+            discardQueue();
+            a.onError(Operators.onOperatorError(ex, a.currentContext()));
+        }
+
+        void terminate(CoreSubscriber<? super T> a) {
+            actual = null;
+            Throwable e = error;
+            if (e != null) {
+                a.onError(e);
+            } else {
+                a.onComplete();
+            }
+            disposeWorker();
+        }
+
+        void disposeWorker() {
+            Scheduler.Worker w = worker;
+            if (w != null) {
+                w.dispose();
+            }
+        }
+
+        /**
+         * Выбрасывает элементы отменённой группы и возвращает источнику занятое ими окно,
+         * иначе остальные группы могут остаться без данных
+         */
+        void discardQueue() {
+            Context ctx = parent.currentContext();
+            int unspilled = 0;
+            T t;
+            while ((t = queue.poll()) != null) {
+                if (!releaseSpilled()) {
+                    releaseHeld();
+                    unspilled++;
+                }
+                Operators.onDiscard(t, ctx);
+            }
+            DiskBacklog<T> b = backlog;
+            if (b != null) {
+                unspilled += b.discard();
+            }
+            actual = null;
+            disposeWorker();
+            if (unspilled != 0 && !parent.done) {
+                parent.replenish(unspilled);
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return parent;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done;
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Scannable;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Operators;
+import reactor.util.annotation.Nullable;
+import reactor.util.context.Context;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * g.map(mapper).defaultIfEmpty(emptyMarker).startWith(header) одним подписчиком.
+ * <p>
+ * Вместо concat из заголовка и группы и ещё двух операторов на группу здесь один подписчик:
+ * он подписывается на группу сразу, но ничего у неё не запрашивает, пока не отдан заголовок.
+ * Заголовок забирает одну единицу спроса подписчика, остальной спрос уходит в группу как есть,
+ * и её элементы идут подписчику напрямую. Если группа завершилась пустой, маркер пустоты
+ * ждёт ещё одну единицу спроса, как в defaultIfEmpty.
+ * <p>
+ * Заголовок, маркер и завершение отдаёт дренаж, элементы группы отдаёт её поток. Они не пересекаются:
+ * элементы запрашиваются только после заголовка, а маркер и завершение идут только после последнего элемента.
+ * Ошибка группы отдаётся сразу, не дожидаясь заголовка
+ *
+ * @param <K> тип ключа группы
+ * @param <T> тип элементов группы
+ * @param <R> тип результата
+ */
+final class FluxGroupWithHeader<K, T, R> extends FluxOperator<T, R> {
+
+    final K key;
+    final Function<? super K, ? extends R> header;
+    final Function<? super T, ? extends R> mapper;
+    final R emptyMarker;
+
+    FluxGroupWithHeader(GroupedFlux<K, T> source,
+                        Function<? super K, ? extends R> header,
+                        Function<? super T, ? extends R> mapper,
+                        R emptyMarker) {
+        super(source);
+        this.key = source.key();
+        this.header = header;
+        this.mapper = mapper;
+        this.emptyMarker = emptyMarker;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super R> actual) {
+        R h;
+        try {
+            h = Objects.requireNonNull(header.apply(key), "The header returned a null value");
+        } catch (Throwable ex) {
+            Operators.error(actual, Operators.onOperatorError(ex, actual.currentContext()));
+            return;
+        }
+        source.subscribe(new HeaderSubscriber<>(actual, h, mapper, emptyMarker));
+    }
+
+    static final class HeaderSubscriber<T, R> implements CoreSubscriber<T>, Subscription, Scannable {
+
+        final CoreSubscriber<? super R> actual;
+        final R header;
+        final Function<? super T, ? extends R> mapper;
+        final R emptyMarker;
+
+        Subscription s;
+
+        /*
+         * Поля дренажа: отдан ли заголовок, сколько спроса уже передано группе и отдан ли терминальный сигнал
+         */
+        boolean headerSent;
+        long forwarded;
+        boolean terminated;
+
+        /**
+         * Пишется только потоком группы
+         */
+        volatile boolean hasValue;
+
+        volatile boolean done;
+        Throwable error;
+
+        volatile boolean cancelled;
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<HeaderSubscriber> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(HeaderSubscriber.class, "wip");
+
+        /**
+         * Весь спрос подписчика за всё время, включая заголовок
+         */
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<HeaderSubscriber> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(HeaderSubscriber.class, "requested");
+
+        HeaderSubscriber(CoreSubscriber<? super R> actual,
+                         R header,
+                         Function<? super T, ? extends R> mapper,
+                         R emptyMarker) {
+            this.actual = actual;
+            this.header = header;
+            this.mapper = mapper;
+            this.emptyMarker = emptyMarker;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                actual.onSubscribe(this);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            R v;
+            try {
+                v = Objects.requireNonNull(mapper.apply(t), "The mapper returned a null value");
+            } catch (Throwable ex) {
+                onError(Operators.onOperatorError(s, ex, t, currentContext()));
+                return;
+            }
+            if (!hasValue) {
+                hasValue = true;
+            }
+            actual.onNext(v);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            error = t;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            s.cancel();
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                long r = requested;
+                boolean d = done;
+                Throwable e = error;
+                if (d && e != null) {
+                    terminated = true;
+                    actual.onError(e);
+                    return;
+                }
+                if (!headerSent && r != 0L) {
+                    headerSent = true;
+                    actual.onNext(header);
+                    forwarded = 1L;
+                }
+                if (headerSent) {
+                    if (d) {
+                        if (hasValue) {
+                            terminated = true;
+                            actual.onComplete();
+                            return;
+                        }
+                        // заголовок занял одну единицу спроса, маркеру нужна вторая
+                        if (r == Long.MAX_VALUE || r > 1L) {
+                            terminated = true;
+                            actual.onNext(emptyMarker);
+                            actual.onComplete();
+                            return;
+                        }
+                    } else if (r != forwarded) {
+                        long n = r == Long.MAX_VALUE ? Long.MAX_VALUE : r - forwarded;
+                        forwarded = r;
+                        s.request(n);
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done;
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Exceptions;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Operators;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.stream.Stream;
+
+/**
+ * Слияние групп по очереди, а не по готовности.
+ * <p>
+ * flatMap подписывается не больше чем на concurrency групп, и группа сверх этого ждёт, пока какая-нибудь
+ * из них завершится, а на бесконечном источнике это никогда. Здесь подписка идёт на каждую группу,
+ * но каждая держит в буфере не больше quantum элементов, так что память на группу ограничена.
+ * Группы с данными стоят в очереди готовности: голова очереди отдаёт подписчику до quantum элементов
+ * и уходит в хвост, если у неё осталось ещё. Если спрос кончился раньше кванта, группа остаётся головой
+ * и со следующим запросом добирает свой квант. Каждая группа продвигается не реже, чем раз за круг.
+ *
+ * @param <T> тип элементов
+ */
+final class FluxGroupedMerge<T> extends FluxOperator<Publisher<? extends T>, T> {
+
+    final int quantum;
+
+    FluxGroupedMerge(Flux<? extends Publisher<? extends T>> source, int quantum) {
+        super(source);
+        this.quantum = quantum;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super T> actual) {
+        source.subscribe(new MergeMain<>(actual, quantum));
+    }
+
+    @Override
+    public int getPrefetch() {
+        return quantum;
+    }
+
+    static final class MergeMain<T> implements CoreSubscriber<Publisher<? extends T>>, Subscription, Scannable {
+
+        final CoreSubscriber<? super T> actual;
+        final int quantum;
+        final Set<Inner<T>> inners = ConcurrentHashMap.newKeySet();
+        final Queue<Inner<T>> ready = new ConcurrentLinkedQueue<>();
+
+        Subscription s;
+
+        /**
+         * Группа, которой спрос кончился посреди кванта, и остаток её кванта, принадлежат дренажу
+         */
+        @Nullable
+        Inner<T> current;
+        int currentLeft;
+
+        volatile boolean done;
+
+        volatile boolean cancelled;
+
+        volatile Throwable error;
+        @SuppressWarnings("rawtypes")
+        static final AtomicReferenceFieldUpdater<MergeMain, Throwable> ERROR =
+                AtomicReferenceFieldUpdater.newUpdater(MergeMain.class, Throwable.class, "error");
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<MergeMain> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(MergeMain.class, "wip");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<MergeMain> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(MergeMain.class, "requested");
+
+        MergeMain(CoreSubscriber<? super T> actual, int quantum) {
+            this.actual = actual;
+            this.quantum = quantum;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                actual.onSubscribe(this);
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(Publisher<? extends T> group) {
+            if (done) {
+                Operators.onNextDropped(group, currentContext());
+                return;
+            }
+            if (cancelled) {
+                return;
+            }
+            Inner<T> inner = new Inner<>(this, quantum);
+            inners.add(inner);
+            group.subscribe(inner);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            innerError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            s.cancel();
+            drain();
+        }
+
+        void innerError(Throwable t) {
+            if (Exceptions.addThrowable(ERROR, this, t)) {
+                done = true;
+                drain();
+            } else {
+                Operators.onErrorDropped(t, currentContext());
+            }
+        }
+
+        /**
+         * Ставит группу в очередь готовности, если её там ещё нет
+         */
+        void signal(Inner<T> inner) {
+            if (inner.queued == 0 && Inner.QUEUED.compareAndSet(inner, 0, 1)) {
+                ready.offer(inner);
+            }
+            drain();
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    cancelAll();
+                } else if (error != null) {
+                    s.cancel();
+                    cancelAll();
+                    actual.onError(Exceptions.terminate(ERROR, this));
+                    return;
+                } else {
+                    long r = requested;
+                    long e = 0L;
+                    Inner<T> inner = current;
+                    int left = currentLeft;
+                    while (e != r) {
+                        if (inner == null) {
+                            inner = ready.poll();
+                            if (inner == null) {
+                                break;
+                            }
+                            left = quantum;
+                        }
+                        int emitted = 0;
+                        while (left != 0 && e != r) {
+                            T t = inner.queue.poll();
+                            if (t == null) {
+                                break;
+                            }
+                            actual.onNext(t);
+                            left--;
+                            emitted++;
+                            e++;
+                        }
+                        inner.consumed(emitted);
+                        if (left != 0 && e == r && !inner.queue.isEmpty()) {
+                            // спрос кончился посреди кванта, группа остаётся в голове с остатком кванта
+                            break;
+                        }
+                        requeue(inner);
+                        inner = null;
+                    }
+                    if (inner != null && inner.done && inner.queue.isEmpty()) {
+                        inners.remove(inner);
+                        inner = null;
+                    }
+                    current = inner;
+                    currentLeft = left;
+                    if (e != 0L && r != Long.MAX_VALUE) {
+                        REQUESTED.addAndGet(this, -e);
+                    }
+                    if (done) {
+                        // завершение не ждёт спроса: группы, которые завершились пустыми, выбывают и без него
+                        ready.removeIf(this::retire);
+                    }
+                    if (done && inners.isEmpty() && ready.isEmpty() && current == null) {
+                        actual.onComplete();
+                        return;
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * После своей очереди группа уходит в хвост, если у неё остались элементы,
+         * или выбывает, если она завершилась и всё отдала
+         */
+        void requeue(Inner<T> inner) {
+            if (!inner.queue.isEmpty()) {
+                ready.offer(inner);
+                return;
+            }
+            if (inner.done) {
+                inners.remove(inner);
+                return;
+            }
+            Inner.QUEUED.lazySet(inner, 0);
+            // элемент мог прийти между проверкой очереди и сбросом флага
+            if ((!inner.queue.isEmpty() || inner.done) && Inner.QUEUED.compareAndSet(inner, 0, 1)) {
+                ready.offer(inner);
+            }
+        }
+
+        /**
+         * @return true, если группа завершилась и всё отдала, тогда она выбывает
+         */
+        boolean retire(Inner<T> inner) {
+            if (inner.done && inner.queue.isEmpty()) {
+                inners.remove(inner);
+                return true;
+            }
+            return false;
+        }
+
+        void cancelAll() {
+            current = null;
+            ready.clear();
+            for (Inner<T> inner : inners) {
+                inner.cancel();
+            }
+            inners.clear();
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done && inners.isEmpty();
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.PREFETCH) return quantum;
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+
+        @Override
+        public Stream<? extends Scannable> inners() {
+            return inners.stream();
+        }
+    }
+
+    static final class Inner<T> implements CoreSubscriber<T>, Scannable {
+
+        final MergeMain<T> parent;
+        final int quantum;
+        final int limit;
+        final Queue<T> queue;
+
+        volatile Subscription s;
+        @SuppressWarnings("rawtypes")
+        static final AtomicReferenceFieldUpdater<Inner, Subscription> S =
+                AtomicReferenceFieldUpdater.newUpdater(Inner.class, Subscription.class, "s");
+
+        volatile boolean done;
+
+        /**
+         * 1, пока группа стоит в очереди готовности или её отдаёт дренаж
+         */
+        volatile int queued;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Inner> QUEUED =
+                AtomicIntegerFieldUpdater.newUpdater(Inner.class, "queued");
+
+        /**
+         * Сколько отдано с последнего дозапроса, принадлежит дренажу
+         */
+        int produced;
+
+        Inner(MergeMain<T> parent, int quantum) {
+            this.parent = parent;
+            this.quantum = quantum;
+            this.limit = Operators.unboundedOrLimit(quantum);
+            this.queue = Queues.<T>get(quantum).get();
+        }
+
+        @Override
+        public Context currentContext() {
+            return parent.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.setOnce(S, this, s)) {
+                s.request(quantum);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (!queue.offer(t)) {
+                Operators.onDiscard(t, currentContext());
+                onError(Operators.onOperatorError(s,
+                        Exceptions.failWithOverflow(Exceptions.BACKPRESSURE_ERROR_QUEUE_FULL), t, currentContext()));
+                return;
+            }
+            parent.signal(this);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done = true;
+            parent.innerError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            parent.signal(this);
+        }
+
+        void consumed(int n) {
+            int p = produced + n;
+            if (p >= limit) {
+                produced = 0;
+                s.request(p);
+            } else {
+                produced = p;
+            }
+        }
+
+        void cancel() {
+            Operators.terminate(S, this);
+            Operators.onDiscardQueueWithClear(queue, currentContext(), null);
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return parent;
+            if (key == Attr.TERMINATED) return done;
+            if (key == Attr.PREFETCH) return quantum;
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Свёртка по ключу в окнах времени без накопления элементов.
+ * <p>
+ * На каждое открытое окно заведена таблица ключ - аккумулятор, элемент сразу сворачивается в аккумулятор
+ * своего ключа во всех окнах, куда он попадает, и больше нигде не хранится. Открытых окон всегда
+ * size / slide, они лежат в кольце, и таблица закрывшегося окна после выгрузки переиспользуется
+ * для нового. Окна закрывает таймер scheduler раз в slide, итоги окна уходят в очередь на выдачу подписчику.
+ * <p>
+ * Таблицы окон пишут поток источника и таймер, поэтому обращения к ним идут под монитором оператора.
+ * Источник вычитывается окном {@link WindowSpec#maxPending}, пока итогов закрытых окон в очереди выдачи
+ * меньше maxPending. Когда подписчик не успевает, оператор перестаёт дозапрашивать источник,
+ * окна без элементов итогов не дают, и очередь перестаёт расти. Дренаж, забрав итоги, дозапрашивает снова
+ *
+ * @param <T> тип элементов
+ * @param <K> тип ключа
+ * @param <A> тип аккумулятора
+ */
+final class FluxKeyedAggregate<T, K, A> extends FluxOperator<T, KeyedWindow<K, A>> {
+
+    final Function<? super T, ? extends K> keySelector;
+    final WindowSpec spec;
+    final Supplier<? extends A> initial;
+    final BiFunction<A, ? super T, A> accumulator;
+
+    FluxKeyedAggregate(Flux<? extends T> source,
+                       Function<? super T, ? extends K> keySelector,
+                       WindowSpec spec,
+                       Supplier<? extends A> initial,
+                       BiFunction<A, ? super T, A> accumulator) {
+        super(source);
+        this.keySelector = keySelector;
+        this.spec = spec;
+        this.initial = initial;
+        this.accumulator = accumulator;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super KeyedWindow<K, A>> actual) {
+        Scheduler scheduler = spec.scheduler != null ? spec.scheduler : Schedulers.parallel();
+        source.subscribe(new AggregateMain<>(actual, this, scheduler));
+    }
+
+    static final class AggregateMain<T, K, A> implements CoreSubscriber<T>, Subscription, Scannable {
+
+        final CoreSubscriber<? super KeyedWindow<K, A>> actual;
+        final Function<? super T, ? extends K> keySelector;
+        final Supplier<? extends A> initial;
+        final BiFunction<A, ? super T, A> accumulator;
+        final Scheduler scheduler;
+        final long sizeMillis;
+        final long slideMillis;
+        final int overlap;
+        final int maxPending;
+        final int limit;
+        final Queue<KeyedWindow<K, A>> queue = Queues.<KeyedWindow<K, A>>unboundedMultiproducer().get();
+
+        /*
+         * Кольцо таблиц открытых окон, окно с номером i лежит в ячейке i % overlap.
+         * Все поля ниже до монитора, меняются только под ним
+         */
+        final Map<K, A>[] windows;
+
+        /**
+         * Номер самого нового открытого окна, окно i начинается в origin + i * slide
+         */
+        long current;
+
+        long origin;
+
+        /**
+         * Сколько элементов запрошено у источника и ещё не пришло
+         */
+        long outstanding;
+
+        Subscription s;
+
+        volatile Disposable timer;
+
+        volatile boolean done;
+
+        volatile boolean cancelled;
+
+        Throwable error;
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<AggregateMain> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(AggregateMain.class, "wip");
+
+        /**
+         * Сколько итогов закрытых окон ждёт подписчика
+         */
+        volatile int pending;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<AggregateMain> PENDING =
+                AtomicIntegerFieldUpdater.newUpdater(AggregateMain.class, "pending");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<AggregateMain> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(AggregateMain.class, "requested");
+
+        @SuppressWarnings("unchecked")
+        AggregateMain(CoreSubscriber<? super KeyedWindow<K, A>> actual,
+                      FluxKeyedAggregate<T, K, A> parent,
+                      Scheduler scheduler) {
+            this.actual = actual;
+            this.keySelector = parent.keySelector;
+            this.initial = parent.initial;
+            this.accumulator = parent.accumulator;
+            this.scheduler = scheduler;
+            this.sizeMillis = parent.spec.size.toMillis();
+            this.slideMillis = parent.spec.slide.toMillis();
+            this.overlap = parent.spec.overlap();
+            this.maxPending = parent.spec.maxPending;
+            this.limit = Operators.unboundedOrLimit(maxPending);
+            this.windows = new Map[overlap];
+            for (int i = 0; i < overlap; i++) {
+                windows[i] = new HashMap<>();
+            }
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                origin = scheduler.now(TimeUnit.MILLISECONDS);
+                actual.onSubscribe(this);
+                Disposable t;
+                try {
+                    t = scheduler.schedulePeriodically(this::tick, slideMillis, slideMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ex) {
+                    s.cancel();
+                    actual.onError(Operators.onRejectedExecution(ex, s, null, null, currentContext()));
+                    return;
+                }
+                timer = t;
+                if (cancelled) {
+                    t.dispose();
+                    return;
+                }
+                synchronized (this) {
+                    outstanding = maxPending;
+                }
+                s.request(maxPending);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            Throwable failure = null;
+            synchronized (this) {
+                outstanding--;
+                try {
+                    K key = Objects.requireNonNull(keySelector.apply(t), "The keySelector returned a null value");
+                    for (long i = Math.max(0L, current - overlap + 1); i <= current; i++) {
+                        Map<K, A> window = windows[(int) (i % overlap)];
+                        A acc = window.get(key);
+                        if (acc == null) {
+                            acc = Objects.requireNonNull(initial.get(), "The initial supplier returned a null value");
+                        }
+                        window.put(key, Objects.requireNonNull(accumulator.apply(acc, t),
+                                "The accumulator returned a null value"));
+                    }
+                } catch (Throwable ex) {
+                    failure = Operators.onOperatorError(s, ex, t, currentContext());
+                }
+            }
+            if (failure != null) {
+                onError(failure);
+                return;
+            }
+            replenish();
+        }
+
+        /**
+         * Дозапрашивает источник до maxPending, если подписчик успевает забирать итоги окон
+         */
+        void replenish() {
+            long n;
+            synchronized (this) {
+                if (done || cancelled || pending >= maxPending) {
+                    return;
+                }
+                n = maxPending - outstanding;
+                if (n < limit) {
+                    return;
+                }
+                outstanding = maxPending;
+            }
+            s.request(n);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                if (done) {
+                    Operators.onErrorDropped(t, currentContext());
+                    return;
+                }
+                for (Map<K, A> window : windows) {
+                    window.clear();
+                }
+                error = t;
+                done = true;
+            }
+            disposeTimer();
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                // незакрытые окна отдаются как есть, как последнее окно у Flux#window(Duration)
+                for (long i = Math.max(0L, current - overlap + 1); i <= current; i++) {
+                    close(i);
+                }
+                done = true;
+            }
+            disposeTimer();
+            drain();
+        }
+
+        /**
+         * Закрывает самое старое открытое окно и открывает следующее
+         */
+        void tick() {
+            synchronized (this) {
+                if (done || cancelled) {
+                    return;
+                }
+                long closing = current - overlap + 1;
+                if (closing >= 0L) {
+                    close(closing);
+                }
+                current++;
+            }
+            drain();
+        }
+
+        /**
+         * Выгружает итоги окна в очередь и освобождает его таблицу, вызывается под монитором
+         */
+        void close(long index) {
+            Map<K, A> window = windows[(int) (index % overlap)];
+            if (window.isEmpty()) {
+                return;
+            }
+            long start = origin + index * slideMillis;
+            Instant startInstant = Instant.ofEpochMilli(start);
+            Instant endInstant = Instant.ofEpochMilli(start + sizeMillis);
+            for (Map.Entry<K, A> entry : window.entrySet()) {
+                queue.offer(new KeyedWindow<>(entry.getKey(), startInstant, endInstant, entry.getValue()));
+            }
+            PENDING.addAndGet(this, window.size());
+            window.clear();
+        }
+
+        void disposeTimer() {
+            Disposable t = timer;
+            if (t != null) {
+                t.dispose();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            disposeTimer();
+            s.cancel();
+            drain();
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    queue.clear();
+                } else {
+                    long r = requested;
+                    long e = 0L;
+                    while (e != r) {
+                        boolean d = done;
+                        KeyedWindow<K, A> w = queue.poll();
+                        boolean empty = w == null;
+                        if (checkTerminated(d, empty)) {
+                            return;
+                        }
+                        if (empty) {
+                            break;
+                        }
+                        actual.onNext(w);
+                        e++;
+                    }
+                    if (e == r && checkTerminated(done, queue.isEmpty())) {
+                        return;
+                    }
+                    if (e != 0L) {
+                        if (r != Long.MAX_VALUE) {
+                            REQUESTED.addAndGet(this, -e);
+                        }
+                        PENDING.addAndGet(this, (int) -e);
+                        replenish();
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        boolean checkTerminated(boolean d, boolean empty) {
+            if (!d) {
+                return false;
+            }
+            Throwable e = error;
+            if (e != null) {
+                queue.clear();
+                actual.onError(e);
+                return true;
+            }
+            if (empty) {
+                actual.onComplete();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done && queue.isEmpty();
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.BUFFERED) return pending;
+            if (key == Attr.PREFETCH) return maxPending;
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_ON) return scheduler;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.ASYNC;
+            return null;
+        }
+    }
+}
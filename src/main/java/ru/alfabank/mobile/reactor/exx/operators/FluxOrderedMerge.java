@@ -0,0 +1,404 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Operators;
+import reactor.util.annotation.Nullable;
+import reactor.util.context.Context;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Конкурентная обработка с выдачей результатов в порядке источника.
+ * <p>
+ * Каждый элемент источника получает порядковый номер и уходит в processor, который обрабатывает
+ * элементы в любом порядке и с любой конкурентностью, но строго один результат на элемент.
+ * Результаты раскладываются в кольцо на maxInFlight ячеек по номеру и отдаются подписчику подряд.
+ * <p>
+ * Память кольца ограничена тем, что источник спрашивается не дальше, чем на maxInFlight элементов
+ * впереди последнего отданного подписчику. Сам processor вычитывается без ограничений,
+ * иначе результат, которого ждёт голова кольца, мог бы застрять за не запрошенными соседями.
+ *
+ * @param <T> тип элементов источника
+ * @param <R> тип результатов
+ */
+final class FluxOrderedMerge<T, R> extends FluxOperator<T, R> {
+
+    final Function<? super Flux<Sequenced<T>>, ? extends Flux<Sequenced<R>>> processor;
+
+    final int maxInFlight;
+
+    FluxOrderedMerge(Flux<? extends T> source,
+                     Function<? super Flux<Sequenced<T>>, ? extends Flux<Sequenced<R>>> processor,
+                     int maxInFlight) {
+        super(source);
+        this.processor = Objects.requireNonNull(processor, "processor");
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super R> actual) {
+        ReorderMain<R> main = new ReorderMain<>(actual, maxInFlight);
+        Flux<Sequenced<T>> gated = new Gate<>(source, main);
+        Flux<Sequenced<R>> processed;
+        try {
+            processed = Objects.requireNonNull(processor.apply(gated), "The processor returned a null Publisher");
+        } catch (Throwable ex) {
+            Operators.error(actual, Operators.onOperatorError(ex, actual.currentContext()));
+            return;
+        }
+        processed.subscribe(main);
+    }
+
+    @Override
+    public int getPrefetch() {
+        return maxInFlight;
+    }
+
+    /**
+     * Элемент или результат вместе с порядковым номером элемента в источнике
+     */
+    static final class Sequenced<V> {
+
+        final long seq;
+        final V value;
+
+        Sequenced(long seq, V value) {
+            this.seq = seq;
+            this.value = value;
+        }
+
+        <U> Sequenced<U> map(Function<? super V, ? extends U> mapper) {
+            U result = Objects.requireNonNull(mapper.apply(value), "The mapper returned a null value");
+            return new Sequenced<>(seq, result);
+        }
+    }
+
+    /**
+     * Вход processor: нумерует элементы источника и не даёт запросить их дальше окна
+     */
+    static final class Gate<T> extends Flux<Sequenced<T>> {
+
+        final Flux<? extends T> source;
+        final ReorderMain<?> main;
+
+        Gate(Flux<? extends T> source, ReorderMain<?> main) {
+            this.source = source;
+            this.main = main;
+        }
+
+        @Override
+        public void subscribe(CoreSubscriber<? super Sequenced<T>> actual) {
+            source.subscribe(new GateSubscriber<>(actual, main));
+        }
+    }
+
+    static final class GateSubscriber<T> implements CoreSubscriber<T>, Subscription, Scannable {
+
+        final CoreSubscriber<? super Sequenced<T>> actual;
+        final ReorderMain<?> main;
+
+        Subscription s;
+
+        /**
+         * Номер следующего элемента, принадлежит потоку onNext
+         */
+        long index;
+
+        /**
+         * Сколько всего запрошено у источника, трогается только внутри {@link #tryRequest()}
+         */
+        long upstreamRequested;
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<GateSubscriber> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(GateSubscriber.class, "requested");
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<GateSubscriber> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(GateSubscriber.class, "wip");
+
+        GateSubscriber(CoreSubscriber<? super Sequenced<T>> actual, ReorderMain<?> main) {
+            this.actual = actual;
+            this.main = main;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                main.gate = this;
+                actual.onSubscribe(this);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            actual.onNext(new Sequenced<>(index++, t));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            actual.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                tryRequest();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            s.cancel();
+        }
+
+        /**
+         * Запрашивает у источника то, что просит processor, но не дальше окна кольца.
+         * Вызывается и при запросе processor, и при отдаче результатов подписчику
+         */
+        void tryRequest() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                long limit = Math.min(requested, main.emitted + main.maxInFlight);
+                long n = limit - upstreamRequested;
+                if (n > 0L) {
+                    upstreamRequested = limit;
+                    s.request(n);
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+    }
+
+    static final class ReorderMain<R> implements CoreSubscriber<Sequenced<R>>, Subscription, Scannable {
+
+        final CoreSubscriber<? super R> actual;
+        final int maxInFlight;
+        final AtomicReferenceArray<R> ring;
+
+        volatile GateSubscriber<?> gate;
+
+        Subscription s;
+
+        /**
+         * Номер следующего результата для подписчика, принадлежит дренажу
+         */
+        long head;
+
+        volatile boolean done;
+        Throwable error;
+
+        volatile boolean cancelled;
+
+        /**
+         * Сколько результатов отдано подписчику, по нему вход решает, сколько ещё можно запросить у источника
+         */
+        volatile long emitted;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<ReorderMain> EMITTED =
+                AtomicLongFieldUpdater.newUpdater(ReorderMain.class, "emitted");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<ReorderMain> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(ReorderMain.class, "requested");
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<ReorderMain> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(ReorderMain.class, "wip");
+
+        ReorderMain(CoreSubscriber<? super R> actual, int maxInFlight) {
+            this.actual = actual;
+            this.maxInFlight = maxInFlight;
+            this.ring = new AtomicReferenceArray<>(maxInFlight);
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                actual.onSubscribe(this);
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(Sequenced<R> r) {
+            if (done) {
+                Operators.onNextDropped(r.value, currentContext());
+                return;
+            }
+            int slot = (int) (r.seq % maxInFlight);
+            if (!ring.compareAndSet(slot, null, r.value)) {
+                onError(Operators.onOperatorError(s,
+                        new IllegalStateException("Result #" + r.seq + " arrived outside of the reorder window, "
+                                + "the processor must emit exactly one result per element"),
+                        r.value, currentContext()));
+                return;
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            error = t;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            s.cancel();
+            drain();
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    clear();
+                } else {
+                    long r = requested;
+                    long e = 0L;
+                    long h = head;
+                    for (; ; ) {
+                        boolean d = done;
+                        Throwable ex = error;
+                        if (d && ex != null) {
+                            clear();
+                            actual.onError(ex);
+                            return;
+                        }
+                        int slot = (int) (h % maxInFlight);
+                        R v = ring.get(slot);
+                        if (v == null) {
+                            if (d) {
+                                actual.onComplete();
+                                return;
+                            }
+                            break;
+                        }
+                        if (e == r) {
+                            break;
+                        }
+                        ring.lazySet(slot, null);
+                        h++;
+                        e++;
+                        actual.onNext(v);
+                    }
+                    if (e != 0L) {
+                        head = h;
+                        EMITTED.lazySet(this, h);
+                        if (r != Long.MAX_VALUE) {
+                            REQUESTED.addAndGet(this, -e);
+                        }
+                        GateSubscriber<?> g = gate;
+                        if (g != null) {
+                            g.tryRequest();
+                        }
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        void clear() {
+            Context ctx = currentContext();
+            for (int i = 0; i < maxInFlight; i++) {
+                R v = ring.getAndSet(i, null);
+                if (v != null) {
+                    Operators.onDiscard(v, ctx);
+                }
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done;
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.PREFETCH) return maxInFlight;
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * publishOn, который передаёт элементы между потоками пачками.
+ * <p>
+ * Поток источника складывает элементы в массив-пачку и отдаёт в очередь воркера целую пачку, когда она
+ * заполнилась до maxBatch. Неполную пачку раз в maxDelay забирает таймер на том же воркере.
+ * Очередь, счётчик дренажа и планирование воркера трогаются раз на пачку, а не на элемент,
+ * и воркер отдаёт подписчику всю пачку за один проход дренажа.
+ * <p>
+ * Пачку пишет только поток источника, а запечатывает тот, кто первым сменит её размер CAS-ом на ~size:
+ * источник, заполнив её, или таймер. Запечатанную пачку кладёт в очередь тот, кто её запечатал,
+ * поэтому каждая пачка попадает в очередь ровно один раз. Таймер и дренаж выполняются на одном воркере
+ * и не пересекаются, так что запечатанная таймером пачка не может разминуться с завершением
+ *
+ * @param <T> тип элементов
+ */
+final class FluxPublishOnBatched<T> extends FluxOperator<T, T> {
+
+    final Scheduler scheduler;
+    final int maxBatch;
+    final long maxDelayNanos;
+    final int prefetch;
+
+    FluxPublishOnBatched(Flux<? extends T> source, Scheduler scheduler, int maxBatch, long maxDelayNanos, int prefetch) {
+        super(source);
+        this.scheduler = scheduler;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = maxDelayNanos;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super T> actual) {
+        Scheduler.Worker worker;
+        try {
+            worker = scheduler.createWorker();
+        } catch (RejectedExecutionException ex) {
+            Operators.error(actual, Operators.onRejectedExecution(ex, actual.currentContext()));
+            return;
+        }
+        source.subscribe(new PublishOnBatchedSubscriber<>(actual, worker, this));
+    }
+
+    @Override
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Массив элементов и их количество. Пока пачка открыта, size это количество записанных элементов,
+     * запечатанная пачка хранит ~size
+     */
+    static final class Batch {
+
+        final Object[] items;
+
+        volatile int size;
+        static final AtomicIntegerFieldUpdater<Batch> SIZE =
+                AtomicIntegerFieldUpdater.newUpdater(Batch.class, "size");
+
+        Batch(int capacity) {
+            this.items = new Object[capacity];
+        }
+
+        /**
+         * @return количество элементов, если пачку удалось запечатать, иначе -1
+         */
+        int seal() {
+            for (; ; ) {
+                int n = size;
+                if (n <= 0) {
+                    return -1;
+                }
+                if (SIZE.compareAndSet(this, n, ~n)) {
+                    return n;
+                }
+            }
+        }
+    }
+
+    static final class PublishOnBatchedSubscriber<T> implements CoreSubscriber<T>, Subscription, Scannable, Runnable {
+
+        final CoreSubscriber<? super T> actual;
+        final Scheduler.Worker worker;
+        final int maxBatch;
+        final long maxDelayNanos;
+        final int prefetch;
+        final int limit;
+        final Queue<Batch> queue = Queues.<Batch>unboundedMultiproducer().get();
+
+        /**
+         * Открытая пачка, пишет в неё только поток источника
+         */
+        volatile Batch current;
+
+        /*
+         * Поля дренажа: отдаваемая пачка, позиция в ней и сколько элементов отдано с прошлого дозапроса
+         */
+        Batch out;
+        int outIndex;
+        long consumed;
+
+        Subscription s;
+
+        volatile Disposable timer;
+
+        volatile boolean done;
+        Throwable error;
+
+        volatile boolean cancelled;
+
+        volatile int wip;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<PublishOnBatchedSubscriber> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(PublishOnBatchedSubscriber.class, "wip");
+
+        volatile long requested;
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<PublishOnBatchedSubscriber> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(PublishOnBatchedSubscriber.class, "requested");
+
+        PublishOnBatchedSubscriber(CoreSubscriber<? super T> actual,
+                                   Scheduler.Worker worker,
+                                   FluxPublishOnBatched<T> parent) {
+            this.actual = actual;
+            this.worker = worker;
+            this.maxBatch = parent.maxBatch;
+            this.maxDelayNanos = parent.maxDelayNanos;
+            this.prefetch = parent.prefetch;
+            this.limit = Operators.unboundedOrLimit(prefetch);
+            this.current = new Batch(maxBatch);
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                actual.onSubscribe(this);
+                Disposable t;
+                try {
+                    t = worker.schedulePeriodically(this::flushTick, maxDelayNanos, maxDelayNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException ex) {
+                    s.cancel();
+                    worker.dispose();
+                    actual.onError(Operators.onRejectedExecution(ex, s, null, null, currentContext()));
+                    return;
+                }
+                timer = t;
+                if (cancelled) {
+                    t.dispose();
+                    return;
+                }
+                s.request(Operators.unboundedOrPrefetch(prefetch));
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            if (cancelled) {
+                Operators.onDiscard(t, currentContext());
+                return;
+            }
+            Batch b = current;
+            for (; ; ) {
+                int n = b.size;
+                if (n >= 0) {
+                    // элемент пишется до CAS, поэтому виден всякому, кто прочитает новый размер
+                    b.items[n] = t;
+                    if (Batch.SIZE.compareAndSet(b, n, n + 1)) {
+                        if (n + 1 == maxBatch && Batch.SIZE.compareAndSet(b, maxBatch, ~maxBatch)) {
+                            current = new Batch(maxBatch);
+                            queue.offer(b);
+                            drain();
+                        }
+                        return;
+                    }
+                    // пачку запечатал таймер, записанная ячейка лежит за её концом
+                }
+                b = new Batch(maxBatch);
+                current = b;
+            }
+        }
+
+        /**
+         * Выполняется на воркере: отдаёт неполную пачку, чтобы элементы не ждали дольше maxDelay
+         */
+        void flushTick() {
+            if (cancelled || done) {
+                return;
+            }
+            Batch b = current;
+            if (b.seal() > 0) {
+                queue.offer(b);
+                drain();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            sealCurrent();
+            error = t;
+            done = true;
+            disposeTimer();
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            sealCurrent();
+            done = true;
+            disposeTimer();
+            drain();
+        }
+
+        void sealCurrent() {
+            Batch b = current;
+            if (b.seal() > 0) {
+                queue.offer(b);
+            }
+        }
+
+        void disposeTimer() {
+            Disposable t = timer;
+            if (t != null) {
+                t.dispose();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            disposeTimer();
+            s.cancel();
+            // открытую пачку запечатываем, чтобы источник больше в неё не писал, и выбрасываем вместе с очередью
+            Batch b = current;
+            int n = b.seal();
+            if (n > 0) {
+                discard(b, 0, n);
+            }
+            drain();
+        }
+
+        void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            try {
+                worker.schedule(this);
+            } catch (RejectedExecutionException ex) {
+                if (!cancelled) {
+                    actual.onError(Operators.onRejectedExecution(ex, this, null, null, currentContext()));
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            int missed = 1;
+            CoreSubscriber<? super T> a = actual;
+            for (; ; ) {
+                long r = requested;
+                long e = 0L;
+                while (e != r) {
+                    if (cancelled) {
+                        discardAll();
+                        worker.dispose();
+                        return;
+                    }
+                    Batch b = out;
+                    if (b == null) {
+                        boolean d = done;
+                        b = queue.poll();
+                        if (checkTerminated(d, b == null, a)) {
+                            return;
+                        }
+                        if (b == null) {
+                            break;
+                        }
+                        out = b;
+                        outIndex = 0;
+                    }
+                    int size = ~b.size;
+                    Object[] items = b.items;
+                    int i = outIndex;
+                    int end = i + (int) Math.min(size - i, r - e);
+                    e += end - i;
+                    for (; i < end; i++) {
+                        T t = (T) items[i];
+                        items[i] = null;
+                        a.onNext(t);
+                    }
+                    if (i == size) {
+                        out = null;
+                        replenish(size);
+                    } else {
+                        outIndex = i;
+                    }
+                }
+                if (e == r && checkTerminated(done, out == null && queue.isEmpty(), a)) {
+                    return;
+                }
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    REQUESTED.addAndGet(this, -e);
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        void replenish(int n) {
+            if (prefetch == Integer.MAX_VALUE) {
+                return;
+            }
+            long c = consumed + n;
+            if (c >= limit) {
+                consumed = 0L;
+                s.request(c);
+            } else {
+                consumed = c;
+            }
+        }
+
+        boolean checkTerminated(boolean d, boolean empty, CoreSubscriber<? super T> a) {
+            if (cancelled) {
+                discardAll();
+                worker.dispose();
+                return true;
+            }
+            if (!d) {
+                return false;
+            }
+            if (!empty) {
+                return false;
+            }
+            // как publishOn, ошибка ждёт, пока подписчик получит уже пришедшие элементы
+            Throwable e = error;
+            if (e != null) {
+                a.onError(e);
+            } else {
+                a.onComplete();
+            }
+            worker.dispose();
+            return true;
+        }
+
+        void discardAll() {
+            Batch b = out;
+            if (b != null) {
+                out = null;
+                discard(b, outIndex, ~b.size);
+            }
+            while ((b = queue.poll()) != null) {
+                discard(b, 0, ~b.size);
+            }
+        }
+
+        void discard(Batch b, int from, int to) {
+            Context ctx = currentContext();
+            Object[] items = b.items;
+            for (int i = from; i < to; i++) {
+                Object t = items[i];
+                items[i] = null;
+                Operators.onDiscard(t, ctx);
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.TERMINATED) return done && out == null && queue.isEmpty();
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.ERROR) return error;
+            if (key == Attr.PREFETCH) return prefetch;
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_ON) return worker;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.ASYNC;
+            return null;
+        }
+    }
+}
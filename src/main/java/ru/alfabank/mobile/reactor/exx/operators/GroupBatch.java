@@ -0,0 +1,36 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import java.util.List;
+
+/**
+ * Пачка элементов одного ключа из {@link ExxFlux#groupByBatched}
+ *
+ * @param <K> тип ключа
+ * @param <T> тип элементов
+ */
+public final class GroupBatch<K, T> {
+
+    final K key;
+    final List<T> elements;
+
+    GroupBatch(K key, List<T> elements) {
+        this.key = key;
+        this.elements = elements;
+    }
+
+    public K key() {
+        return key;
+    }
+
+    /**
+     * @return элементы в порядке прихода от источника, список не пустой и после выдачи оператором не используется
+     */
+    public List<T> elements() {
+        return elements;
+    }
+
+    @Override
+    public String toString() {
+        return key + ": " + elements;
+    }
+}
@@ -0,0 +1,76 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+/**
+ * Событие жизненного цикла группы, см. {@link GroupBySpec#events(GroupByEvents)}
+ */
+public final class GroupByEvent {
+
+    public enum Type {
+        /**
+         * Пришёл первый элемент ключа, группа создана и отдана подписчику групп
+         */
+        CREATED,
+        /**
+         * На группу подписались
+         */
+        SUBSCRIBED,
+        /**
+         * Очередь группы выросла до очередной степени двойки начиная с {@link GroupByEvents#HIGH_WATER_START}.
+         * Так видно, сколько группа держит элементов, с точностью до двух раз и без события на каждый элемент
+         */
+        HIGH_WATER,
+        /**
+         * Подписчик вычитал очередь группы до конца после {@link #HIGH_WATER}
+         */
+        DRAINED,
+        /**
+         * Группа получила сигнал завершения от источника или её отменил подписчик.
+         * Подписчик может ещё дочитывать её очередь
+         */
+        COMPLETED,
+        /**
+         * Группу завершил сам оператор: по {@link GroupBySpec#maxGroups}, {@link GroupBySpec#maxIdle}
+         * или {@link GroupBySpec#idleTimeout}
+         */
+        EVICTED
+    }
+
+    final Type type;
+    final Object key;
+    final int buffered;
+    final long nanoTime;
+
+    GroupByEvent(Type type, Object key, int buffered, long nanoTime) {
+        this.type = type;
+        this.key = key;
+        this.buffered = buffered;
+        this.nanoTime = nanoTime;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public Object key() {
+        return key;
+    }
+
+    /**
+     * @return сколько элементов лежало в очереди группы в момент события
+     */
+    public int buffered() {
+        return buffered;
+    }
+
+    /**
+     * @return момент события по {@link System#nanoTime()}
+     */
+    public long nanoTime() {
+        return nanoTime;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + key + (buffered == 0 ? "" : ", buffered " + buffered);
+    }
+}
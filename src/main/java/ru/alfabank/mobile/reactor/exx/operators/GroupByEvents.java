@@ -0,0 +1,269 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Побочный поток событий жизненного цикла групп ({@link GroupByEvent}) для подбора prefetch и конкурентности.
+ * <p>
+ * Оператор кладёт событие в кольцевой буфер фиксированного размера без блокировок и идёт дальше,
+ * а подписчику {@link #flux()} события отдаются на воркере scheduler. Если подписчик не успевает
+ * или его нет, буфер заполняется и новые события отбрасываются, см. {@link #dropped()}:
+ * данные groupBy никогда не ждут наблюдателя.
+ * <p>
+ * Один экземпляр можно отдать нескольким операторам, подписчик у потока событий один
+ */
+public final class GroupByEvents {
+
+    /**
+     * С какого размера очереди группы начинаются события {@link GroupByEvent.Type#HIGH_WATER}
+     */
+    public static final int HIGH_WATER_START = Queues.XS_BUFFER_SIZE;
+
+    final Ring ring;
+    final EventFlux flux;
+
+    volatile long dropped;
+    static final AtomicLongFieldUpdater<GroupByEvents> DROPPED =
+            AtomicLongFieldUpdater.newUpdater(GroupByEvents.class, "dropped");
+
+    GroupByEvents(int capacity, Scheduler scheduler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity > 0 required but it was " + capacity);
+        }
+        this.ring = new Ring(capacity);
+        this.flux = new EventFlux(ring, scheduler);
+    }
+
+    /**
+     * @param capacity сколько событий может ждать подписчика, округляется вверх до степени двойки
+     */
+    public static GroupByEvents create(int capacity) {
+        return create(capacity, Schedulers.parallel());
+    }
+
+    /**
+     * @param capacity  сколько событий может ждать подписчика, округляется вверх до степени двойки
+     * @param scheduler на чьём воркере отдавать события подписчику
+     */
+    public static GroupByEvents create(int capacity, Scheduler scheduler) {
+        return new GroupByEvents(capacity, scheduler);
+    }
+
+    /**
+     * @return события в порядке постановки в буфер, подписаться можно один раз
+     */
+    public Flux<GroupByEvent> flux() {
+        return flux;
+    }
+
+    /**
+     * @return сколько событий отброшено из-за заполненного буфера
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    void publish(GroupByEvent.Type type, Object key, int buffered) {
+        if (ring.offer(new GroupByEvent(type, key, buffered, System.nanoTime()))) {
+            flux.signal();
+        } else {
+            DROPPED.incrementAndGet(this);
+        }
+    }
+
+    /**
+     * Ограниченная очередь многих писателей и одного читателя на массиве с номерами ячеек (схема Вьюкова).
+     * Писатель занимает номер CAS-ом на хвосте и публикует ячейку, сдвигая её номер, читатель ждёт
+     * в ячейке номер head + 1. Если в ячейке ещё лежит событие с прошлого круга, буфер полон
+     */
+    static final class Ring {
+
+        final int mask;
+        final Object[] buffer;
+        final AtomicLongArray sequence;
+
+        volatile long tail;
+        static final AtomicLongFieldUpdater<Ring> TAIL =
+                AtomicLongFieldUpdater.newUpdater(Ring.class, "tail");
+
+        /**
+         * Принадлежит читателю
+         */
+        long head;
+
+        Ring(int capacity) {
+            int size = Queues.ceilingNextPowerOfTwo(capacity);
+            this.mask = size - 1;
+            this.buffer = new Object[size];
+            this.sequence = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequence.lazySet(i, i);
+            }
+        }
+
+        boolean offer(GroupByEvent e) {
+            for (; ; ) {
+                long t = tail;
+                int i = (int) (t & mask);
+                long seq = sequence.get(i);
+                if (seq == t) {
+                    if (TAIL.compareAndSet(this, t, t + 1)) {
+                        buffer[i] = e;
+                        sequence.lazySet(i, t + 1);
+                        return true;
+                    }
+                } else if (seq < t) {
+                    return false;
+                }
+                // иначе ячейку уже занял другой писатель, хвост сдвинулся
+            }
+        }
+
+        @Nullable
+        GroupByEvent poll() {
+            long h = head;
+            int i = (int) (h & mask);
+            if (sequence.get(i) != h + 1) {
+                return null;
+            }
+            GroupByEvent e = (GroupByEvent) buffer[i];
+            buffer[i] = null;
+            sequence.lazySet(i, h + mask + 1);
+            head = h + 1;
+            return e;
+        }
+
+        void clear() {
+            while (poll() != null) {
+                // выбрасываем
+            }
+        }
+    }
+
+    static final class EventFlux extends Flux<GroupByEvent> implements Subscription, Scannable, Runnable {
+
+        final Ring ring;
+        final Scheduler scheduler;
+
+        volatile CoreSubscriber<? super GroupByEvent> actual;
+
+        Scheduler.Worker worker;
+
+        volatile boolean cancelled;
+
+        volatile int once;
+        static final AtomicIntegerFieldUpdater<EventFlux> ONCE =
+                AtomicIntegerFieldUpdater.newUpdater(EventFlux.class, "once");
+
+        volatile int wip;
+        static final AtomicIntegerFieldUpdater<EventFlux> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(EventFlux.class, "wip");
+
+        volatile long requested;
+        static final AtomicLongFieldUpdater<EventFlux> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(EventFlux.class, "requested");
+
+        EventFlux(Ring ring, Scheduler scheduler) {
+            this.ring = ring;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void subscribe(CoreSubscriber<? super GroupByEvent> actual) {
+            if (once == 0 && ONCE.compareAndSet(this, 0, 1)) {
+                worker = scheduler.createWorker();
+                actual.onSubscribe(this);
+                this.actual = actual;
+                signal();
+            } else {
+                Operators.error(actual, new IllegalStateException("GroupByEvents allows only one Subscriber"));
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                signal();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            signal();
+        }
+
+        /**
+         * Вызывается писателями событий, поэтому только ставит дренаж на воркер и не ждёт его
+         */
+        void signal() {
+            if (actual == null || WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            try {
+                worker.schedule(this);
+            } catch (RejectedExecutionException ignored) {
+                // воркер уже освобождён после отмены, события копятся в буфере и отбрасываются
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    ring.clear();
+                    worker.dispose();
+                    return;
+                }
+                CoreSubscriber<? super GroupByEvent> a = actual;
+                long r = requested;
+                long e = 0L;
+                while (e != r) {
+                    GroupByEvent event = ring.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    a.onNext(event);
+                    e++;
+                }
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    REQUESTED.addAndGet(this, -e);
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.CANCELLED) return cancelled;
+            if (key == Attr.BUFFERED) return (int) (ring.tail - ring.head);
+            if (key == Attr.REQUESTED_FROM_DOWNSTREAM) return requested;
+            if (key == Attr.RUN_ON) return worker;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.ASYNC;
+            return null;
+        }
+    }
+}
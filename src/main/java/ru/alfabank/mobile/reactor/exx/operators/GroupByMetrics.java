@@ -0,0 +1,165 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Живые метрики одной подписки на groupBy, см. {@link GroupBySpec#metrics(String, GroupByMetricsRegistry)}.
+ * <p>
+ * Счётчики на горячем пути не берут блокировок: общий счётчик отданных элементов полосатый ({@link LongAdder}),
+ * его пополняют потоки подписчиков групп по разу за проход дренажа, остальные счётчики пишет один поток.
+ * Глубина очередей и состояние групп собираются только при чтении, обходом живых групп.
+ */
+public final class GroupByMetrics {
+
+    final String name;
+    final FluxGroupByExx.GroupByMain<?, ?> main;
+
+    final LongAdder emitted = new LongAdder();
+
+    /**
+     * Пишется только потоком onNext
+     */
+    volatile long groupsCreated;
+
+    GroupByMetrics(String name, FluxGroupByExx.GroupByMain<?, ?> main) {
+        this.name = name;
+        this.main = main;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return сколько элементов получено от источника
+     */
+    public long received() {
+        return main.received;
+    }
+
+    /**
+     * @return сколько элементов отдано подписчикам групп
+     */
+    public long emitted() {
+        return emitted.sum();
+    }
+
+    /**
+     * @return сколько групп создано за всё время
+     */
+    public long groupsCreated() {
+        return groupsCreated;
+    }
+
+    /**
+     * @return сколько групп живо сейчас
+     */
+    public int liveGroups() {
+        return main.groups.size();
+    }
+
+    /**
+     * @return сколько элементов лежит в очередях живых групп
+     */
+    public long buffered() {
+        long sum = 0L;
+        for (FluxGroupByExx.Group<?, ?> g : main.groups) {
+            sum += g.queue.size();
+        }
+        return sum;
+    }
+
+    /**
+     * @return наибольший возраст невычитанного элемента по всем группам
+     */
+    public Duration oldestBufferedAge() {
+        long now = System.nanoTime();
+        long max = 0L;
+        for (FluxGroupByExx.Group<?, ?> g : main.groups) {
+            max = Math.max(max, g.backlogAgeNanos(now));
+        }
+        return Duration.ofNanos(max);
+    }
+
+    /**
+     * @return снимок каждой живой группы
+     */
+    public List<GroupStats> groups() {
+        long now = System.nanoTime();
+        List<GroupStats> stats = new ArrayList<>();
+        for (FluxGroupByExx.Group<?, ?> g : main.groups) {
+            stats.add(new GroupStats(g.key, g.queue.size(), Duration.ofNanos(g.backlogAgeNanos(now)),
+                    g.received, g.emitted, g.subscribed));
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "groupBy " + name + ": received " + received() + ", emitted " + emitted()
+                + ", live groups " + liveGroups() + ", buffered " + buffered()
+                + ", oldest buffered " + oldestBufferedAge();
+    }
+
+    /**
+     * Состояние одной группы в момент чтения
+     */
+    public static final class GroupStats {
+
+        final Object key;
+        final int buffered;
+        final Duration oldestBufferedAge;
+        final long received;
+        final long emitted;
+        final boolean subscribed;
+
+        GroupStats(Object key, int buffered, Duration oldestBufferedAge, long received, long emitted,
+                   boolean subscribed) {
+            this.key = key;
+            this.buffered = buffered;
+            this.oldestBufferedAge = oldestBufferedAge;
+            this.received = received;
+            this.emitted = emitted;
+            this.subscribed = subscribed;
+        }
+
+        public Object key() {
+            return key;
+        }
+
+        public int buffered() {
+            return buffered;
+        }
+
+        /**
+         * @return сколько группа держит невычитанные элементы: время с момента, когда очередь группы
+         * была пуста в последний раз. Это верхняя оценка возраста самого старого элемента, точная,
+         * если подписчик не успевает за группой
+         */
+        public Duration oldestBufferedAge() {
+            return oldestBufferedAge;
+        }
+
+        public long received() {
+            return received;
+        }
+
+        public long emitted() {
+            return emitted;
+        }
+
+        public boolean subscribed() {
+            return subscribed;
+        }
+
+        @Override
+        public String toString() {
+            return key + "{buffered " + buffered + ", oldest " + oldestBufferedAge
+                    + ", received " + received + ", emitted " + emitted
+                    + (subscribed ? "" : ", unsubscribed") + "}";
+        }
+    }
+}
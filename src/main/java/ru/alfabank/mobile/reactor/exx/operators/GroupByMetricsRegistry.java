@@ -0,0 +1,16 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+/**
+ * Куда groupBy с {@link GroupBySpec#metrics(String, GroupByMetricsRegistry)} публикует свои метрики.
+ * <p>
+ * Оператор регистрирует живой {@link GroupByMetrics} при подписке и снимает его при завершении или отмене.
+ * Сами значения реестр читает когда хочет, например при выгрузке в систему мониторинга,
+ * скорости считаются по разнице счётчиков между выгрузками.
+ * Методы вызываются из потоков оператора и должны быть быстрыми и потокобезопасными
+ */
+public interface GroupByMetricsRegistry {
+
+    void register(GroupByMetrics metrics);
+
+    void unregister(GroupByMetrics metrics);
+}
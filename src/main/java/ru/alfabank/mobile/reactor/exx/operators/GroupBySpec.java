@@ -0,0 +1,398 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Неизменяемые настройки оператора {@link ExxFlux#groupBy(java.util.function.Function, GroupBySpec)}.
+ * Каждый метод-настройка возвращает новый экземпляр, по аналогии с {@link reactor.util.retry.RetrySpec}.
+ * <p>
+ * Стандартный groupBy держит в окне prefetch и те элементы, которые лежат в группах без подписчика,
+ * поэтому при маленьком prefetch и низкой конкурентности flatMap он зависает (см. GroupByTest).
+ * Здесь такие элементы "паркуются" в отдельном ограниченном буфере и сразу же дозапрашиваются у источника,
+ * так что окно prefetch занимают только элементы групп, у которых уже есть подписчик.
+ */
+public final class GroupBySpec {
+
+    /**
+     * Размер буфера запаркованных элементов по умолчанию
+     */
+    public static final int DEFAULT_MAX_SPILLED = 16 * Queues.SMALL_BUFFER_SIZE;
+
+    /**
+     * Размер страницы файла парковки на диск по умолчанию
+     */
+    public static final int DEFAULT_SPILL_SEGMENT_SIZE = 1 << 20;
+
+    /**
+     * Сколько элементов запрашивается у источника изначально и держится "в полёте"
+     */
+    public final int prefetch;
+
+    /**
+     * До скольки элементов может вырасти окно запроса к источнику, см. {@link #adaptivePrefetch(int, int)}.
+     * Совпадает с prefetch, если окно фиксированное
+     */
+    public final int maxPrefetch;
+
+    /**
+     * Включено ли адаптивное окно {@link #adaptivePrefetch(int, int)}. При нём парковка не действует,
+     * какое бы значение ни было у {@link #maxSpilled} и в каком бы порядке ни вызывались настройки
+     */
+    public final boolean adaptivePrefetch;
+
+    /**
+     * Сколько элементов суммарно по всем группам может лежать в группах без подписчика.
+     * При превышении последовательность завершается ошибкой {@link reactor.core.Exceptions#failWithOverflow()},
+     * либо элементы паркуются на диск, если задан {@link #spillDirectory}.
+     * Значение 0 отключает парковку, тогда оператор ведёт себя как стандартный groupBy.
+     * С {@link #adaptivePrefetch} не действует
+     */
+    public final int maxSpilled;
+
+    /**
+     * Куда парковать элементы сверх maxSpilled, или null, если переполнение буфера парковки это ошибка
+     */
+    @Nullable
+    public final Path spillDirectory;
+
+    @Nullable
+    public final GroupBySpillSerializer<?> spillSerializer;
+
+    /**
+     * Размер страницы файла парковки на диск, элемент больше страницы занимает несколько страниц подряд
+     */
+    public final int spillSegmentSize;
+
+    /**
+     * Под каким именем публиковать метрики, или null, если метрики выключены
+     */
+    @Nullable
+    public final String metricsName;
+
+    @Nullable
+    public final GroupByMetricsRegistry metricsRegistry;
+
+    /**
+     * Сколько групп может жить одновременно. Когда приходит ключ новой группы, а лимит уже достигнут,
+     * самая давно не получавшая элементов группа завершается и освобождает место
+     */
+    public final int maxGroups;
+
+    /**
+     * Через сколько без новых элементов группа считается простаивающей и завершается
+     * при создании следующей группы, или null, если группы живут до конца источника
+     */
+    @Nullable
+    public final Duration maxIdle;
+
+    /**
+     * Через сколько без новых элементов группа завершается по таймеру, не дожидаясь других групп,
+     * или null, если таймер выключен
+     */
+    @Nullable
+    public final Duration idleTimeout;
+
+    /**
+     * Куда публиковать события жизненного цикла групп, или null, если события выключены
+     */
+    @Nullable
+    public final GroupByEvents events;
+
+    /**
+     * Как часто проверять, не встал ли оператор, или null, если проверка выключена
+     */
+    @Nullable
+    public final Duration starvationCheckInterval;
+
+    /**
+     * Кого уведомить о зависании
+     */
+    @Nullable
+    public final Consumer<? super GroupByStarvation> starvationListener;
+
+    /**
+     * Завершать ли последовательность ошибкой {@link GroupByStarvationException} при зависании
+     */
+    public final boolean failOnStarvation;
+
+    GroupBySpec(int prefetch,
+                int maxPrefetch,
+                boolean adaptivePrefetch,
+                int maxSpilled,
+                int maxGroups,
+                @Nullable Duration maxIdle,
+                @Nullable Duration starvationCheckInterval,
+                @Nullable Consumer<? super GroupByStarvation> starvationListener,
+                boolean failOnStarvation,
+                @Nullable Path spillDirectory,
+                @Nullable GroupBySpillSerializer<?> spillSerializer,
+                int spillSegmentSize,
+                @Nullable String metricsName,
+                @Nullable GroupByMetricsRegistry metricsRegistry,
+                @Nullable Duration idleTimeout,
+                @Nullable GroupByEvents events) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch > 0 required but it was " + prefetch);
+        }
+        if (maxPrefetch < prefetch) {
+            throw new IllegalArgumentException("maxPrefetch >= prefetch required but it was "
+                    + maxPrefetch + " < " + prefetch);
+        }
+        if (maxSpilled < 0) {
+            throw new IllegalArgumentException("maxSpilled >= 0 required but it was " + maxSpilled);
+        }
+        if (maxGroups <= 0) {
+            throw new IllegalArgumentException("maxGroups > 0 required but it was " + maxGroups);
+        }
+        if (spillSegmentSize <= 0) {
+            throw new IllegalArgumentException("spillSegmentSize > 0 required but it was " + spillSegmentSize);
+        }
+        requirePositive(maxIdle, "maxIdle");
+        requirePositive(idleTimeout, "idleTimeout");
+        requirePositive(starvationCheckInterval, "starvationCheckInterval");
+        this.prefetch = prefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.adaptivePrefetch = adaptivePrefetch;
+        this.maxSpilled = maxSpilled;
+        this.maxGroups = maxGroups;
+        this.maxIdle = maxIdle;
+        this.starvationCheckInterval = starvationCheckInterval;
+        this.starvationListener = starvationListener;
+        this.failOnStarvation = failOnStarvation;
+        this.spillDirectory = spillDirectory;
+        this.spillSerializer = spillSerializer;
+        this.spillSegmentSize = spillSegmentSize;
+        this.metricsName = metricsName;
+        this.metricsRegistry = metricsRegistry;
+        this.idleTimeout = idleTimeout;
+        this.events = events;
+    }
+
+    /**
+     * @return настройки по умолчанию: prefetch {@link Queues#SMALL_BUFFER_SIZE}
+     * и буфер парковки {@link #DEFAULT_MAX_SPILLED}
+     */
+    public static GroupBySpec create() {
+        return new GroupBySpec(Queues.SMALL_BUFFER_SIZE, Queues.SMALL_BUFFER_SIZE, false, DEFAULT_MAX_SPILLED,
+                Integer.MAX_VALUE, null, null, null, false,
+                null, null, DEFAULT_SPILL_SEGMENT_SIZE, null, null, null, null);
+    }
+
+    /**
+     * Фиксированное окно запроса к источнику, отменяет {@link #adaptivePrefetch(int, int)}
+     * и возвращает парковку по {@link #maxSpilled}
+     */
+    public GroupBySpec prefetch(int prefetch) {
+        return new GroupBySpec(prefetch, prefetch, false, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Окно запроса к источнику начинается с minPrefetch и растёт вдвое, когда оно целиком выбрано,
+     * а часть его держат элементы групп без подписчика. Когда такие группы вычитываются, окно
+     * сжимается обратно: оператор не дозапрашивает потреблённые элементы, пока окно больше нужного.
+     * <p>
+     * В отличие от парковки, элементы групп без подписчика остаются в окне, поэтому оно и растёт.
+     * Парковка не действует, иначе окно никогда не будет занято такими элементами, а maxSpilled
+     * сохраняется и снова действует, если потом задать фиксированное окно через {@link #prefetch(int)}.
+     * Если окну не хватило maxPrefetch, оператор зависает как стандартный groupBy,
+     * такое зависание распознаёт {@link #detectStarvation(Duration, Consumer)}
+     *
+     * @param minPrefetch начальный и минимальный размер окна
+     * @param maxPrefetch максимальный размер окна
+     */
+    public GroupBySpec adaptivePrefetch(int minPrefetch, int maxPrefetch) {
+        return new GroupBySpec(minPrefetch, maxPrefetch, true, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    public GroupBySpec maxSpilled(int maxSpilled) {
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Элементы групп без подписчика сверх {@link #maxSpilled} паркуются не в память, а в один на оператор
+     * временный файл в directory, поделённый между группами постранично. Пока у группы есть элементы на диске,
+     * следующие её элементы тоже пишутся на диск, даже если на группу уже подписались, так что порядок внутри
+     * группы сохраняется. Подписчик группы читает сначала очередь в памяти, затем диск, прочитанные страницы
+     * переиспользуются, а файл удаляется, когда на диске не остаётся элементов.
+     * <p>
+     * Так всплеск элементов по ключам, до которых flatMap ещё не добрался, переживается без OOM
+     * ценой записи на диск, а не ошибкой переполнения
+     *
+     * @param directory  каталог для файла парковки, должен существовать
+     * @param serializer как сохранять элементы
+     */
+    public GroupBySpec spillToDisk(Path directory, GroupBySpillSerializer<?> serializer) {
+        return spillToDisk(directory, serializer, DEFAULT_SPILL_SEGMENT_SIZE);
+    }
+
+    /**
+     * Как {@link #spillToDisk(Path, GroupBySpillSerializer)}, но с заданным размером страницы файла
+     */
+    public GroupBySpec spillToDisk(Path directory, GroupBySpillSerializer<?> serializer, int segmentSize) {
+        Objects.requireNonNull(directory, "directory");
+        Objects.requireNonNull(serializer, "serializer");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                directory, serializer, segmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Ограничивает количество одновременно живых групп. При достижении лимита завершается
+     * наименее давно использованная (LRU) группа: её подписчик дочитывает буфер и получает onComplete,
+     * а flatMap освобождает под новую группу свой слот. Если элемент с ключом завершённой группы придёт снова,
+     * для него будет создана новая группа с тем же ключом.
+     * <p>
+     * Так память оператора не зависит от количества различных ключей, а flatMap с конкурентностью
+     * не меньше maxGroups больше не упирается в группы, которые никогда не завершатся
+     *
+     * @param maxGroups максимальное количество живых групп
+     */
+    public GroupBySpec maxGroups(int maxGroups) {
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Завершает группы, которые не получали элементов дольше maxIdle. Проверка ленивая и дешёвая:
+     * она выполняется при создании новой группы и смотрит только на голову LRU-списка.
+     * Если новые ключи могут долго не приходить, нужен {@link #idleTimeout(Duration)}.
+     * Время берётся из {@link reactor.core.scheduler.Schedulers#parallel()}, поэтому работает и в виртуальном времени
+     *
+     * @param maxIdle сколько группа может простаивать
+     */
+    public GroupBySpec maxIdle(Duration maxIdle) {
+        Objects.requireNonNull(maxIdle, "maxIdle");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Включает детектор зависания: раз в checkInterval оператор проверяет счётчики, и если окно prefetch
+     * целиком занято группами без подписчика, а прогресса с прошлой проверки не было, уведомляет listener.
+     * На горячем пути остаются только счётчики, сама проверка выполняется на {@link reactor.core.scheduler.Schedulers#parallel()}
+     *
+     * @param checkInterval период проверки
+     * @param listener      получатель диагностики, вызывается один раз на каждое зависание
+     */
+    public GroupBySpec detectStarvation(Duration checkInterval, Consumer<? super GroupByStarvation> listener) {
+        Objects.requireNonNull(checkInterval, "checkInterval");
+        Objects.requireNonNull(listener, "listener");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                checkInterval, listener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Как {@link #detectStarvation(Duration, Consumer)}, но зависание дополнительно отменяет источник
+     * и завершает последовательность ошибкой {@link GroupByStarvationException}
+     *
+     * @param checkInterval период проверки
+     */
+    public GroupBySpec failOnStarvation(Duration checkInterval) {
+        Objects.requireNonNull(checkInterval, "checkInterval");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                checkInterval, starvationListener, true,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Включает метрики: каждая подписка регистрирует в registry свой {@link GroupByMetrics}
+     * с глубиной очередей, возрастом невычитанных элементов, счётчиками и состоянием подписки по группам и в целом.
+     * Без метрик на горячем пути не остаётся ничего, кроме проверки на null
+     *
+     * @param name     имя оператора в метриках
+     * @param registry куда регистрировать метрики
+     */
+    public GroupBySpec metrics(String name, GroupByMetricsRegistry registry) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(registry, "registry");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                name, registry, idleTimeout, events);
+    }
+
+    /**
+     * Завершает группу, которая не получала элементов дольше idleTimeout, даже если источник молчит:
+     * на бесконечном потоке ключей простаивающие группы освобождают слот flatMap и память.
+     * Следующий элемент того же ключа откроет новую группу.
+     * <p>
+     * Все группы оператора стоят в одном хешированном колесе таймеров с тиком в 1/16 idleTimeout,
+     * а не в задаче на группу. Элемент группы только обновляет время последней активности,
+     * колесо перепроверяет группу, когда срок истекает, и переставляет её, если она была активна.
+     * Время берётся из {@link reactor.core.scheduler.Schedulers#parallel()}, поэтому работает и в виртуальном времени
+     *
+     * @param idleTimeout сколько группа может простаивать
+     */
+    public GroupBySpec idleTimeout(Duration idleTimeout) {
+        Objects.requireNonNull(idleTimeout, "idleTimeout");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * Включает события жизненного цикла групп: создание, подписку, рост и опустошение очереди, завершение
+     * и вытеснение. Событие кладётся в кольцевой буфер events без блокировок, при переполнении отбрасывается,
+     * так что поток данных не ждёт наблюдателя. Без событий на горячем пути остаётся только проверка на null
+     *
+     * @param events куда публиковать события
+     */
+    public GroupBySpec events(GroupByEvents events) {
+        Objects.requireNonNull(events, "events");
+        return new GroupBySpec(prefetch, maxPrefetch, adaptivePrefetch, maxSpilled, maxGroups, maxIdle,
+                starvationCheckInterval, starvationListener, failOnStarvation,
+                spillDirectory, spillSerializer, spillSegmentSize,
+                metricsName, metricsRegistry, idleTimeout, events);
+    }
+
+    /**
+     * @return true, если окно запроса к источнику меняется по ходу работы
+     */
+    boolean adaptive() {
+        return adaptivePrefetch && maxPrefetch > prefetch && prefetch != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return сколько элементов оператор может парковать с учётом режима окна, 0 если парковка не действует
+     */
+    int spillLimit() {
+        return adaptivePrefetch || prefetch == Integer.MAX_VALUE ? 0 : maxSpilled;
+    }
+
+    /**
+     * @return true, если группы нужно упорядочивать по времени последнего элемента
+     */
+    boolean tracksRecency() {
+        return maxGroups != Integer.MAX_VALUE || maxIdle != null;
+    }
+
+    static void requirePositive(@Nullable Duration duration, String name) {
+        if (duration != null && (duration.isNegative() || duration.isZero())) {
+            throw new IllegalArgumentException(name + " must be positive but it was " + duration);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+/**
+ * Как превращать элементы в байты и обратно при парковке на диск,
+ * см. {@link GroupBySpec#spillToDisk(java.nio.file.Path, GroupBySpillSerializer)}.
+ * Вызывается из потока источника при записи и из потока подписчика группы при чтении,
+ * исключение завершает ошибкой последовательность или группу соответственно
+ *
+ * @param <T> тип элементов
+ */
+public interface GroupBySpillSerializer<T> {
+
+    byte[] serialize(T value);
+
+    T deserialize(byte[] bytes);
+}
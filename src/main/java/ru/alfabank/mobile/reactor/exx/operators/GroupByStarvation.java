@@ -0,0 +1,134 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import java.util.List;
+
+/**
+ * Снимок состояния groupBy в момент, когда он перестал запрашивать источник:
+ * спрос к источнику исчерпан, группы с подписчиком всё вычитали,
+ * а окно prefetch целиком занято элементами групп, на которые никто не подписан.
+ * Без внешнего вмешательства такая последовательность не продвинется.
+ */
+public final class GroupByStarvation {
+
+    final int prefetch;
+    final long upstreamOutstanding;
+    final long downstreamRequested;
+    final int pendingGroups;
+    final int subscribedGroups;
+    final long bufferedInSubscribed;
+    final List<GroupState> unsubscribedGroups;
+
+    GroupByStarvation(int prefetch,
+                      long upstreamOutstanding,
+                      long downstreamRequested,
+                      int pendingGroups,
+                      int subscribedGroups,
+                      long bufferedInSubscribed,
+                      List<GroupState> unsubscribedGroups) {
+        this.prefetch = prefetch;
+        this.upstreamOutstanding = upstreamOutstanding;
+        this.downstreamRequested = downstreamRequested;
+        this.pendingGroups = pendingGroups;
+        this.subscribedGroups = subscribedGroups;
+        this.bufferedInSubscribed = bufferedInSubscribed;
+        this.unsubscribedGroups = List.copyOf(unsubscribedGroups);
+    }
+
+    /**
+     * @return размер окна, которое оператор держит запрошенным у источника
+     */
+    public int prefetch() {
+        return prefetch;
+    }
+
+    /**
+     * @return сколько элементов запрошено у источника, но ещё не получено
+     */
+    public long upstreamOutstanding() {
+        return upstreamOutstanding;
+    }
+
+    /**
+     * @return сколько ещё групп готов принять подписчик оператора,
+     * 0 означает, что flatMap упёрся в свою конкурентность
+     */
+    public long downstreamRequested() {
+        return downstreamRequested;
+    }
+
+    /**
+     * @return сколько созданных групп ещё не отдано подписчику из-за отсутствия спроса
+     */
+    public int pendingGroups() {
+        return pendingGroups;
+    }
+
+    /**
+     * @return количество групп, на которые уже подписались
+     */
+    public int subscribedGroups() {
+        return subscribedGroups;
+    }
+
+    /**
+     * @return сколько элементов лежит в группах с подписчиком
+     */
+    public long bufferedInSubscribed() {
+        return bufferedInSubscribed;
+    }
+
+    /**
+     * @return группы без подписчика вместе с количеством элементов, которые они держат в окне prefetch
+     */
+    public List<GroupState> unsubscribedGroups() {
+        return unsubscribedGroups;
+    }
+
+    /**
+     * @return сколько элементов окна prefetch занято группами без подписчика
+     */
+    public long bufferedInUnsubscribed() {
+        long sum = 0L;
+        for (GroupState g : unsubscribedGroups) {
+            sum += g.buffered;
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "groupBy starvation: prefetch " + prefetch
+                + " is held by " + bufferedInUnsubscribed() + " elements of unsubscribed groups " + unsubscribedGroups
+                + ", upstream outstanding " + upstreamOutstanding
+                + ", subscribed groups " + subscribedGroups + " with " + bufferedInSubscribed + " buffered"
+                + ", pending groups " + pendingGroups
+                + ", downstream requested " + downstreamRequested;
+    }
+
+    /**
+     * Группа без подписчика и количество её элементов, занимающих окно prefetch
+     */
+    public static final class GroupState {
+
+        final Object key;
+        final int buffered;
+
+        GroupState(Object key, int buffered) {
+            this.key = key;
+            this.buffered = buffered;
+        }
+
+        public Object key() {
+            return key;
+        }
+
+        public int buffered() {
+            return buffered;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + buffered;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+/**
+ * Ошибка, которой завершается groupBy с {@link GroupBySpec#failOnStarvation(java.time.Duration)},
+ * когда дальнейший прогресс невозможен
+ */
+public final class GroupByStarvationException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient GroupByStarvation starvation;
+
+    GroupByStarvationException(GroupByStarvation starvation) {
+        super(starvation.toString());
+        this.starvation = starvation;
+    }
+
+    /**
+     * @return состояние оператора в момент зависания
+     */
+    public GroupByStarvation starvation() {
+        return starvation;
+    }
+}
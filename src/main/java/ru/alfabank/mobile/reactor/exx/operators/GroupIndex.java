@@ -0,0 +1,295 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.util.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Поиск группы по элементу для {@link FluxGroupByExx}.
+ * <p>
+ * Индекс принадлежит потоку onNext и не потокобезопасен. Группы, завершённые в других потоках,
+ * удаляются из него через {@link #remove(FluxGroupByExx.Group)} тоже из потока onNext.
+ * Индекс помнит ключ последнего искомого элемента, поэтому ключ группы материализуется
+ * только при её создании через {@link #key()}.
+ *
+ * @param <T> тип элементов
+ * @param <K> тип ключа группы
+ */
+abstract class GroupIndex<T, K> {
+
+    /**
+     * Ищет группу элемента и запоминает его ключ
+     *
+     * @return группа или null, если для ключа элемента группы ещё нет
+     */
+    @Nullable
+    abstract FluxGroupByExx.Group<K, T> get(T value);
+
+    /**
+     * @return ключ элемента, переданного в последний {@link #get(Object)}
+     */
+    abstract K key();
+
+    /**
+     * Кладёт группу под ключ элемента, переданного в последний {@link #get(Object)}
+     */
+    abstract void put(FluxGroupByExx.Group<K, T> group);
+
+    /**
+     * Удаляет группу, если под её ключом всё ещё лежит именно она
+     */
+    abstract void remove(FluxGroupByExx.Group<K, T> group);
+
+    abstract void clear();
+
+    /**
+     * Обычный groupBy: ключ вычисляется функцией и ищется в {@link HashMap}
+     */
+    static final class Hashed<T, K> extends GroupIndex<T, K> {
+
+        final Function<? super T, ? extends K> keySelector;
+        final Map<K, FluxGroupByExx.Group<K, T>> groups = new HashMap<>();
+
+        K lastKey;
+
+        Hashed(Function<? super T, ? extends K> keySelector) {
+            this.keySelector = keySelector;
+        }
+
+        @Override
+        @Nullable
+        FluxGroupByExx.Group<K, T> get(T value) {
+            K key = Objects.requireNonNull(keySelector.apply(value), "The keySelector returned a null value");
+            lastKey = key;
+            return groups.get(key);
+        }
+
+        @Override
+        K key() {
+            return lastKey;
+        }
+
+        @Override
+        void put(FluxGroupByExx.Group<K, T> group) {
+            groups.put(group.key, group);
+        }
+
+        @Override
+        void remove(FluxGroupByExx.Group<K, T> group) {
+            groups.remove(group.key, group);
+        }
+
+        @Override
+        void clear() {
+            groups.clear();
+            lastKey = null;
+        }
+    }
+
+    /**
+     * Элемент сразу отображается в номер слота из небольшого фиксированного диапазона,
+     * поиск группы это обращение к массиву. Ключ группы строится из номера слота при первой группе слота
+     * и запоминается, так что группа, пересозданная после вытеснения, получает тот же объект ключа
+     */
+    static final class Slotted<T, K> extends GroupIndex<T, K> {
+
+        final ToIntFunction<? super T> slotSelector;
+        final IntFunction<? extends K> slotKey;
+        final FluxGroupByExx.Group<K, T>[] slots;
+        final Object[] keys;
+
+        int lastSlot;
+
+        @SuppressWarnings("unchecked")
+        Slotted(ToIntFunction<? super T> slotSelector, int slotCount, IntFunction<? extends K> slotKey) {
+            this.slotSelector = slotSelector;
+            this.slotKey = slotKey;
+            this.slots = new FluxGroupByExx.Group[slotCount];
+            this.keys = new Object[slotCount];
+        }
+
+        @Override
+        @Nullable
+        FluxGroupByExx.Group<K, T> get(T value) {
+            int slot = slotSelector.applyAsInt(value);
+            if (slot < 0 || slot >= slots.length) {
+                throw new IndexOutOfBoundsException("The slotSelector returned " + slot
+                        + " which is out of [0, " + slots.length + ")");
+            }
+            lastSlot = slot;
+            return slots[slot];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        K key() {
+            Object key = keys[lastSlot];
+            if (key == null) {
+                key = Objects.requireNonNull(slotKey.apply(lastSlot), "The slotKey returned a null value");
+                keys[lastSlot] = key;
+            }
+            return (K) key;
+        }
+
+        @Override
+        void put(FluxGroupByExx.Group<K, T> group) {
+            group.indexKey = lastSlot;
+            slots[lastSlot] = group;
+        }
+
+        @Override
+        void remove(FluxGroupByExx.Group<K, T> group) {
+            int slot = (int) group.indexKey;
+            if (slots[slot] == group) {
+                slots[slot] = null;
+            }
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(slots, null);
+        }
+    }
+
+    /**
+     * Ключ элемента это примитивный long, группы лежат в открытой адресации с линейным пробированием.
+     * На горячем пути ключ не упаковывается, объект ключа строится из long один раз на группу.
+     * Удаление сдвигает хвост кластера назад, поэтому надгробий нет и поиск не деградирует
+     * при постоянном пересоздании групп
+     */
+    static final class LongHashed<T, K> extends GroupIndex<T, K> {
+
+        static final int INITIAL_CAPACITY = 16;
+
+        final ToLongFunction<? super T> keySelector;
+        final LongFunction<? extends K> keyFactory;
+
+        long[] keys;
+        FluxGroupByExx.Group<K, T>[] values;
+        int size;
+        /**
+         * 64 - log2(ёмкость), сдвиг для фибоначчиева хеширования
+         */
+        int shift;
+
+        long lastKey;
+
+        LongHashed(ToLongFunction<? super T> keySelector, LongFunction<? extends K> keyFactory) {
+            this.keySelector = keySelector;
+            this.keyFactory = keyFactory;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        @SuppressWarnings("unchecked")
+        void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new FluxGroupByExx.Group[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        @Override
+        @Nullable
+        FluxGroupByExx.Group<K, T> get(T value) {
+            long key = keySelector.applyAsLong(value);
+            lastKey = key;
+            int mask = values.length - 1;
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                FluxGroupByExx.Group<K, T> g = values[i];
+                if (g == null || keys[i] == key) {
+                    return g;
+                }
+            }
+        }
+
+        @Override
+        K key() {
+            return Objects.requireNonNull(keyFactory.apply(lastKey), "The keyFactory returned a null value");
+        }
+
+        @Override
+        void put(FluxGroupByExx.Group<K, T> group) {
+            group.indexKey = lastKey;
+            if (insert(lastKey, group) && ++size > (values.length >> 1) + (values.length >> 2)) {
+                rehash();
+            }
+        }
+
+        /**
+         * @return true, если ключ добавлен, а не заменён
+         */
+        boolean insert(long key, FluxGroupByExx.Group<K, T> group) {
+            int mask = values.length - 1;
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                if (values[i] == null) {
+                    keys[i] = key;
+                    values[i] = group;
+                    return true;
+                }
+                if (keys[i] == key) {
+                    values[i] = group;
+                    return false;
+                }
+            }
+        }
+
+        void rehash() {
+            long[] oldKeys = keys;
+            FluxGroupByExx.Group<K, T>[] oldValues = values;
+            allocate(oldValues.length << 1);
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        @Override
+        void remove(FluxGroupByExx.Group<K, T> group) {
+            long key = group.indexKey;
+            int mask = values.length - 1;
+            int i = slot(key);
+            for (; ; i = (i + 1) & mask) {
+                FluxGroupByExx.Group<K, T> g = values[i];
+                if (g == null) {
+                    return;
+                }
+                if (keys[i] == key) {
+                    if (g != group) {
+                        return;
+                    }
+                    break;
+                }
+            }
+            size--;
+            // сдвигаем назад элементы кластера, чья исходная позиция не между дыркой и их текущим местом
+            int hole = i;
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            values[hole] = null;
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хешированное колесо таймеров: много отложенных задач на одной периодической задаче scheduler.
+ * <p>
+ * Колесо это кольцо из wheelSize корзин, каждая корзина покрывает один тик длиной tickMillis.
+ * Задача с дедлайном через n тиков попадает в корзину (текущий тик + n) % wheelSize и помнит,
+ * сколько полных оборотов ей ещё ждать. Постановка и отмена стоят O(1) независимо от количества задач,
+ * а просыпается таймер раз в тик, а не на каждую задачу.
+ * <p>
+ * Задачи ставятся из любого потока через очередь, а корзины трогает только тик.
+ * Тик выполняется на scheduler, поэтому колесо работает и в виртуальном времени.
+ * Точность срабатывания один тик: задача выполняется не раньше дедлайна и не позже чем через тик после него
+ */
+final class HashedWheelTimer implements Runnable {
+
+    final Scheduler scheduler;
+    final long tickMillis;
+    final int mask;
+    final Timeout[] wheel;
+    final Queue<Timeout> pending = Queues.<Timeout>unboundedMultiproducer().get();
+
+    /*
+     * Поля ниже трогает только тик
+     */
+    long startMillis;
+    long tick;
+
+    volatile Disposable task;
+
+    HashedWheelTimer(Scheduler scheduler, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis > 0 required but it was " + tickMillis);
+        }
+        this.scheduler = scheduler;
+        this.tickMillis = tickMillis;
+        int size = Queues.ceilingNextPowerOfTwo(wheelSize);
+        this.mask = size - 1;
+        this.wheel = new Timeout[size];
+    }
+
+    void start() {
+        startMillis = scheduler.now(TimeUnit.MILLISECONDS);
+        task = scheduler.schedulePeriodically(this, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        Disposable t = task;
+        if (t != null) {
+            t.dispose();
+        }
+        pending.clear();
+    }
+
+    long now() {
+        return scheduler.now(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ставит задачу, которая выполнится на потоке тика через delayMillis
+     */
+    Timeout schedule(Runnable action, long delayMillis) {
+        Timeout t = new Timeout(action, now() + Math.max(0L, delayMillis));
+        pending.offer(t);
+        return t;
+    }
+
+    /**
+     * Тик: догоняет часы, если периодическая задача опоздала, и выполняет задачи созревших корзин
+     */
+    @Override
+    public void run() {
+        long target = (now() - startMillis) / tickMillis;
+        while (tick <= target) {
+            transferPending();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    void transferPending() {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.cancelled) {
+                continue;
+            }
+            // дедлайн округляется вверх до тика, чтобы задача не сработала раньше
+            long deadlineTick = Math.max(tick, (t.deadlineMillis - startMillis + tickMillis - 1) / tickMillis);
+            t.rounds = (deadlineTick - tick) >> Integer.numberOfTrailingZeros(wheel.length);
+            int bucket = (int) (deadlineTick & mask);
+            t.next = wheel[bucket];
+            wheel[bucket] = t;
+        }
+    }
+
+    void expire(int bucket) {
+        Timeout prev = null;
+        Timeout t = wheel[bucket];
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.cancelled || t.rounds <= 0) {
+                if (prev == null) {
+                    wheel[bucket] = next;
+                } else {
+                    prev.next = next;
+                }
+                t.next = null;
+                if (!t.cancelled) {
+                    t.run();
+                }
+            } else {
+                t.rounds--;
+                prev = t;
+            }
+            t = next;
+        }
+    }
+
+    static final class Timeout {
+
+        final Runnable action;
+        final long deadlineMillis;
+
+        volatile boolean cancelled;
+
+        /*
+         * Поля корзины, принадлежат тику
+         */
+        long rounds;
+        Timeout next;
+
+        Timeout(Runnable action, long deadlineMillis) {
+            this.action = action;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        void run() {
+            try {
+                action.run();
+            } catch (Throwable ex) {
+                Operators.onErrorDropped(ex, Context.empty());
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import java.util.Objects;
+
+/**
+ * Выбирает дорожку для ключа с учётом перекоса трафика.
+ * <p>
+ * Частоты ключей оцениваются count-min sketch: depth строк по width счётчиков, ключ увеличивает по счётчику
+ * в каждой строке, оценка частоты это минимум из них. Оценка никогда не меньше настоящей частоты,
+ * а память не зависит от количества ключей. Чтобы горячие ключи могли смениться, каждые
+ * decayInterval элементов все счётчики делятся пополам.
+ * <p>
+ * Холодный ключ всегда попадает в дорожку по своему хешу, горячий, чья доля в трафике больше hotShare,
+ * раскладывается по всем дорожкам по кругу. Вызывается только из потока источника
+ *
+ * @param <K> тип ключа
+ */
+final class HotKeySplitter<K> {
+
+    static final int DEPTH = 4;
+    static final int WIDTH = 1 << 12;
+
+    /**
+     * Сколько элементов нужно увидеть, прежде чем считать какой-нибудь ключ горячим
+     */
+    static final int WARMUP = 1 << 10;
+
+    final int partitions;
+    final double hotShare;
+    final int mask;
+    final int decayInterval;
+    final int[] counters;
+
+    /**
+     * Сколько элементов учтено в счётчиках, с учётом затухания
+     */
+    long total;
+    int sinceDecay;
+    int rotation;
+
+    HotKeySplitter(int partitions, double hotShare) {
+        this(partitions, hotShare, WIDTH);
+    }
+
+    HotKeySplitter(int partitions, double hotShare, int width) {
+        this.partitions = partitions;
+        this.hotShare = hotShare;
+        this.mask = width - 1;
+        this.decayInterval = width * 8;
+        this.counters = new int[DEPTH * width];
+    }
+
+    /**
+     * Учитывает ключ и выбирает для него дорожку
+     */
+    int lane(K key) {
+        int h = Objects.requireNonNull(key, "The keySelector returned a null value").hashCode();
+        long estimate = add(h);
+        if (total >= WARMUP && estimate > total * hotShare) {
+            int lane = rotation;
+            rotation = lane + 1 == partitions ? 0 : lane + 1;
+            return lane;
+        }
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    /**
+     * Увеличивает счётчики ключа с хешем h
+     *
+     * @return оценка частоты ключа с учётом этого элемента
+     */
+    long add(int h) {
+        long x = h * 0x9E3779B97F4A7C15L;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int c = ++counters[slot(row, x)];
+            if (c < min) {
+                min = c;
+            }
+        }
+        total++;
+        if (++sinceDecay == decayInterval) {
+            decay();
+        }
+        return min;
+    }
+
+    /**
+     * @return оценка частоты ключа, не меньше настоящей
+     */
+    long estimate(K key) {
+        long x = key.hashCode() * 0x9E3779B97F4A7C15L;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters[slot(row, x)]);
+        }
+        return min;
+    }
+
+    /**
+     * Два независимых хеша из половин x дают индексы всех строк: h1 + row * h2
+     */
+    int slot(int row, long x) {
+        int h1 = (int) (x >>> 32);
+        int h2 = (int) x | 1;
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    void decay() {
+        sinceDecay = 0;
+        total >>>= 1;
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+    }
+}
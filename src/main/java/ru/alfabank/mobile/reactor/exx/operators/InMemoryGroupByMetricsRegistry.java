@@ -0,0 +1,44 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.util.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Реестр, который просто держит зарегистрированные метрики, для тестов и отладки
+ */
+public final class InMemoryGroupByMetricsRegistry implements GroupByMetricsRegistry {
+
+    final List<GroupByMetrics> registered = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void register(GroupByMetrics metrics) {
+        registered.add(metrics);
+    }
+
+    @Override
+    public void unregister(GroupByMetrics metrics) {
+        registered.remove(metrics);
+    }
+
+    /**
+     * @return метрики живых операторов в порядке подписки
+     */
+    public List<GroupByMetrics> registered() {
+        return List.copyOf(registered);
+    }
+
+    /**
+     * @return метрики первого живого оператора с таким именем или null
+     */
+    @Nullable
+    public GroupByMetrics get(String name) {
+        for (GroupByMetrics metrics : registered) {
+            if (metrics.name().equals(name)) {
+                return metrics;
+            }
+        }
+        return null;
+    }
+}
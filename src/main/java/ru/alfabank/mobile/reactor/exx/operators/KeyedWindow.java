@@ -0,0 +1,51 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import java.time.Instant;
+
+/**
+ * Итог одного ключа за одно окно {@link ExxFlux#keyedAggregate}
+ *
+ * @param <K> тип ключа
+ * @param <A> тип аккумулятора
+ */
+public final class KeyedWindow<K, A> {
+
+    final K key;
+    final Instant start;
+    final Instant end;
+    final A value;
+
+    KeyedWindow(K key, Instant start, Instant end, A value) {
+        this.key = key;
+        this.start = start;
+        this.end = end;
+        this.value = value;
+    }
+
+    public K key() {
+        return key;
+    }
+
+    /**
+     * @return начало окна по часам scheduler из {@link WindowSpec}, включительно
+     */
+    public Instant start() {
+        return start;
+    }
+
+    /**
+     * @return конец окна, не включительно
+     */
+    public Instant end() {
+        return end;
+    }
+
+    public A value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return key + "[" + start + ", " + end + "): " + value;
+    }
+}
@@ -0,0 +1,184 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Operators;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * groupBy, разложенный по рельсам {@link ParallelFlux}.
+ * <p>
+ * Источник раскладывается по рельсам по хешу ключа, как в {@link ExxFlux#partitionBy(Function, int, Scheduler)},
+ * и каждая рельса держит собственный {@link FluxGroupByExx} со своей таблицей групп и своим дренажом
+ * на своём воркере. Группы одного ключа всегда в одной рельсе, а рельсы друг друга не ждут,
+ * поэтому общим остаётся только поток источника, который раскладывает элементы.
+ * <p>
+ * Каждая подписка собирает раскладку заново: {@link LaneDispatcher} подписан на дорожки partitionBy
+ * и отдаёт дорожку i подписчику рельсы i, как только она появилась
+ *
+ * @param <T> тип элементов
+ * @param <K> тип ключа
+ */
+final class ParallelFluxGroupBy<T, K> extends ParallelFlux<GroupedFlux<K, T>> {
+
+    final Flux<T> source;
+    final Function<? super T, ? extends K> keySelector;
+    final int rails;
+    final GroupBySpec spec;
+    final Scheduler scheduler;
+
+    ParallelFluxGroupBy(Flux<T> source,
+                        Function<? super T, ? extends K> keySelector,
+                        int rails,
+                        GroupBySpec spec,
+                        Scheduler scheduler) {
+        this.source = source;
+        this.keySelector = keySelector;
+        this.rails = rails;
+        this.spec = spec;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public int parallelism() {
+        return rails;
+    }
+
+    @Override
+    public int getPrefetch() {
+        return spec.prefetch;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super GroupedFlux<K, T>>[] subscribers) {
+        if (!validate(subscribers)) {
+            return;
+        }
+        ExxFlux.<T, K>partitionBy(keySelector, rails, scheduler)
+                .apply(source)
+                .subscribe(new LaneDispatcher<>(subscribers, ExxFlux.<T, K>groupBy(keySelector, spec)));
+    }
+
+    /**
+     * Подписывает рельсу на её дорожку в момент появления дорожки, поэтому дорожки не ждут друг друга
+     * и не копятся в парковке partitionBy. Рельса, для которой дорожка так и не появилась,
+     * получает завершение или ошибку источника дорожек.
+     * <p>
+     * Рельса получает дорожку один раз. Если она отменила свою дорожку, partitionBy заведёт для следующего
+     * элемента её слота новую, и такая дорожка сразу отменяется. Когда отменились все рельсы,
+     * отменяется и источник дорожек
+     */
+    static final class LaneDispatcher<T, K> implements CoreSubscriber<GroupedFlux<Integer, T>> {
+
+        final CoreSubscriber<? super GroupedFlux<K, T>>[] subscribers;
+        final Function<Flux<T>, Flux<GroupedFlux<K, T>>> groupBy;
+
+        /**
+         * Получила ли рельса дорожку, принадлежит потоку сигналов источника дорожек
+         */
+        final boolean[] assigned;
+
+        Subscription s;
+
+        volatile int cancelledRails;
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<LaneDispatcher> CANCELLED_RAILS =
+                AtomicIntegerFieldUpdater.newUpdater(LaneDispatcher.class, "cancelledRails");
+
+        LaneDispatcher(CoreSubscriber<? super GroupedFlux<K, T>>[] subscribers,
+                       Function<Flux<T>, Flux<GroupedFlux<K, T>>> groupBy) {
+            this.subscribers = subscribers;
+            this.groupBy = groupBy;
+            this.assigned = new boolean[subscribers.length];
+        }
+
+        @Override
+        public Context currentContext() {
+            return subscribers[0].currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                // живых дорожек не больше, чем рельс, а отменённые отменяются сразу
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(GroupedFlux<Integer, T> lane) {
+            int rail = lane.key();
+            if (assigned[rail]) {
+                lane.subscribe(new CancelledLane<>());
+                return;
+            }
+            assigned[rail] = true;
+            // отмену можно прислать не один раз, рельса считается один
+            AtomicBoolean gone = new AtomicBoolean();
+            groupBy.apply(lane)
+                    .doOnCancel(() -> {
+                        if (gone.compareAndSet(false, true)) {
+                            railCancelled();
+                        }
+                    })
+                    .subscribe(subscribers[rail]);
+        }
+
+        void railCancelled() {
+            if (CANCELLED_RAILS.incrementAndGet(this) == subscribers.length) {
+                s.cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // рельсы с дорожкой получат ошибку через неё
+            for (int i = 0; i < subscribers.length; i++) {
+                if (!assigned[i]) {
+                    Operators.error(subscribers[i], t);
+                }
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            for (int i = 0; i < subscribers.length; i++) {
+                if (!assigned[i]) {
+                    Operators.complete(subscribers[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Подписчик дорожки, рельса которой уже отменилась: отменяет дорожку сразу
+     */
+    static final class CancelledLane<T> implements CoreSubscriber<T> {
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            s.cancel();
+        }
+
+        @Override
+        public void onNext(T t) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Общий файл парковки на диск одного оператора groupBy, поделённый на страницы одного размера.
+ * <p>
+ * Очереди групп ({@link DiskBacklog}) берут страницы через {@link #allocate()} и отдают прочитанные
+ * через {@link #release(int)}, освобождённые страницы переиспользуются. Сколько бы групп ни парковалось,
+ * открыт один дескриптор, а память не отображается, чтение и запись идут по позиции в файле.
+ * Файл создаётся при первой занятой странице и удаляется, когда занятых страниц не остаётся.
+ */
+final class SpillFile {
+
+    final Path directory;
+    final int pageSize;
+
+    final ArrayDeque<Integer> free = new ArrayDeque<>();
+
+    FileChannel channel;
+
+    /**
+     * Сколько страниц размечено в файле
+     */
+    int pages;
+
+    /**
+     * Сколько страниц занято очередями
+     */
+    int used;
+
+    SpillFile(Path directory, int pageSize) {
+        this.directory = directory;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return номер свободной страницы, файл создаётся при необходимости
+     */
+    synchronized int allocate() {
+        if (channel == null) {
+            try {
+                Path file = Files.createTempFile(directory, "groupby-", ".spill");
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to create groupBy spill file in " + directory, ex);
+            }
+        }
+        used++;
+        Integer page = free.pollFirst();
+        return page != null ? page : pages++;
+    }
+
+    /**
+     * Возвращает страницу, с последней занятой страницей файл закрывается и удаляется
+     */
+    synchronized void release(int page) {
+        free.addFirst(page);
+        if (--used == 0) {
+            free.clear();
+            pages = 0;
+            FileChannel c = channel;
+            channel = null;
+            try {
+                c.close();
+            } catch (IOException ignored) {
+                // файл удаляется при закрытии, больше с ним ничего не сделать
+            }
+        }
+    }
+
+    /**
+     * Пишет src целиком со смещения offset занятой страницы
+     */
+    void write(int page, int offset, ByteBuffer src) {
+        FileChannel c = channel();
+        long position = (long) page * pageSize + offset;
+        try {
+            while (src.hasRemaining()) {
+                position += c.write(src, position);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write groupBy spill file in " + directory, ex);
+        }
+    }
+
+    /**
+     * Читает dst целиком со смещения offset занятой страницы
+     */
+    void read(int page, int offset, ByteBuffer dst) {
+        FileChannel c = channel();
+        long position = (long) page * pageSize + offset;
+        try {
+            while (dst.hasRemaining()) {
+                int n = c.read(dst, position);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of groupBy spill file at " + position);
+                }
+                position += n;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read groupBy spill file in " + directory, ex);
+        }
+    }
+
+    /**
+     * Пока у вызывающего есть занятая страница, файл не закрывается
+     */
+    synchronized FileChannel channel() {
+        return channel;
+    }
+}
@@ -0,0 +1,39 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+/**
+ * Периодическая проверка groupBy на зависание.
+ * Выполняется на таймере, читает только счётчики оператора и ничего не блокирует.
+ * Зависание фиксируется, если условие выполнено на двух проверках подряд и между ними
+ * от источника не пришло ни одного элемента и не было ни одного дозапроса,
+ * так что мимолётные состояния между onNext и request не дают ложных срабатываний.
+ */
+final class StarvationWatchdog implements Runnable {
+
+    final FluxGroupByExx.GroupByMain<?, ?> main;
+
+    long suspectedProgress = -1L;
+    long reportedProgress = -1L;
+
+    StarvationWatchdog(FluxGroupByExx.GroupByMain<?, ?> main) {
+        this.main = main;
+    }
+
+    @Override
+    public void run() {
+        GroupByStarvation starvation = main.starvation();
+        if (starvation == null) {
+            suspectedProgress = -1L;
+            return;
+        }
+        long progress = main.progress();
+        if (progress != suspectedProgress) {
+            suspectedProgress = progress;
+            return;
+        }
+        if (progress == reportedProgress) {
+            return;
+        }
+        reportedProgress = progress;
+        main.starved(starvation);
+    }
+}
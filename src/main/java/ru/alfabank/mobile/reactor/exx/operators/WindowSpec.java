@@ -0,0 +1,92 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Неизменяемые настройки окон оператора {@link ExxFlux#keyedAggregate}.
+ * <p>
+ * Окна отсчитываются от момента подписки по часам scheduler: окно длиной size открывается каждые slide.
+ * У скользящего окна size кратен slide, и каждый элемент попадает в size / slide окон,
+ * у неперекрывающегося size и slide совпадают
+ */
+public final class WindowSpec {
+
+    public final Duration size;
+
+    public final Duration slide;
+
+    /**
+     * На чьих часах закрываются окна, null означает {@link Schedulers#parallel()} на момент подписки
+     */
+    @Nullable
+    public final Scheduler scheduler;
+
+    /**
+     * Сколько итогов закрытых окон может ждать спроса подписчика, прежде чем оператор перестанет
+     * вычитывать источник. Это же окно запроса к источнику
+     */
+    public final int maxPending;
+
+    WindowSpec(Duration size, Duration slide, @Nullable Scheduler scheduler, int maxPending) {
+        if (size.toMillis() <= 0) {
+            throw new IllegalArgumentException("size >= 1ms required but it was " + size);
+        }
+        if (slide.toMillis() <= 0) {
+            throw new IllegalArgumentException("slide >= 1ms required but it was " + slide);
+        }
+        if (size.toMillis() % slide.toMillis() != 0) {
+            throw new IllegalArgumentException("size must be a multiple of slide but it was " + size + " and " + slide);
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending > 0 required but it was " + maxPending);
+        }
+        this.size = size;
+        this.slide = slide;
+        this.scheduler = scheduler;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Неперекрывающиеся окна длиной size
+     */
+    public static WindowSpec tumbling(Duration size) {
+        Objects.requireNonNull(size, "size");
+        return new WindowSpec(size, size, null, Queues.SMALL_BUFFER_SIZE);
+    }
+
+    /**
+     * Окна длиной size, новое открывается каждые slide
+     */
+    public static WindowSpec sliding(Duration size, Duration slide) {
+        Objects.requireNonNull(size, "size");
+        Objects.requireNonNull(slide, "slide");
+        return new WindowSpec(size, slide, null, Queues.SMALL_BUFFER_SIZE);
+    }
+
+    public WindowSpec scheduler(Scheduler scheduler) {
+        Objects.requireNonNull(scheduler, "scheduler");
+        return new WindowSpec(size, slide, scheduler, maxPending);
+    }
+
+    /**
+     * Пока итогов закрытых окон, не забранных подписчиком, не меньше maxPending, источник не вычитывается.
+     * Уже запрошенные элементы, не больше maxPending, ещё сворачиваются в открытые окна, так что их итоги
+     * могут добавиться к очереди сверх maxPending. Пустые окна итогов не дают, поэтому дальше очередь не растёт
+     */
+    public WindowSpec maxPending(int maxPending) {
+        return new WindowSpec(size, slide, scheduler, maxPending);
+    }
+
+    /**
+     * Сколько окон открыто одновременно
+     */
+    int overlap() {
+        return (int) (size.toMillis() / slide.toMillis());
+    }
+}
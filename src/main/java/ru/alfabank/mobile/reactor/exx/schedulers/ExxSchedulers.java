@@ -0,0 +1,111 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Точка входа в планировщики библиотеки, по аналогии с {@link Schedulers}.
+ * Планировщики подключаются там же, где стандартные:
+ * <pre>
+ * Scheduler io = ExxSchedulers.newVirtualThread("io", 1_000);
+ * Flux.range(0, 10)
+ *         .publishOn(io)
+ *         .map(this::blockingCall)
+ * </pre>
+ * Как и у newXxx из {@link Schedulers}, освобождать планировщик через dispose должен тот, кто его создал
+ */
+public final class ExxSchedulers {
+
+    private ExxSchedulers() {
+    }
+
+    /**
+     * Замена {@link Schedulers#boundedElastic()} для блокирующих вызовов: каждая задача в своём виртуальном потоке,
+     * без ограничения их количества
+     *
+     * @param name префикс имён потоков
+     */
+    public static Scheduler newVirtualThread(String name) {
+        return newVirtualThread(name, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Как {@link #newVirtualThread(String)}, но одновременно выполняется не больше maxConcurrency задач,
+     * например по размеру пула соединений. Задачи сверх лимита ждут в своих виртуальных потоках,
+     * а не в очереди, как у boundedElastic, и вызывающий поток не блокируют.
+     * <p>
+     * На JDK без виртуальных потоков задачи выполняет пул из maxConcurrency потоков-демонов с очередью,
+     * как boundedElastic, см. {@link #virtualThreadsSupported()}
+     *
+     * @param name           префикс имён потоков
+     * @param maxConcurrency сколько задач может выполняться одновременно
+     */
+    public static Scheduler newVirtualThread(String name, int maxConcurrency) {
+        Objects.requireNonNull(name, "name");
+        return new VirtualThreadScheduler(name, maxConcurrency);
+    }
+
+    /**
+     * {@link #newWheelTimer(String, Duration, Scheduler)} с тиком 10 мс поверх {@link Schedulers#parallel()}
+     *
+     * @param name имя потока колеса
+     */
+    public static Scheduler newWheelTimer(String name) {
+        return newWheelTimer(name, Duration.ofMillis(10), Schedulers.parallel());
+    }
+
+    /**
+     * Scheduler для десятков тысяч интервалов и таймаутов: все отложенные и периодические задачи отсчитывает
+     * одно хешированное колесо на одном потоке, постановка и отмена стоят O(1), а поток колеса просыпается раз в тик.
+     * Выполняют задачи воркеры workers, задачи без задержки идут в них сразу.
+     * <pre>
+     * Scheduler timers = ExxSchedulers.newWheelTimer("timers", Duration.ofMillis(10), Schedulers.parallel());
+     * Flux.interval(Duration.ofSeconds(1), timers)
+     * </pre>
+     * Задача срабатывает с точностью до тика, поэтому тик должен быть заметно меньше интервалов и таймаутов.
+     * workers при dispose не освобождается
+     *
+     * @param name    имя потока колеса
+     * @param tick    длина тика
+     * @param workers кто выполняет созревшие задачи
+     */
+    public static Scheduler newWheelTimer(String name, Duration tick, Scheduler workers) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(tick, "tick");
+        Objects.requireNonNull(workers, "workers");
+        return new WheelTimerScheduler(name, tick.toNanos(), 512, workers);
+    }
+
+    /**
+     * {@link #newWorkStealing(String, int)} по количеству ядер, как {@link Schedulers#parallel()}
+     *
+     * @param name префикс имён потоков
+     */
+    public static Scheduler newWorkStealing(String name) {
+        return newWorkStealing(name, Schedulers.DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Замена {@link Schedulers#parallel()} для неравномерной нагрузки: потоки ForkJoinPool с кражей задач.
+     * Задача, поставленная из потока пула, выполняется им же, пока её данные в его кеше,
+     * а простаивающие потоки забирают задачи и воркеры у занятых, вместо того чтобы ждать, как у parallel,
+     * где воркер навсегда привязан к одному потоку. Воркер по-прежнему выполняет свои задачи по одной и по порядку
+     *
+     * @param name        префикс имён потоков
+     * @param parallelism количество потоков
+     */
+    public static Scheduler newWorkStealing(String name, int parallelism) {
+        Objects.requireNonNull(name, "name");
+        return new WorkStealingScheduler(name, parallelism);
+    }
+
+    /**
+     * @return true, если JDK поддерживает виртуальные потоки и {@link #newVirtualThread(String)} их использует
+     */
+    public static boolean virtualThreadsSupported() {
+        return VirtualThreadScheduler.virtualThreadFactory("probe-") != null;
+    }
+}
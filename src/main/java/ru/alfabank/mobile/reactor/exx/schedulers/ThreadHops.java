@@ -0,0 +1,457 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Scannable;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Operators;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+import ru.alfabank.mobile.reactor.exx.operators.ExxFlux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Учёт переключений потоков в цепочках операторов, автоматическая замена чтения логов
+ * из {@code PublishOnSubscribeOnTest}.
+ * <p>
+ * {@link #install()} через {@link Hooks#onEachOperator} оборачивает подписчика каждого оператора
+ * и считает по точкам сборки, то есть по оператору и строке кода, где его подключили:
+ * <ul>
+ * <li>переходы, когда оператор отдаёт элемент не на том потоке, на котором элемент отдал оператор выше,
+ * а источник не на том, на котором у него запросили элементы;</li>
+ * <li>переходы подписки, когда subscribeOn подписывается на источник на другом потоке;</li>
+ * <li>задержку в очереди на границах publishOn и subscribeOn: сколько элемент ждал между оператором выше
+ * и самой границей, и сколько подписка ждала воркера subscribeOn.</li>
+ * </ul>
+ * Точки одной подписки складываются в цепочку по последнему оператору, {@link #report(int)} выводит цепочки
+ * с наибольшим числом переходов. Лишний переход, как interval под subscribeOn, виден как переход подписки
+ * на subscribeOn и переход на каждом элементе источника:
+ * <pre>
+ * ThreadHops hops = ThreadHops.install();
+ * ...
+ * log.info(hops.report(10));
+ * hops.dispose();
+ * </pre>
+ * Инструмент для поиска проблем, а не для постоянной работы: обёртка на каждом операторе отключает fusion,
+ * а сборка каждого оператора обходит стек, чтобы найти точку сборки
+ */
+public final class ThreadHops implements Disposable {
+
+    static final String HOOK_KEY = ThreadHops.class.getName();
+
+    final Map<String, Point> points = new ConcurrentHashMap<>();
+    final Map<String, Chain> chains = new ConcurrentHashMap<>();
+
+    volatile boolean disposed;
+
+    ThreadHops() {
+    }
+
+    /**
+     * Включает учёт для всех операторов, собранных после вызова, предыдущий учёт при этом перестаёт пополняться
+     */
+    public static ThreadHops install() {
+        ThreadHops hops = new ThreadHops();
+        Hooks.onEachOperator(HOOK_KEY, publisher -> {
+            if (hops.disposed) {
+                return publisher;
+            }
+            Scannable sc = Scannable.from(publisher);
+            Point point = hops.point(sc.stepName(), assemblyFrame());
+            return Operators.<Object, Object>lift((operator, actual) -> new HopSubscriber<>(hops, point, actual))
+                    .apply(publisher);
+        });
+        return hops;
+    }
+
+    /**
+     * Снимает хук. Уже собранные цепочки остаются обёрнутыми, но статистику больше не пополняют
+     */
+    @Override
+    public void dispose() {
+        disposed = true;
+        Hooks.resetOnEachOperator(HOOK_KEY);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * @return все точки сборки в порядке убывания переходов
+     */
+    public List<Point> points() {
+        List<Point> list = new ArrayList<>(points.values());
+        list.sort(Comparator.comparingLong(Point::hops).reversed());
+        return list;
+    }
+
+    /**
+     * @return limit цепочек с наибольшим числом переходов
+     */
+    public List<Chain> topChains(int limit) {
+        List<Chain> list = new ArrayList<>(chains.values());
+        list.sort(Comparator.comparingLong(Chain::hops).reversed());
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    /**
+     * @return текстовый отчёт по limit самым дорогим цепочкам, операторы от источника к подписчику
+     */
+    public String report(int limit) {
+        StringBuilder sb = new StringBuilder();
+        for (Chain chain : topChains(limit)) {
+            sb.append(chain).append('\n');
+            for (Point point : chain.points()) {
+                sb.append("    ").append(point).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    Point point(String name, String frame) {
+        return points.computeIfAbsent(name + " at " + frame, Point::new);
+    }
+
+    Chain chain(Point tail) {
+        return chains.computeIfAbsent(tail.name, key -> new Chain(tail));
+    }
+
+    /**
+     * @return первая строка стека вне Reactor и этой библиотеки, то есть место, где подключили оператор
+     */
+    static String assemblyFrame() {
+        String exx = ExxFlux.class.getName();
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(f -> {
+                    String c = f.getClassName();
+                    return !c.startsWith("reactor.") && !c.startsWith("java.")
+                            && !c.startsWith(exx) && !c.startsWith(HOOK_KEY);
+                })
+                .findFirst()
+                .map(f -> f.toStackTraceElement().toString())
+                .orElse("unknown"));
+    }
+
+    /**
+     * Статистика одной точки сборки по всем её подпискам
+     */
+    public static final class Point {
+
+        final String name;
+        /**
+         * У publishOn меряется, сколько элементы ждали в очереди, у subscribeOn сколько подписка ждала воркера
+         */
+        final boolean publishOn;
+        final boolean subscribeOn;
+        final LongAdder signals = new LongAdder();
+        final LongAdder hops = new LongAdder();
+        final LongAdder subscribeHops = new LongAdder();
+        final DelayHistogram delay = new DelayHistogram();
+
+        Point(String name) {
+            this.name = name;
+            this.publishOn = name.startsWith("publishOn");
+            this.subscribeOn = name.startsWith("subscribeOn");
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return сколько элементов отдал оператор
+         */
+        public long signals() {
+            return signals.sum();
+        }
+
+        /**
+         * @return сколько элементов оператор отдал на другом потоке
+         */
+        public long hops() {
+            return hops.sum();
+        }
+
+        /**
+         * @return сколько раз подписка на источник ушла на другой поток
+         */
+        public long subscribeHops() {
+            return subscribeHops.sum();
+        }
+
+        /**
+         * @return задержки в очереди на границе publishOn или subscribeOn, для остальных операторов пустая
+         */
+        public DelayHistogram delay() {
+            return delay;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": signals " + signals() + ", hops " + hops() + ", subscribe hops " + subscribeHops()
+                    + (publishOn || subscribeOn ? ", delay " + delay : "");
+        }
+    }
+
+    /**
+     * Цепочка операторов одной подписки, сводится по последнему оператору
+     */
+    public static final class Chain {
+
+        final String name;
+        final LongAdder elements = new LongAdder();
+        final LongAdder hops = new LongAdder();
+        /**
+         * Точки цепочки и их удалённость от последнего оператора
+         */
+        final Map<Point, Integer> points = new ConcurrentHashMap<>();
+
+        Chain(Point tail) {
+            this.name = tail.name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return сколько элементов дошло до последнего оператора
+         */
+        public long elements() {
+            return elements.sum();
+        }
+
+        /**
+         * @return все переходы в цепочке, включая переходы подписки
+         */
+        public long hops() {
+            return hops.sum();
+        }
+
+        /**
+         * @return точки цепочки от источника к последнему оператору
+         */
+        public List<Point> points() {
+            List<Map.Entry<Point, Integer>> entries = new ArrayList<>(points.entrySet());
+            entries.sort(Map.Entry.<Point, Integer>comparingByValue().reversed());
+            List<Point> list = new ArrayList<>(entries.size());
+            for (Map.Entry<Point, Integer> e : entries) {
+                list.add(e.getKey());
+            }
+            return list;
+        }
+
+        @Override
+        public String toString() {
+            return "chain " + name + ": hops " + hops() + ", elements " + elements();
+        }
+    }
+
+    /**
+     * Гистограмма задержек по степеням двойки наносекунд, без блокировок: в корзине i задержки от 2^(i-1) до 2^i - 1
+     */
+    public static final class DelayHistogram {
+
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final LongAdder count = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        void record(long nanos) {
+            long n = Math.max(nanos, 0L);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(n));
+            count.increment();
+            max.accumulate(n);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public Duration max() {
+            return Duration.ofNanos(max.get());
+        }
+
+        /**
+         * @return верхняя граница корзины, в которую попал квантиль q от 0 до 1
+         */
+        public Duration percentile(double q) {
+            long total = 0L;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0L) {
+                return Duration.ZERO;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0L;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Duration.ofNanos(Math.min((1L << i) - 1, max.get()));
+                }
+            }
+            return max();
+        }
+
+        @Override
+        public String toString() {
+            return "count " + count() + ", p50 " + percentile(0.5) + ", p99 " + percentile(0.99) + ", max " + max();
+        }
+    }
+
+    /**
+     * Подписчик-обёртка на выходе одного оператора. Связывается с ближайшей обёрткой ниже по цепочке
+     * при создании: подписка идёт снизу вверх, поэтому нижняя обёртка к этому времени уже есть
+     */
+    static final class HopSubscriber<T> implements CoreSubscriber<T>, Subscription, Scannable {
+
+        final ThreadHops hops;
+        final Point point;
+        final CoreSubscriber<? super T> actual;
+        @Nullable
+        final HopSubscriber<?> downstream;
+        final Chain chain;
+        final Thread subscribeThread;
+        final long subscribeNanos;
+        /**
+         * Моменты, когда оператор выше отдал элемент, только у publishOn
+         */
+        @Nullable
+        final Queue<Long> stamps;
+
+        Subscription s;
+
+        /**
+         * Поток, на котором оператор выше отдал последний элемент, пишет его обёртка
+         */
+        volatile Thread upstreamThread;
+        volatile Thread requestThread;
+
+        HopSubscriber(ThreadHops hops, Point point, CoreSubscriber<? super T> actual) {
+            this.hops = hops;
+            this.point = point;
+            this.actual = actual;
+            this.subscribeThread = Thread.currentThread();
+            this.subscribeNanos = System.nanoTime();
+            this.stamps = point.publishOn ? Queues.<Long>unboundedMultiproducer().get() : null;
+            HopSubscriber<?> d = downstreamOf(actual);
+            this.downstream = d;
+            if (d == null) {
+                chain = hops.chain(point);
+                chain.points.putIfAbsent(point, 0);
+            } else {
+                chain = d.chain;
+                chain.points.putIfAbsent(point, chain.points.getOrDefault(d.point, 0) + 1);
+                if (d.point.subscribeOn && d.subscribeThread != subscribeThread && !hops.disposed) {
+                    d.point.subscribeHops.increment();
+                    d.point.delay.record(subscribeNanos - d.subscribeNanos);
+                    chain.hops.increment();
+                }
+            }
+        }
+
+        @Nullable
+        static HopSubscriber<?> downstreamOf(CoreSubscriber<?> actual) {
+            if (actual instanceof HopSubscriber) {
+                return (HopSubscriber<?>) actual;
+            }
+            return (HopSubscriber<?>) Scannable.from(actual).actuals()
+                    .filter(HopSubscriber.class::isInstance)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                actual.onSubscribe(this);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            Thread current = Thread.currentThread();
+            if (!hops.disposed) {
+                HopSubscriber<?> d = downstream;
+                if (d != null) {
+                    d.upstreamThread = current;
+                    if (d.stamps != null) {
+                        d.stamps.offer(System.nanoTime());
+                    }
+                }
+                Thread from = upstreamThread;
+                if (from == null) {
+                    // источник сравнивается с потоком, который запросил у него элементы
+                    from = requestThread;
+                }
+                if (from != null && from != current) {
+                    point.hops.increment();
+                    chain.hops.increment();
+                }
+                if (stamps != null) {
+                    Long stamp = stamps.poll();
+                    if (stamp != null) {
+                        point.delay.record(System.nanoTime() - stamp);
+                    }
+                }
+                point.signals.increment();
+                if (d == null) {
+                    chain.elements.increment();
+                }
+            }
+            actual.onNext(t);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            actual.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            requestThread = Thread.currentThread();
+            s.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            s.cancel();
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return s;
+            if (key == Attr.ACTUAL) return actual;
+            if (key == Attr.RUN_STYLE) return Attr.RunStyle.SYNC;
+            return null;
+        }
+    }
+}
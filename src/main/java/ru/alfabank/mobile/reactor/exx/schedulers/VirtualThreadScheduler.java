@@ -0,0 +1,603 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.Scannable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler, который запускает каждую задачу в своём виртуальном потоке, см. {@link ExxSchedulers#newVirtualThread}.
+ * <p>
+ * Пула нет: блокирующая задача паркует свой виртуальный поток, а не занимает поток-носитель,
+ * поэтому тысячи одновременных блокирующих вызовов не встают в очередь, как в boundedElastic.
+ * Если задан maxConcurrency, задача сначала ждёт разрешение семафора в своём же потоке,
+ * вызывающий поток при этом не блокируется.
+ * <p>
+ * Воркер выполняет свои задачи по одной и по порядку: задачи ложатся в очередь воркера,
+ * и пока она не пуста, её вычитывает один виртуальный поток. Отложенные и периодические задачи
+ * отсчитывает один служебный поток-таймер, сами задачи он только запускает.
+ * <p>
+ * Виртуальные потоки появились в JDK 21, а проект собирается и на более ранних JDK, поэтому фабрика
+ * потоков берётся через отражение. Без виртуальных потоков задачи выполняет пул потоков-демонов
+ * размером maxConcurrency, а без лимита {@link Schedulers#DEFAULT_BOUNDED_ELASTIC_SIZE}, с очередью
+ * на {@link Schedulers#DEFAULT_BOUNDED_ELASTIC_QUEUESIZE} задач, как boundedElastic: поток ОС на каждую задачу
+ * не заводится, а лимит держит сам пул, а не семафор, на котором стояли бы потоки. См. {@link #isVirtual()}
+ */
+final class VirtualThreadScheduler implements Scheduler, Scannable {
+
+    final String name;
+    @Nullable
+    final ThreadFactory factory;
+    @Nullable
+    final ThreadPoolExecutor pool;
+    final boolean virtual;
+    final int maxConcurrency;
+    @Nullable
+    final Semaphore permits;
+    final ScheduledThreadPoolExecutor timer;
+    final Set<Disposable> tasks = ConcurrentHashMap.newKeySet();
+
+    volatile boolean disposed;
+
+    VirtualThreadScheduler(String name, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency > 0 required but it was " + maxConcurrency);
+        }
+        this.name = name;
+        this.factory = virtualThreadFactory(name + "-");
+        this.virtual = factory != null;
+        this.maxConcurrency = maxConcurrency;
+        if (virtual) {
+            this.pool = null;
+            this.permits = maxConcurrency == Integer.MAX_VALUE ? null : new Semaphore(maxConcurrency);
+        } else {
+            int threads = maxConcurrency == Integer.MAX_VALUE ? Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE : maxConcurrency;
+            this.pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE),
+                    daemonThreadFactory(name + "-"));
+            this.pool.allowCoreThreadTimeOut(true);
+            this.permits = null;
+        }
+        this.timer = new ScheduledThreadPoolExecutor(1, daemonThreadFactory(name + "-timer-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return фабрика виртуальных потоков Thread.ofVirtual().name(prefix, 0).factory() или null до JDK 21
+     */
+    @Nullable
+    static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicLong counter = new AtomicLong();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * @return true, если задачи выполняются в виртуальных потоках, false, если JDK их не поддерживает
+     */
+    boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        VirtualTask t = new VirtualTask(task, this, false);
+        track(t);
+        try {
+            launch(t);
+        } catch (RejectedExecutionException ex) {
+            t.dispose();
+            throw ex;
+        }
+        return t;
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+        VirtualTask t = new VirtualTask(task, this, false);
+        track(t);
+        try {
+            t.setFuture(timer.schedule(() -> launchLater(t), delay, unit));
+        } catch (RejectedExecutionException ex) {
+            t.dispose();
+            throw ex;
+        }
+        return t;
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        VirtualTask t = new VirtualTask(task, this, true);
+        track(t);
+        try {
+            // тик таймера только запускает задачу, а если прошлый запуск ещё идёт, пропускается
+            t.setFuture(timer.scheduleAtFixedRate(() -> {
+                if (t.state == VirtualTask.READY) {
+                    launchLater(t);
+                }
+            }, initialDelay, period, unit));
+        } catch (RejectedExecutionException ex) {
+            t.dispose();
+            throw ex;
+        }
+        return t;
+    }
+
+    void track(Disposable task) {
+        if (disposed) {
+            throw Exceptions.failWithRejected();
+        }
+        tasks.add(task);
+        if (disposed) {
+            task.dispose();
+            throw Exceptions.failWithRejected();
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException если очередь пула без виртуальных потоков заполнена или пул закрыт
+     */
+    void launch(Runnable task) {
+        if (pool != null) {
+            pool.execute(task);
+        } else {
+            factory.newThread(task).start();
+        }
+    }
+
+    /**
+     * Запуск задачи из потока-таймера: отказ пула отменяет задачу, а не тик таймера
+     */
+    void launchLater(VirtualTask task) {
+        try {
+            launch(task);
+        } catch (RejectedExecutionException ex) {
+            task.dispose();
+            if (!disposed) {
+                handleError(ex);
+            }
+        }
+    }
+
+    /**
+     * Выполняет действие под разрешением семафора в текущем потоке
+     *
+     * @return false, если поток прервали, пока он ждал разрешение
+     */
+    boolean runPermitted(Runnable action) {
+        Semaphore p = permits;
+        if (p != null) {
+            try {
+                p.acquire();
+            } catch (InterruptedException ex) {
+                return false;
+            }
+        }
+        try {
+            action.run();
+        } finally {
+            if (p != null) {
+                p.release();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Worker createWorker() {
+        return new VirtualWorker(this);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    @Override
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        timer.shutdownNow();
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        for (Disposable t : tasks) {
+            t.dispose();
+        }
+        tasks.clear();
+    }
+
+    @Override
+    @Nullable
+    public Object scanUnsafe(Attr key) {
+        if (key == Attr.NAME) return toString();
+        if (key == Attr.CAPACITY) return maxConcurrency;
+        if (key == Attr.TERMINATED || key == Attr.CANCELLED) return disposed;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "virtualThread(\"" + name + "\"" + (maxConcurrency == Integer.MAX_VALUE ? "" : ", " + maxConcurrency)
+                + (virtual ? "" : ", platform pool") + ")";
+    }
+
+    static void handleError(Throwable ex) {
+        Schedulers.handleError(ex);
+    }
+
+    /**
+     * Задача scheduler: выполняется в своём потоке, периодическая возвращается в READY после каждого запуска.
+     * Отмена прерывает поток, если задача уже выполняется, как cancel(true) у Future в boundedElastic
+     */
+    static final class VirtualTask implements Runnable, Disposable {
+
+        static final int READY = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+
+        final Runnable task;
+        final VirtualThreadScheduler parent;
+        final boolean periodic;
+
+        volatile int state;
+        static final AtomicIntegerFieldUpdater<VirtualTask> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(VirtualTask.class, "state");
+
+        @Nullable
+        volatile Thread runner;
+
+        @Nullable
+        volatile Future<?> future;
+
+        VirtualTask(Runnable task, VirtualThreadScheduler parent, boolean periodic) {
+            this.task = task;
+            this.parent = parent;
+            this.periodic = periodic;
+        }
+
+        void setFuture(Future<?> f) {
+            future = f;
+            if (isDisposed()) {
+                f.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!STATE.compareAndSet(this, READY, RUNNING)) {
+                return;
+            }
+            runner = Thread.currentThread();
+            boolean failed = false;
+            try {
+                if (!parent.runPermitted(task)) {
+                    failed = true;
+                }
+            } catch (Throwable ex) {
+                failed = true;
+                handleError(ex);
+            } finally {
+                runner = null;
+            }
+            // в пуле без виртуальных потоков прерывание от отмены не должно достаться следующей задаче
+            Thread.interrupted();
+            if (periodic && !failed) {
+                STATE.compareAndSet(this, RUNNING, READY);
+            } else {
+                finish();
+            }
+        }
+
+        void finish() {
+            if (STATE.getAndSet(this, DONE) != DONE) {
+                Future<?> f = future;
+                if (f != null) {
+                    f.cancel(false);
+                }
+                parent.tasks.remove(this);
+            }
+        }
+
+        @Override
+        public void dispose() {
+            int prev = STATE.getAndSet(this, DONE);
+            if (prev == DONE) {
+                return;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+            Thread t = runner;
+            if (prev == RUNNING && t != null && t != Thread.currentThread()) {
+                t.interrupt();
+            }
+            parent.tasks.remove(this);
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state == DONE;
+        }
+    }
+
+    /**
+     * Воркер: задачи выполняются по одной в порядке постановки. Очередь вычитывает один виртуальный поток,
+     * который запускается, когда в пустую очередь приходит задача, и завершается, когда очередь опустела.
+     * Пока поток воркера работает, он держит одно разрешение семафора scheduler
+     */
+    static final class VirtualWorker implements Worker, Runnable, Scannable {
+
+        final VirtualThreadScheduler parent;
+        final Queue<WorkerTask> queue = Queues.<WorkerTask>unboundedMultiproducer().get();
+        final Set<WorkerTask> tasks = ConcurrentHashMap.newKeySet();
+
+        volatile boolean disposed;
+
+        @Nullable
+        volatile Thread runner;
+
+        /**
+         * Выполняемая задача, чтобы отмена прерывала поток воркера только ради неё
+         */
+        @Nullable
+        volatile WorkerTask current;
+
+        volatile int wip;
+        static final AtomicIntegerFieldUpdater<VirtualWorker> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(VirtualWorker.class, "wip");
+
+        VirtualWorker(VirtualThreadScheduler parent) {
+            this.parent = parent;
+            parent.track(this);
+        }
+
+        @Override
+        public Disposable schedule(Runnable task) {
+            WorkerTask t = new WorkerTask(task, this, false);
+            track(t);
+            enqueue(t);
+            return t;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+            WorkerTask t = new WorkerTask(task, this, false);
+            track(t);
+            try {
+                t.future = parent.timer.schedule(() -> enqueue(t), delay, unit);
+            } catch (RejectedExecutionException ex) {
+                t.dispose();
+                throw ex;
+            }
+            if (t.isDisposed()) {
+                t.future.cancel(false);
+            }
+            return t;
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            WorkerTask t = new WorkerTask(task, this, true);
+            track(t);
+            try {
+                t.future = parent.timer.scheduleAtFixedRate(() -> enqueue(t), initialDelay, period, unit);
+            } catch (RejectedExecutionException ex) {
+                t.dispose();
+                throw ex;
+            }
+            if (t.isDisposed()) {
+                t.future.cancel(false);
+            }
+            return t;
+        }
+
+        void track(WorkerTask t) {
+            if (disposed) {
+                throw Exceptions.failWithRejected();
+            }
+            tasks.add(t);
+            if (disposed) {
+                t.dispose();
+                throw Exceptions.failWithRejected();
+            }
+        }
+
+        /**
+         * Ставит задачу в очередь, если она ещё не стоит в ней и не отменена
+         */
+        void enqueue(WorkerTask t) {
+            if (!WorkerTask.STATE.compareAndSet(t, WorkerTask.READY, WorkerTask.QUEUED)) {
+                return;
+            }
+            queue.offer(t);
+            if (WIP.getAndIncrement(this) == 0) {
+                try {
+                    parent.launch(this);
+                } catch (Throwable ex) {
+                    dispose();
+                    throw Exceptions.failWithRejected();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                if (!parent.runPermitted(this::drainLoop)) {
+                    dispose();
+                }
+            } finally {
+                runner = null;
+            }
+        }
+
+        void drainLoop() {
+            int missed = 1;
+            for (; ; ) {
+                WorkerTask t;
+                while ((t = queue.poll()) != null) {
+                    if (disposed) {
+                        queue.clear();
+                        return;
+                    }
+                    t.runQueued();
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+
+        @Override
+        public void dispose() {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            for (WorkerTask t : tasks) {
+                t.dispose();
+            }
+            tasks.clear();
+            queue.clear();
+            parent.tasks.remove(this);
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return parent;
+            if (key == Attr.NAME) return parent + ".worker";
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.TERMINATED || key == Attr.CANCELLED) return disposed;
+            return null;
+        }
+    }
+
+    /**
+     * Задача воркера. READY - ждёт таймера или постановки, QUEUED - стоит в очереди воркера,
+     * RUNNING - выполняется, DONE - выполнена или отменена
+     */
+    static final class WorkerTask implements Disposable {
+
+        static final int READY = 0;
+        static final int QUEUED = 1;
+        static final int RUNNING = 2;
+        static final int DONE = 3;
+
+        final Runnable task;
+        final VirtualWorker worker;
+        final boolean periodic;
+
+        volatile int state;
+        static final AtomicIntegerFieldUpdater<WorkerTask> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(WorkerTask.class, "state");
+
+        @Nullable
+        volatile Future<?> future;
+
+        WorkerTask(Runnable task, VirtualWorker worker, boolean periodic) {
+            this.task = task;
+            this.worker = worker;
+            this.periodic = periodic;
+        }
+
+        void runQueued() {
+            if (!STATE.compareAndSet(this, QUEUED, RUNNING)) {
+                return;
+            }
+            boolean failed = false;
+            worker.current = this;
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                failed = true;
+                handleError(ex);
+            } finally {
+                worker.current = null;
+            }
+            // прерывание от отмены задачи не должно достаться следующей задаче воркера
+            Thread.interrupted();
+            if (periodic && !failed) {
+                STATE.compareAndSet(this, RUNNING, READY);
+            } else {
+                finish();
+            }
+        }
+
+        void finish() {
+            if (STATE.getAndSet(this, DONE) != DONE) {
+                Future<?> f = future;
+                if (f != null) {
+                    f.cancel(false);
+                }
+                worker.tasks.remove(this);
+            }
+        }
+
+        @Override
+        public void dispose() {
+            int prev = STATE.getAndSet(this, DONE);
+            if (prev == DONE) {
+                return;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+            Thread t = worker.runner;
+            if (prev == RUNNING && worker.current == this && t != null && t != Thread.currentThread()) {
+                t.interrupt();
+            }
+            worker.tasks.remove(this);
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state == DONE;
+        }
+    }
+}
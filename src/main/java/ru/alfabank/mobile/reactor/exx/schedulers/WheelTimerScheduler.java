@@ -0,0 +1,514 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.Scannable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scheduler, у которого все отложенные и периодические задачи отсчитывает одно хешированное колесо
+ * на одном потоке, а выполняют воркеры другого scheduler, см. {@link ExxSchedulers#newWheelTimer}.
+ * <p>
+ * Колесо устроено как таймер простоя групп в groupBy: кольцо корзин по тику, задача попадает в корзину
+ * своего дедлайна и помнит, сколько оборотов ей ещё ждать. Постановка и отмена стоят O(1): задача
+ * идёт через очередь в поток колеса, отменённая тоже, и колесо на ближайшем тике вынимает её из корзины,
+ * как в HashedWheelTimer у Netty. Поток колеса просыпается раз в тик, пока в колесе есть живые задачи,
+ * и спит, когда их нет, сколько бы интервалов ни было запущено. У {@link reactor.core.scheduler.Schedulers#parallel()} каждая
+ * отложенная задача встаёт в кучу ScheduledThreadPoolExecutor за O(log n) и будит свой поток на каждое срабатывание.
+ * <p>
+ * Созревшие задачи поток колеса только передаёт в workers. Воркер колеса, например у Flux.interval,
+ * отдаёт свои задачи одному воркеру workers, а периодическая задача на уровне scheduler получает свой воркер workers,
+ * поэтому запуски периодической задачи идут по порядку, а если прошлый запуск ещё не закончился,
+ * очередной пропускается. Задачи без задержки идут в workers сразу.
+ * Точность срабатывания один тик: задача отдаётся воркеру не раньше дедлайна и не позже чем через тик после него
+ */
+final class WheelTimerScheduler implements Scheduler, Scannable, Runnable {
+
+    final String name;
+    final Scheduler workers;
+    final long tickNanos;
+    final int mask;
+    final Timeout[] wheel;
+    final Queue<Timeout> pending = Queues.<Timeout>unboundedMultiproducer().get();
+    final Queue<Timeout> cancelled = Queues.<Timeout>unboundedMultiproducer().get();
+    final Thread thread;
+
+    /*
+     * Поля ниже трогает только поток колеса
+     */
+    long startNanos;
+    long tick;
+    /**
+     * Сколько задач лежит в корзинах. Отменённые вынимаются на ближайшем тике, поэтому колесо,
+     * где остались только они, засыпает через тик, а не ждёт, пока дойдёт до их корзин
+     */
+    long count;
+
+    /**
+     * Поток колеса спит без таймаута, потому что колесо пустое, и его надо будить постановкой
+     */
+    volatile boolean idle;
+
+    volatile boolean disposed;
+
+    WheelTimerScheduler(String name, long tickNanos, int wheelSize, Scheduler workers) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tick > 0 required but it was " + tickNanos + "ns");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("wheelSize > 0 required but it was " + wheelSize);
+        }
+        this.name = name;
+        this.workers = workers;
+        this.tickNanos = tickNanos;
+        int size = Queues.ceilingNextPowerOfTwo(wheelSize);
+        this.mask = size - 1;
+        this.wheel = new Timeout[size];
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(this, name + "-wheel");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        if (disposed) {
+            throw Exceptions.failWithRejected();
+        }
+        return workers.schedule(task);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+        long nanos = unit.toNanos(delay);
+        if (nanos <= 0L) {
+            return schedule(task);
+        }
+        return add(new Timeout(task, this, null, null, System.nanoTime() + nanos, 0L));
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        long periodNanos = unit.toNanos(period);
+        if (periodNanos <= 0L) {
+            // как у parallel, период 0 означает одноразовую задачу после initialDelay
+            return schedule(task, initialDelay, unit);
+        }
+        Worker target = workers.createWorker();
+        try {
+            return add(new Timeout(task, this, target, null,
+                    System.nanoTime() + Math.max(0L, unit.toNanos(initialDelay)), periodNanos));
+        } catch (RejectedExecutionException ex) {
+            target.dispose();
+            throw ex;
+        }
+    }
+
+    Timeout add(Timeout t) {
+        if (disposed) {
+            throw Exceptions.failWithRejected();
+        }
+        pending.offer(t);
+        if (disposed) {
+            // поток колеса мог уже выйти и не увидит задачу
+            t.dispose();
+            throw Exceptions.failWithRejected();
+        }
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return t;
+    }
+
+    /**
+     * Цикл потока колеса: ждёт начала очередного тика и отдаёт задачи его корзины
+     */
+    @Override
+    public void run() {
+        while (!disposed) {
+            transferPending();
+            removeCancelled();
+            if (count == 0L && pending.isEmpty()) {
+                idle = true;
+                if (pending.isEmpty() && !disposed) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                // пустое колесо пропущенных тиков не заметит, часы догоняются сразу
+                tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+                continue;
+            }
+            long wait = startNanos + tick * tickNanos - System.nanoTime();
+            if (wait > 0L) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            expire((int) (tick & mask));
+            tick++;
+        }
+        disposeAll();
+    }
+
+    void transferPending() {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.state != Timeout.DONE) {
+                insert(t);
+            }
+        }
+    }
+
+    /**
+     * Вынимает из корзин задачи, отменённые с прошлого прохода. Задача, которую колесо уже вынуло само,
+     * или которая так и не попала в корзину, пропускается
+     */
+    void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket >= 0) {
+                unlink(t);
+            }
+        }
+    }
+
+    void insert(Timeout t) {
+        // дедлайн округляется вверх до тика, чтобы задача не сработала раньше
+        long deadlineTick = Math.max(tick, (t.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+        t.rounds = (deadlineTick - tick) >> Integer.numberOfTrailingZeros(wheel.length);
+        link(t, (int) (deadlineTick & mask));
+    }
+
+    void link(Timeout t, int bucket) {
+        Timeout head = wheel[bucket];
+        t.prev = null;
+        t.next = head;
+        if (head != null) {
+            head.prev = t;
+        }
+        wheel[bucket] = t;
+        t.bucket = bucket;
+        count++;
+    }
+
+    void unlink(Timeout t) {
+        Timeout prev = t.prev;
+        Timeout next = t.next;
+        if (prev == null) {
+            wheel[t.bucket] = next;
+        } else {
+            prev.next = next;
+        }
+        if (next != null) {
+            next.prev = prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.bucket = -1;
+        count--;
+    }
+
+    void expire(int bucket) {
+        Timeout t = wheel[bucket];
+        // задачи, переставленные на следующий период, не должны попасть в обход этой же корзины
+        Timeout rescheduled = null;
+        while (t != null) {
+            Timeout next = t.next;
+            // отмена, которую removeCancelled ещё не видел
+            boolean done = t.state == Timeout.DONE;
+            if (done || t.rounds <= 0) {
+                unlink(t);
+                if (!done && t.dispatch()) {
+                    t.deadlineNanos += t.periodNanos;
+                    t.next = rescheduled;
+                    rescheduled = t;
+                }
+            } else {
+                t.rounds--;
+            }
+            t = next;
+        }
+        while (rescheduled != null) {
+            Timeout next = rescheduled.next;
+            rescheduled.next = null;
+            insertNext(rescheduled);
+            rescheduled = next;
+        }
+    }
+
+    /**
+     * Ставит периодическую задачу не раньше следующего тика, даже если она отстала больше чем на период
+     */
+    void insertNext(Timeout t) {
+        long deadlineTick = Math.max(tick + 1, (t.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+        t.rounds = (deadlineTick - tick - 1) >> Integer.numberOfTrailingZeros(wheel.length);
+        link(t, (int) (deadlineTick & mask));
+    }
+
+    void disposeAll() {
+        for (int i = 0; i < wheel.length; i++) {
+            Timeout t = wheel[i];
+            wheel[i] = null;
+            while (t != null) {
+                Timeout next = t.next;
+                t.prev = null;
+                t.next = null;
+                t.bucket = -1;
+                t.dispose();
+                t = next;
+            }
+        }
+        count = 0L;
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            t.dispose();
+        }
+        cancelled.clear();
+    }
+
+    @Override
+    public Worker createWorker() {
+        if (disposed) {
+            throw Exceptions.failWithRejected();
+        }
+        return new WheelWorker(this, workers.createWorker());
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * Останавливает поток колеса и отменяет задачи в нём. workers не освобождается, им владеет тот, кто его передал
+     */
+    @Override
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    @Nullable
+    public Object scanUnsafe(Attr key) {
+        if (key == Attr.NAME) return toString();
+        if (key == Attr.PARENT) return workers;
+        if (key == Attr.TERMINATED || key == Attr.CANCELLED) return disposed;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "wheelTimer(\"" + name + "\", " + TimeUnit.NANOSECONDS.toMillis(tickNanos) + "ms, " + workers + ")";
+    }
+
+    /**
+     * Задача в колесе. READY - ждёт дедлайна, RUNNING - отдана воркеру и ещё не выполнилась,
+     * DONE - выполнена или отменена. Периодическая после каждого запуска возвращается в READY
+     */
+    static final class Timeout implements Runnable, Disposable {
+
+        static final int READY = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+
+        final Runnable task;
+        final WheelTimerScheduler parent;
+        /**
+         * Воркер, которому отдаётся задача, или null, если подойдёт любой воркер workers
+         */
+        @Nullable
+        final Worker target;
+        /**
+         * Воркер колеса, которому принадлежит задача. Если null, воркер target создан под эту задачу
+         * и освобождается вместе с ней
+         */
+        @Nullable
+        final WheelWorker owner;
+        final long periodNanos;
+
+        volatile int state;
+        static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        /*
+         * Поля корзины, принадлежат потоку колеса. bucket равен -1, пока задача не лежит в корзине
+         */
+        long deadlineNanos;
+        long rounds;
+        int bucket = -1;
+        Timeout prev;
+        Timeout next;
+
+        Timeout(Runnable task, WheelTimerScheduler parent, @Nullable Worker target, @Nullable WheelWorker owner,
+                long deadlineNanos, long periodNanos) {
+            this.task = task;
+            this.parent = parent;
+            this.target = target;
+            this.owner = owner;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        /**
+         * Выполняется на потоке колеса: отдаёт созревшую задачу воркеру
+         *
+         * @return true, если периодическую задачу надо поставить на следующий период
+         */
+        boolean dispatch() {
+            if (!STATE.compareAndSet(this, READY, RUNNING)) {
+                // прошлый запуск периодической задачи ещё не закончился, этот период пропускается
+                return periodNanos != 0L && state != DONE;
+            }
+            try {
+                if (target != null) {
+                    target.schedule(this);
+                } else {
+                    parent.workers.schedule(this);
+                }
+            } catch (RejectedExecutionException ex) {
+                dispose();
+                return false;
+            }
+            return periodNanos != 0L;
+        }
+
+        @Override
+        public void run() {
+            if (state != RUNNING) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                Schedulers.handleError(ex);
+                dispose();
+                return;
+            }
+            if (periodNanos == 0L || !STATE.compareAndSet(this, RUNNING, READY)) {
+                dispose();
+            }
+        }
+
+        @Override
+        public void dispose() {
+            int prev = STATE.getAndSet(this, DONE);
+            if (prev == DONE) {
+                return;
+            }
+            // разовая задача покидает корзину, когда созревает, а периодическая лежит в ней и во время запуска
+            if (prev == READY || periodNanos != 0L) {
+                parent.cancelled.offer(this);
+            }
+            WheelWorker o = owner;
+            if (o != null) {
+                o.tasks.remove(this);
+            } else if (target != null) {
+                target.dispose();
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state == DONE;
+        }
+    }
+
+    /**
+     * Воркер: задачи без задержки идут прямо в воркер workers, отложенные и периодические
+     * проходят через колесо и отдаются тому же воркеру, так что порядок и последовательность воркера сохраняются
+     */
+    static final class WheelWorker implements Worker, Scannable {
+
+        final WheelTimerScheduler parent;
+        final Worker delegate;
+        final Set<Timeout> tasks = ConcurrentHashMap.newKeySet();
+
+        volatile boolean disposed;
+
+        WheelWorker(WheelTimerScheduler parent, Worker delegate) {
+            this.parent = parent;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task) {
+            if (disposed) {
+                throw Exceptions.failWithRejected();
+            }
+            return delegate.schedule(task);
+        }
+
+        @Override
+        public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+            long nanos = unit.toNanos(delay);
+            if (nanos <= 0L) {
+                return schedule(task);
+            }
+            return track(new Timeout(task, parent, delegate, this, System.nanoTime() + nanos, 0L));
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            long periodNanos = unit.toNanos(period);
+            if (periodNanos <= 0L) {
+                return schedule(task, initialDelay, unit);
+            }
+            return track(new Timeout(task, parent, delegate, this,
+                    System.nanoTime() + Math.max(0L, unit.toNanos(initialDelay)), periodNanos));
+        }
+
+        Timeout track(Timeout t) {
+            if (disposed) {
+                throw Exceptions.failWithRejected();
+            }
+            tasks.add(t);
+            if (disposed) {
+                t.dispose();
+                throw Exceptions.failWithRejected();
+            }
+            return parent.add(t);
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+
+        @Override
+        public void dispose() {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            for (Timeout t : tasks) {
+                t.dispose();
+            }
+            tasks.clear();
+            delegate.dispose();
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return parent;
+            if (key == Attr.NAME) return parent + ".worker";
+            if (key == Attr.BUFFERED) return tasks.size();
+            if (key == Attr.TERMINATED || key == Attr.CANCELLED) return disposed;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.Scannable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+import reactor.util.concurrent.Queues;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler на {@link ForkJoinPool} с кражей задач, см. {@link ExxSchedulers#newWorkStealing}.
+ * <p>
+ * У {@link reactor.core.scheduler.Schedulers#parallel()} каждый воркер навсегда привязан к своему однопоточному
+ * исполнителю, и если на один поток попали тяжёлые воркеры, остальные потоки простаивают рядом.
+ * Здесь у каждого потока пула своя очередь: задача, поставленная из потока пула, ложится в его очередь
+ * и выполняется им же, пока данные, которые она будет обрабатывать, ещё в его кеше, например дренаж publishOn
+ * после onNext выше по цепочке. Простаивающие потоки крадут задачи из чужих очередей.
+ * Задачи из других потоков идут в общую очередь пула.
+ * <p>
+ * Воркер выполняет свои задачи по одной и по порядку: задачи ложатся в очередь воркера, а вычитывает её
+ * одна задача пула, поэтому воркер целиком переезжает на тот поток, который его украл. Чтобы один занятой
+ * воркер не держал поток, а с ним и его очередь, дренаж после {@link #DRAIN_BUDGET} задач ставит себя
+ * в конец очереди потока и отпускает его. Отложенные и периодические задачи отсчитывает один служебный
+ * поток-таймер, сами задачи он только ставит в пул.
+ * <p>
+ * Отмена не прерывает уже выполняющуюся задачу, прерывание потоков ForkJoinPool ломает сам пул
+ */
+final class WorkStealingScheduler implements Scheduler, Scannable {
+
+    /**
+     * Сколько задач воркер выполняет подряд, прежде чем отпустить поток пула
+     */
+    static final int DRAIN_BUDGET = 256;
+
+    final String name;
+    final int parallelism;
+    final ForkJoinPool pool;
+    final ScheduledThreadPoolExecutor timer;
+
+    volatile boolean disposed;
+
+    WorkStealingScheduler(String name, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism > 0 required but it was " + parallelism);
+        }
+        this.name = name;
+        this.parallelism = parallelism;
+        AtomicLong counter = new AtomicLong();
+        // asyncMode: локальные очереди FIFO, как у событийных задач, а не LIFO, как у fork/join
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName(name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, true);
+        this.timer = new ScheduledThreadPoolExecutor(1, VirtualThreadScheduler.daemonThreadFactory(name + "-timer-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Ставит задачу в очередь текущего потока, если это поток пула, иначе в общую очередь пула
+     */
+    void submit(Runnable task) {
+        ForkJoinTask<?> t = ForkJoinTask.adapt(task);
+        Thread current = Thread.currentThread();
+        if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == pool) {
+            if (disposed) {
+                throw Exceptions.failWithRejected();
+            }
+            t.fork();
+        } else {
+            pool.execute(t);
+        }
+    }
+
+    void checkDisposed() {
+        if (disposed) {
+            throw Exceptions.failWithRejected();
+        }
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        checkDisposed();
+        StealingTask t = new StealingTask(task, false);
+        submit(t);
+        return t;
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+        checkDisposed();
+        StealingTask t = new StealingTask(task, false);
+        t.setFuture(timer.schedule(() -> submitFromTimer(t), delay, unit));
+        return t;
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        checkDisposed();
+        StealingTask t = new StealingTask(task, true);
+        // тик таймера только ставит задачу, а если прошлый запуск ещё идёт, запуск пропускается в самой задаче
+        t.setFuture(timer.scheduleAtFixedRate(() -> {
+            if (t.state == StealingTask.READY) {
+                submitFromTimer(t);
+            }
+        }, initialDelay, period, unit));
+        return t;
+    }
+
+    void submitFromTimer(StealingTask t) {
+        try {
+            submit(t);
+        } catch (RejectedExecutionException ex) {
+            t.dispose();
+        }
+    }
+
+    @Override
+    public Worker createWorker() {
+        checkDisposed();
+        return new StealingWorker(this);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    @Override
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        timer.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    @Override
+    @Nullable
+    public Object scanUnsafe(Attr key) {
+        if (key == Attr.NAME) return toString();
+        if (key == Attr.CAPACITY) return parallelism;
+        if (key == Attr.BUFFERED) return (int) Math.min(Integer.MAX_VALUE, pool.getQueuedTaskCount());
+        if (key == Attr.TERMINATED || key == Attr.CANCELLED) return disposed;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "workStealing(\"" + name + "\", " + parallelism + ")";
+    }
+
+    static void handleError(Throwable ex) {
+        Schedulers.handleError(ex);
+    }
+
+    /**
+     * Задача scheduler: периодическая возвращается в READY после каждого запуска
+     */
+    static final class StealingTask implements Runnable, Disposable {
+
+        static final int READY = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+
+        final Runnable task;
+        final boolean periodic;
+
+        volatile int state;
+        static final AtomicIntegerFieldUpdater<StealingTask> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(StealingTask.class, "state");
+
+        @Nullable
+        volatile Future<?> future;
+
+        StealingTask(Runnable task, boolean periodic) {
+            this.task = task;
+            this.periodic = periodic;
+        }
+
+        void setFuture(Future<?> f) {
+            future = f;
+            if (isDisposed()) {
+                f.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!STATE.compareAndSet(this, READY, RUNNING)) {
+                return;
+            }
+            boolean failed = false;
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                failed = true;
+                handleError(ex);
+            }
+            if (periodic && !failed) {
+                STATE.compareAndSet(this, RUNNING, READY);
+            } else {
+                dispose();
+            }
+        }
+
+        @Override
+        public void dispose() {
+            if (STATE.getAndSet(this, DONE) == DONE) {
+                return;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state == DONE;
+        }
+    }
+
+    /**
+     * Воркер: задачи выполняются по одной в порядке постановки. Очередь вычитывает одна задача пула,
+     * которая ставится, когда в пустую очередь приходит задача, в очередь того потока, который её поставил
+     */
+    static final class StealingWorker implements Worker, Runnable, Scannable {
+
+        final WorkStealingScheduler parent;
+        final Queue<WorkerTask> queue = Queues.<WorkerTask>unboundedMultiproducer().get();
+        /**
+         * Только отложенные и периодические задачи: их надо снимать с таймера при dispose,
+         * остальные выбрасывает дренаж
+         */
+        final Set<WorkerTask> tasks = ConcurrentHashMap.newKeySet();
+
+        volatile boolean disposed;
+
+        volatile int wip;
+        static final AtomicIntegerFieldUpdater<StealingWorker> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(StealingWorker.class, "wip");
+
+        StealingWorker(WorkStealingScheduler parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task) {
+            if (disposed) {
+                throw Exceptions.failWithRejected();
+            }
+            WorkerTask t = new WorkerTask(task, this, false);
+            enqueue(t);
+            return t;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+            WorkerTask t = new WorkerTask(task, this, false);
+            track(t);
+            try {
+                t.setFuture(parent.timer.schedule(() -> enqueueFromTimer(t), delay, unit));
+            } catch (RejectedExecutionException ex) {
+                t.dispose();
+                throw ex;
+            }
+            return t;
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            WorkerTask t = new WorkerTask(task, this, true);
+            track(t);
+            try {
+                t.setFuture(parent.timer.scheduleAtFixedRate(() -> enqueueFromTimer(t), initialDelay, period, unit));
+            } catch (RejectedExecutionException ex) {
+                t.dispose();
+                throw ex;
+            }
+            return t;
+        }
+
+        void track(WorkerTask t) {
+            if (disposed) {
+                throw Exceptions.failWithRejected();
+            }
+            tasks.add(t);
+            if (disposed) {
+                t.dispose();
+                throw Exceptions.failWithRejected();
+            }
+        }
+
+        void enqueueFromTimer(WorkerTask t) {
+            try {
+                enqueue(t);
+            } catch (RejectedExecutionException ex) {
+                t.dispose();
+            }
+        }
+
+        /**
+         * Ставит задачу в очередь, если она ещё не стоит в ней и не отменена
+         */
+        void enqueue(WorkerTask t) {
+            if (!WorkerTask.STATE.compareAndSet(t, WorkerTask.READY, WorkerTask.QUEUED)) {
+                return;
+            }
+            queue.offer(t);
+            if (WIP.getAndIncrement(this) == 0) {
+                try {
+                    parent.submit(this);
+                } catch (RejectedExecutionException ex) {
+                    dispose();
+                    throw ex;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            int budget = DRAIN_BUDGET;
+            for (; ; ) {
+                WorkerTask t;
+                while ((t = queue.poll()) != null) {
+                    if (disposed) {
+                        queue.clear();
+                        return;
+                    }
+                    t.runQueued();
+                    if (--budget == 0) {
+                        // wip не сбрасывается, дренаж продолжит та же задача из конца очереди потока или вор
+                        try {
+                            parent.submit(this);
+                        } catch (RejectedExecutionException ex) {
+                            disposed = true;
+                            queue.clear();
+                        }
+                        return;
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+
+        @Override
+        public void dispose() {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            for (WorkerTask t : tasks) {
+                t.dispose();
+            }
+            tasks.clear();
+            // очередь чистит её единственный читатель: дренаж, если он идёт, иначе тот, кто занял wip здесь
+            if (WIP.getAndIncrement(this) == 0) {
+                queue.clear();
+            }
+        }
+
+        @Override
+        @Nullable
+        public Object scanUnsafe(Attr key) {
+            if (key == Attr.PARENT) return parent;
+            if (key == Attr.NAME) return parent + ".worker";
+            if (key == Attr.BUFFERED) return queue.size();
+            if (key == Attr.TERMINATED || key == Attr.CANCELLED) return disposed;
+            return null;
+        }
+    }
+
+    /**
+     * Задача воркера. READY - ждёт таймера или постановки, QUEUED - стоит в очереди воркера,
+     * RUNNING - выполняется, DONE - выполнена или отменена
+     */
+    static final class WorkerTask implements Disposable {
+
+        static final int READY = 0;
+        static final int QUEUED = 1;
+        static final int RUNNING = 2;
+        static final int DONE = 3;
+
+        final Runnable task;
+        final StealingWorker worker;
+        final boolean periodic;
+
+        volatile int state;
+        static final AtomicIntegerFieldUpdater<WorkerTask> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(WorkerTask.class, "state");
+
+        @Nullable
+        volatile Future<?> future;
+
+        WorkerTask(Runnable task, StealingWorker worker, boolean periodic) {
+            this.task = task;
+            this.worker = worker;
+            this.periodic = periodic;
+        }
+
+        void setFuture(Future<?> f) {
+            future = f;
+            if (isDisposed()) {
+                f.cancel(false);
+            }
+        }
+
+        void runQueued() {
+            if (!STATE.compareAndSet(this, QUEUED, RUNNING)) {
+                return;
+            }
+            boolean failed = false;
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                failed = true;
+                handleError(ex);
+            }
+            if (periodic && !failed) {
+                STATE.compareAndSet(this, RUNNING, READY);
+            } else {
+                dispose();
+            }
+        }
+
+        @Override
+        public void dispose() {
+            if (STATE.getAndSet(this, DONE) == DONE) {
+                return;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+            worker.tasks.remove(this);
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state == DONE;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.SignalType;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.logging.Level;
+
+/**
+ * {@link GroupByTest#groupByWithConcatMapFineWithBigPrefetch()} и {@link GroupByTest#groupByWithConcatMapTimeoutWithSmallPrefetch()}
+ * показывают, что работоспособность зависит от угаданного prefetch.
+ * С {@link GroupBySpec#adaptivePrefetch(int, int)} окно начинается с маленького и растёт само,
+ * пока элементы групп без подписчика его не перестанут забивать.
+ */
+public class GroupByAdaptivePrefetchTest {
+
+    /**
+     * Зеркало {@link GroupByTest#groupByWithConcatMapTimeoutWithSmallPrefetch()}.
+     * Вторая и третья группы держат окно, пока concatMap читает первую, окно вырастает с 3 до 12,
+     * источник дочитывается и результат совпадает с вариантом с большим prefetch
+     */
+    @Test
+    void groupByWithConcatMapCompletesWithSmallAdaptivePrefetch() {
+        int elementsCount = 10;
+        int groupsAmount = 3;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .log("range", Level.INFO, SignalType.REQUEST, SignalType.ON_NEXT)
+                                .transform(ExxFlux.groupBy(
+                                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                                        GroupBySpec.create().adaptivePrefetch(3, 16)
+                                ))
+                                .concatMap((GroupedFlux<String, Integer> g) ->
+                                        g.defaultIfEmpty(-1)
+                                                .map(String::valueOf)
+                                                .startWith(g.key()))
+                )
+                .expectNext("modulo is 0:", "0", "3", "6", "9")
+                .expectNext("modulo is 1:", "1", "4", "7")
+                .expectNext("modulo is 2:", "2", "5", "8")
+                .verifyComplete();
+    }
+
+    /**
+     * Окно не растёт больше maxPrefetch: на большом источнике concatMap снова зависает,
+     * а детектор видит, что всё окно максимального размера держат группы без подписчика
+     */
+    @Test
+    void groupByWithConcatMapStarvesWhenMaxPrefetchIsExhausted() {
+        int groupsAmount = 3;
+        int maxPrefetch = 8;
+        StepVerifier.create(
+                        Flux.range(0, 1000)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % groupsAmount,
+                                        GroupBySpec.create()
+                                                .adaptivePrefetch(2, maxPrefetch)
+                                                .failOnStarvation(Duration.ofMillis(50))
+                                ))
+                                .concatMap(g -> g)
+                )
+                .thenConsumeWhile(i -> i % groupsAmount == 0)
+                .expectErrorSatisfies(e -> {
+                    GroupByStarvation starvation = ((GroupByStarvationException) e).starvation();
+                    Assertions.assertEquals(maxPrefetch, starvation.prefetch());
+                    Assertions.assertEquals(maxPrefetch, starvation.bufferedInUnsubscribed());
+                })
+                .verify(Duration.ofSeconds(1));
+    }
+
+    /**
+     * Режим окна и парковка не зависят от порядка настроек
+     */
+    @Test
+    void adaptivePrefetchDisablesSpillingRegardlessOfCallOrder() {
+        GroupBySpec adaptiveThenSpilled = GroupBySpec.create().adaptivePrefetch(2, 8).maxSpilled(100);
+        GroupBySpec spilledThenAdaptive = GroupBySpec.create().maxSpilled(100).adaptivePrefetch(2, 8);
+        Assertions.assertTrue(adaptiveThenSpilled.adaptive());
+        Assertions.assertEquals(0, adaptiveThenSpilled.spillLimit());
+        Assertions.assertTrue(spilledThenAdaptive.adaptive());
+        Assertions.assertEquals(0, spilledThenAdaptive.spillLimit());
+
+        GroupBySpec fixedAgain = spilledThenAdaptive.prefetch(4);
+        Assertions.assertFalse(fixedAgain.adaptive());
+        Assertions.assertEquals(100, fixedAgain.spillLimit());
+    }
+}
@@ -0,0 +1,67 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+/**
+ * Вместо GroupedFlux и onNext на каждый элемент, как в {@link GroupByTest},
+ * {@link ExxFlux#groupByBatched} отдаёт элементы ключа пачками
+ */
+public class GroupByBatchedTest {
+
+    /**
+     * Полная пачка уходит сразу, неполные при завершении источника
+     */
+    @Test
+    void groupByBatchedFlushesFullBatchesAndRestOnComplete() {
+        StepVerifier.create(
+                        Flux.range(0, 10)
+                                .transform(ExxFlux.groupByBatched(i -> i % 2, 2, Duration.ofMinutes(1)))
+                                .map(String::valueOf)
+                )
+                .expectNext("0: [0, 2]", "1: [1, 3]")
+                .expectNext("0: [4, 6]", "1: [5, 7]")
+                .expectNext("0: [8]", "1: [9]")
+                .verifyComplete();
+    }
+
+    /**
+     * Источник замолчал, неполные пачки уходят по таймеру
+     */
+    @Test
+    void groupByBatchedFlushesPartialBatchesOnTimer() {
+        StepVerifier.withVirtualTime(() ->
+                        Flux.just(0, 1, 2)
+                                .concatWith(Flux.never())
+                                .transform(ExxFlux.groupByBatched(i -> i % 2, 10, Duration.ofSeconds(1)))
+                                .map(String::valueOf)
+                )
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(999))
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext("0: [0, 2]", "1: [1]")
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Окно запроса из 4 элементов целиком легло в неполные пачки 4 ключей: пачки уходят, не дожидаясь таймера,
+     * и источник дочитывается дальше
+     */
+    @Test
+    void groupByBatchedFlushesWhenPrefetchIsHeldByPartialBatches() {
+        StepVerifier.create(
+                        Flux.range(0, 8)
+                                .concatWith(Flux.never())
+                                .transform(ExxFlux.groupByBatched(i -> i % 4, 10, Duration.ofHours(1), 4, null))
+                                .map(String::valueOf)
+                )
+                .expectNext("0: [0]", "1: [1]", "2: [2]", "3: [3]")
+                .expectNext("0: [4]", "1: [5]", "2: [6]", "3: [7]")
+                .thenCancel()
+                .verify();
+    }
+}
@@ -0,0 +1,140 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Маленький prefetch зависает, большой растит кучу (см. {@link GroupByTest}), а буфер парковки
+ * в памяти при переполнении завершается ошибкой (см. {@link GroupBySpillTest}).
+ * С {@link GroupBySpec#spillToDisk(Path, GroupBySpillSerializer)} излишек уходит в файлы и возвращается по порядку.
+ */
+public class GroupByDiskSpillTest {
+
+    static final GroupBySpillSerializer<Integer> INTS = new GroupBySpillSerializer<>() {
+        @Override
+        public byte[] serialize(Integer value) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+        }
+
+        @Override
+        public Integer deserialize(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    };
+
+    @TempDir
+    Path spillDirectory;
+
+    /**
+     * Третья группа ждёт, пока flatMap закончит с первыми двумя, почти все её элементы
+     * не влезают в буфер парковки на 4 элемента и лежат в страницах файла по 64 байта.
+     * После завершения элементы третьей группы приходят в исходном порядке, а файлы удалены
+     */
+    @Test
+    void groupByWithFlatMapSpillsStalledGroupToDiskAndReplaysItInOrder() throws IOException {
+        int elementsCount = 3_000;
+        int groupsAmount = 3;
+        int flatMapConcurrency = 2;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % groupsAmount,
+                                        GroupBySpec.create()
+                                                .prefetch(3)
+                                                .maxSpilled(4)
+                                                .spillToDisk(spillDirectory, INTS, 64)
+                                ))
+                                .flatMap(g -> g.collectList(), flatMapConcurrency)
+                                .collectSortedList(Comparator.comparing(group -> group.get(0)))
+                )
+                .assertNext(groups -> {
+                    Assertions.assertEquals(groupsAmount, groups.size());
+                    for (int key = 0; key < groupsAmount; key++) {
+                        List<Integer> group = groups.get(key);
+                        Assertions.assertEquals(elementsCount / groupsAmount, group.size());
+                        for (int i = 0; i < group.size(); i++) {
+                            Assertions.assertEquals(key + groupsAmount * i, group.get(i));
+                        }
+                    }
+                })
+                .verifyComplete();
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            Assertions.assertEquals(List.of(), files.toList());
+        }
+    }
+
+    /**
+     * Пока concatMap читает группу 0, элементы 1..499 группы 1 уходят на диск.
+     * После подписки подписчик группы 1 успевает прочитать только часть диска, поэтому элементы 501.. тоже
+     * пишутся на диск, за её хвост, а не в память, и порядок внутри группы не ломается.
+     * Они занимают окно prefetch, так что источник останавливается, пока их не прочитают
+     */
+    @Test
+    void groupByKeepsWritingToDiskUntilBacklogIsReplayed() {
+        StepVerifier.create(
+                        Flux.range(0, 1_000)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i == 0 || i == 500 ? 0 : 1,
+                                        GroupBySpec.create()
+                                                .prefetch(2)
+                                                .maxSpilled(1)
+                                                .spillToDisk(spillDirectory, INTS, 16)
+                                ))
+                                .concatMap(g -> g.key() == 0 ? g.take(2) : g),
+                        100)
+                .expectNext(0, 500)
+                .expectNextSequence(IntStream.range(1, 99).boxed().toList())
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextSequence(IntStream.range(99, 1_000).filter(i -> i != 500).boxed().toList())
+                .verifyComplete();
+    }
+
+    /**
+     * Пока concatMap читает группу 0, остальные 49 групп паркуются на диск, но все в один файл,
+     * а не в файл на группу
+     */
+    @Test
+    void groupBySharesOneSpillFileAcrossGroups() throws IOException {
+        int groupsAmount = 50;
+        AtomicInteger maxFiles = new AtomicInteger();
+        StepVerifier.create(
+                        Flux.range(0, 5_000)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % groupsAmount,
+                                        GroupBySpec.create()
+                                                .prefetch(2)
+                                                .maxSpilled(1)
+                                                .spillToDisk(spillDirectory, INTS, 32)
+                                ))
+                                .concatMap(g -> g.count())
+                                .doOnNext(count -> {
+                                    try (Stream<Path> files = Files.list(spillDirectory)) {
+                                        maxFiles.accumulateAndGet((int) files.count(), Math::max);
+                                    } catch (IOException ex) {
+                                        throw new UncheckedIOException(ex);
+                                    }
+                                })
+                                .reduce(0L, Long::sum)
+                )
+                .expectNext(5_000L)
+                .verifyComplete();
+        Assertions.assertEquals(1, maxFiles.get());
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            Assertions.assertEquals(List.of(), files.toList());
+        }
+    }
+}
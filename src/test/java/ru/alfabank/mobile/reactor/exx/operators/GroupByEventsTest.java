@@ -0,0 +1,99 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * События групп {@link GroupBySpec#events(GroupByEvents)}. События отдаются на {@link Schedulers#immediate()},
+ * поэтому приходят в потоке оператора и порядок в тестах детерминирован
+ */
+public class GroupByEventsTest {
+
+    @Test
+    void eventsFollowGroupLifecycle() {
+        GroupByEvents events = GroupByEvents.create(64, Schedulers.immediate());
+        List<String> seen = new ArrayList<>();
+        events.flux().subscribe(e -> seen.add(e.type() + " " + e.key()));
+
+        StepVerifier.create(
+                        Flux.range(0, 4)
+                                .transform(ExxFlux.groupBy(i -> i % 2, GroupBySpec.create().events(events)))
+                                .flatMap(g -> g)
+                )
+                .expectNext(0, 1, 2, 3)
+                .verifyComplete();
+
+        Assertions.assertEquals(List.of("CREATED 0", "SUBSCRIBED 0", "CREATED 1", "SUBSCRIBED 1"), seen.subList(0, 4));
+        Assertions.assertEquals(List.of("COMPLETED 0", "COMPLETED 1"), seen.subList(4, 6).stream().sorted().toList());
+        Assertions.assertEquals(6, seen.size());
+    }
+
+    @Test
+    void eventsTellEvictionFromCompletion() {
+        GroupByEvents events = GroupByEvents.create(64, Schedulers.immediate());
+        List<String> seen = new ArrayList<>();
+        events.flux().subscribe(e -> seen.add(e.type() + " " + e.key()));
+
+        StepVerifier.create(
+                        Flux.just(1, 2)
+                                .transform(ExxFlux.groupBy(i -> i, GroupBySpec.create().maxGroups(1).events(events)))
+                                .flatMap(g -> g)
+                )
+                .expectNext(1, 2)
+                .verifyComplete();
+
+        Assertions.assertEquals(List.of("CREATED 1", "SUBSCRIBED 1", "EVICTED 1",
+                "CREATED 2", "SUBSCRIBED 2", "COMPLETED 2"), seen);
+    }
+
+    /**
+     * Группа без подписчика копит все 100 элементов: события роста очереди приходят на 32 и 64,
+     * а когда на группу подписываются и вычитывают её, приходит DRAINED
+     */
+    @Test
+    void eventsReportBufferHighWaterAndDrain() {
+        GroupByEvents events = GroupByEvents.create(64, Schedulers.immediate());
+        List<String> seen = new ArrayList<>();
+        events.flux().subscribe(e -> seen.add(e.type() + " " + e.buffered()));
+
+        StepVerifier.create(
+                        Flux.range(0, 100)
+                                .transform(ExxFlux.groupBy(i -> 0, GroupBySpec.create().events(events)))
+                                .collectList()
+                                .flatMapMany(groups -> groups.get(0))
+                )
+                .expectNextCount(100)
+                .verifyComplete();
+
+        Assertions.assertEquals(List.of("CREATED 0", "HIGH_WATER 32", "HIGH_WATER 64",
+                "COMPLETED 100", "SUBSCRIBED 100", "DRAINED 0"), seen);
+    }
+
+    /**
+     * Без подписчика буфер событий заполняется, и остальные события отбрасываются, не задерживая groupBy
+     */
+    @Test
+    void eventsAreDroppedWhenBufferIsFull() {
+        GroupByEvents events = GroupByEvents.create(4, Schedulers.immediate());
+
+        StepVerifier.create(
+                        Flux.range(0, 100)
+                                .transform(ExxFlux.groupBy(i -> i, GroupBySpec.create().events(events)))
+                                .flatMap(g -> g)
+                )
+                .expectNextCount(100)
+                .verifyComplete();
+
+        Assertions.assertEquals(296, events.dropped());
+        StepVerifier.create(events.flux())
+                .expectNextCount(4)
+                .thenCancel()
+                .verify();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+/**
+ * Реактивная дока советует groupBy только для небольшого количества групп.
+ * С {@link GroupBySpec#maxGroups(int)} количество живых групп ограничено,
+ * лишние группы завершаются по LRU, и flatMap с конкурентностью меньше количества ключей больше не встаёт.
+ */
+public class GroupByEvictionTest {
+
+    /**
+     * Сценарий из {@link GroupByTest#groupByWithFlatMapPassesInStrangeOrder()}, но живых групп не больше,
+     * чем конкурентность flatMap. Когда приходит ключ пятой группы, завершается группа,
+     * дольше всех не получавшая элементов, и flatMap сразу подписывается на новую.
+     * Повторно пришедший ключ 1 получает новую группу, поэтому "modulo is 1:" встречается дважды
+     */
+    @Test
+    void groupByWithFlatMapEvictsLeastRecentlyUsedGroup() {
+        int groupsAmount = 5;
+        int flatMapConcurrency = groupsAmount - 1;
+        StepVerifier.create(
+                        Flux.just(1, 3, 5, 2, 4, 6, 11, 12, 13)
+                                .transform(ExxFlux.groupBy(
+                                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                                        GroupBySpec.create().maxGroups(flatMapConcurrency)
+                                ))
+                                .flatMap((GroupedFlux<String, Integer> g) ->
+                                                g.defaultIfEmpty(-1)
+                                                        .map(String::valueOf)
+                                                        .startWith(g.key()),
+                                        flatMapConcurrency)
+                )
+                .expectNext("modulo is 1:", "1")
+                .expectNext("modulo is 3:", "3")
+                .expectNext("modulo is 0:", "5")
+                .expectNext("modulo is 2:", "2")
+                .expectNext("modulo is 4:", "4")
+                .expectNext("modulo is 1:", "6", "11")
+                .expectNext("12")
+                .expectNext("modulo is 3:", "13")
+                .verifyComplete();
+    }
+
+    /**
+     * Бесконечный источник и ключей больше, чем конкурентность flatMap.
+     * Без ограничения групп пятая группа никогда не получила бы подписчика, а её элементы
+     * копились бы до переполнения буфера парковки
+     */
+    @Test
+    void groupByWithFlatMapKeepsGoingOnInfiniteSourceWhenConcurrencyIsLowerThanKeyCount() {
+        int groupsAmount = 5;
+        int flatMapConcurrency = 2;
+        int elementsToTake = 10_000;
+        StepVerifier.create(
+                        Flux.<Integer, Integer>generate(() -> 0, (i, sink) -> {
+                                    sink.next(i);
+                                    return i + 1;
+                                })
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % groupsAmount,
+                                        GroupBySpec.create().prefetch(4).maxSpilled(16).maxGroups(flatMapConcurrency)
+                                ))
+                                .flatMap(g -> g.map(String::valueOf), flatMapConcurrency)
+                                .take(elementsToTake)
+                )
+                .expectNextCount(elementsToTake)
+                .verifyComplete();
+    }
+
+    /**
+     * Группы, простоявшие дольше maxIdle, завершаются, как только появляется новая группа.
+     * Источник после этого не завершается, но группы 1 и 2 уже отдали свои результаты
+     */
+    @Test
+    void groupByCompletesIdleGroupsWhenNewGroupArrives() {
+        StepVerifier.withVirtualTime(() ->
+                        Flux.just(1, 2)
+                                .concatWith(Mono.delay(Duration.ofSeconds(10)).thenReturn(3))
+                                .concatWith(Flux.never())
+                                .transform(ExxFlux.groupBy(
+                                        i -> i,
+                                        GroupBySpec.create().maxIdle(Duration.ofSeconds(5))
+                                ))
+                                .flatMap(g -> g.collectList().map(list -> g.key() + ":" + list))
+                )
+                .expectSubscription()
+                .expectNoEvent(Duration.ofSeconds(10))
+                .expectNext("1:[1]", "2:[2]")
+                .thenCancel()
+                .verify();
+    }
+}
@@ -0,0 +1,116 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Случайные сценарии groupBy + flatMap из {@link GroupByTest} на {@link HangHarness}: каждый прогон занимает
+ * доли миллисекунды, поэтому можно перебрать тысячи сочетаний (elements, groups, prefetch, concurrency)
+ * и найти границу зависания. При падении в сообщении есть seed и сам сценарий.
+ */
+public class GroupByHangBoundaryTest {
+
+    static final Logger log = Loggers.getLogger(GroupByHangBoundaryTest.class);
+
+    static final long SEED = 20211115L;
+    static final int RUNS = 2_000;
+
+    /**
+     * Flux.range(0, elements) по ключу i % groups, группы вычитывает flatMap с конкурентностью concurrency
+     */
+    record Scenario(int elements, int groups, int prefetch, int concurrency) {
+
+        static Scenario random(SplittableRandom random) {
+            return new Scenario(
+                    random.nextInt(1, 200),
+                    random.nextInt(1, 10),
+                    random.nextInt(1, 32),
+                    random.nextInt(1, 10));
+        }
+
+        HangHarness.Outcome<Integer> runReactor() {
+            return HangHarness.run(() -> Flux.range(0, elements)
+                    .groupBy(i -> i % groups, prefetch)
+                    .flatMap(g -> g, concurrency));
+        }
+
+        HangHarness.Outcome<Integer> runExx() {
+            return HangHarness.run(() -> Flux.range(0, elements)
+                    .transform(ExxFlux.groupBy(i -> i % groups, GroupBySpec.create().prefetch(prefetch)))
+                    .flatMap(g -> g, concurrency));
+        }
+    }
+
+    /**
+     * Если flatMap подписан на все группы или prefetch вмещает весь источник, стандартный groupBy не зависает.
+     * Завершившийся прогон отдаёт каждый элемент ровно один раз
+     */
+    @Test
+    void reactorGroupByCompletesWhenEveryGroupIsSubscribedOrPrefetchHoldsSource() {
+        forAll(s -> s.concurrency() >= s.groups() || s.prefetch() >= s.elements(), s -> {
+            HangHarness.Outcome<Integer> outcome = s.runReactor();
+            return outcome.state() == HangHarness.State.COMPLETED && isPermutation(outcome.values(), s.elements());
+        });
+    }
+
+    /**
+     * Парковка вмещает весь источник, поэтому groupBy из библиотеки не зависает ни на одном сценарии
+     */
+    @Test
+    void exxGroupByNeverHangs() {
+        forAll(s -> true, s -> {
+            HangHarness.Outcome<Integer> outcome = s.runExx();
+            return outcome.state() == HangHarness.State.COMPLETED && isPermutation(outcome.values(), s.elements());
+        });
+    }
+
+    /**
+     * Граница из {@link GroupByTest}: при 3 группах, prefetch 3 и конкурентности 2 первым зависает источник
+     * из 10 элементов. Для остальных prefetch граница выводится в лог
+     */
+    @Test
+    void hangBoundaryForThreeGroupsAndConcurrencyTwo() {
+        int groups = 3;
+        int concurrency = 2;
+        for (int prefetch = 1; prefetch <= 8; prefetch++) {
+            int p = prefetch;
+            int boundary = IntStream.rangeClosed(1, 200)
+                    .filter(n -> new Scenario(n, groups, p, concurrency).runReactor().state() == HangHarness.State.HUNG)
+                    .findFirst()
+                    .orElse(-1);
+            log.info("groups {}, concurrency {}, prefetch {}: hangs from {} elements", groups, concurrency, p, boundary);
+            if (prefetch == 3) {
+                Assertions.assertEquals(10, boundary);
+            }
+        }
+    }
+
+    static void forAll(Predicate<Scenario> precondition, Predicate<Scenario> property) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int checked = 0;
+        for (int run = 0; run < RUNS; run++) {
+            Scenario s = Scenario.random(random);
+            if (!precondition.test(s)) {
+                continue;
+            }
+            checked++;
+            if (!property.test(s)) {
+                Assertions.fail("seed " + SEED + ", run " + run + ": " + s);
+            }
+        }
+        Assertions.assertTrue(checked > 0, "no scenario matched the precondition");
+    }
+
+    static boolean isPermutation(List<Integer> values, int elements) {
+        return values.size() == elements && values.stream().sorted().toList().equals(
+                IntStream.range(0, elements).boxed().toList());
+    }
+}
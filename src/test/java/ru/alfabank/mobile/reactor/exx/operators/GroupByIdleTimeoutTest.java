@@ -0,0 +1,86 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * В отличие от {@link GroupBySpec#maxIdle}, который проверяется только при создании новой группы
+ * (см. {@link GroupByEvictionTest#groupByCompletesIdleGroupsWhenNewGroupArrives()}),
+ * {@link GroupBySpec#idleTimeout} завершает простаивающие группы по таймеру, даже если источник молчит
+ */
+public class GroupByIdleTimeoutTest {
+
+    @Test
+    void groupByCompletesIdleGroupsWhileSourceIsSilent() {
+        StepVerifier.withVirtualTime(() ->
+                        Flux.just(1, 2)
+                                .concatWith(Flux.never())
+                                .transform(ExxFlux.groupBy(
+                                        i -> i,
+                                        GroupBySpec.create().idleTimeout(Duration.ofSeconds(5))
+                                ))
+                                .flatMap(g -> g.collectList().map(list -> g.key() + ":" + list), 1)
+                )
+                .expectSubscription()
+                .expectNoEvent(Duration.ofSeconds(4))
+                .thenAwait(Duration.ofSeconds(2))
+                .recordWith(ArrayList::new)
+                .expectNextCount(2)
+                .consumeRecordedWith(groups -> Assertions.assertEquals(Set.of("1:[1]", "2:[2]"), Set.copyOf(groups)))
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Группа 1 получает элемент каждую секунду и не завершается, группа 2 простаивает и завершается
+     */
+    @Test
+    void groupByKeepsActiveGroupsOpen() {
+        StepVerifier.withVirtualTime(() ->
+                        Flux.just(2L)
+                                .concatWith(Flux.interval(Duration.ofSeconds(1)).map(i -> 1L))
+                                .transform(ExxFlux.groupBy(
+                                        i -> i,
+                                        GroupBySpec.create().idleTimeout(Duration.ofSeconds(3))
+                                ))
+                                .flatMap(g -> g.count().map(count -> g.key() + ":" + count))
+                )
+                .expectSubscription()
+                .thenAwait(Duration.ofSeconds(10))
+                .expectNext("2:1")
+                .expectNoEvent(Duration.ofSeconds(10))
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Элемент ключа, чья группа уже завершилась по простою, открывает новую группу
+     */
+    @Test
+    void groupByReopensExpiredKey() {
+        StepVerifier.withVirtualTime(() ->
+                        Flux.just(1)
+                                .concatWith(Mono.delay(Duration.ofSeconds(10)).thenReturn(1))
+                                .concatWith(Flux.never())
+                                .transform(ExxFlux.groupBy(
+                                        i -> i,
+                                        GroupBySpec.create().idleTimeout(Duration.ofSeconds(5))
+                                ))
+                                .flatMap(g -> g.collectList().map(list -> g.key() + ":" + list), 1)
+                )
+                .expectSubscription()
+                .thenAwait(Duration.ofSeconds(6))
+                .expectNext("1:[1]")
+                .thenAwait(Duration.ofSeconds(10))
+                .expectNext("1:[1]")
+                .thenCancel()
+                .verify();
+    }
+}
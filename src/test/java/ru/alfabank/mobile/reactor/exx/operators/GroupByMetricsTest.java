@@ -0,0 +1,104 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Метрики {@link GroupBySpec#metrics(String, GroupByMetricsRegistry)}: счётчики, состояние групп
+ * и снятие с регистрации по завершении
+ */
+public class GroupByMetricsTest {
+
+    @Test
+    void metricsCountElementsAndGroupsAndUnregisterOnComplete() {
+        InMemoryGroupByMetricsRegistry registry = new InMemoryGroupByMetricsRegistry();
+        GroupByMetrics[] metrics = new GroupByMetrics[1];
+        StepVerifier.create(
+                        Flux.range(0, 10)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % 3,
+                                        GroupBySpec.create().metrics("range", registry)
+                                ))
+                                .doOnSubscribe(s -> metrics[0] = registry.get("range"))
+                                .flatMap(g -> g)
+                )
+                .expectNextCount(10)
+                .verifyComplete();
+
+        Assertions.assertNotNull(metrics[0]);
+        Assertions.assertEquals(10, metrics[0].received());
+        Assertions.assertEquals(10, metrics[0].emitted());
+        Assertions.assertEquals(3, metrics[0].groupsCreated());
+        Assertions.assertEquals(List.of(), registry.registered());
+    }
+
+    /**
+     * На группу 1 никто не подписывается: её элементы видны как буфер без подписчика,
+     * и возраст буфера растёт, пока их никто не забирает
+     */
+    @Test
+    void metricsShowBufferOfUnsubscribedGroup() {
+        InMemoryGroupByMetricsRegistry registry = new InMemoryGroupByMetricsRegistry();
+        Sinks.Many<Integer> source = Sinks.many().unicast().onBackpressureBuffer();
+        StepVerifier.create(
+                        source.asFlux()
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % 2,
+                                        GroupBySpec.create().metrics("sink", registry)
+                                ))
+                                .filter(g -> g.key() == 0)
+                                .concatMap((GroupedFlux<Integer, Integer> g) -> g)
+                )
+                .then(() -> {
+                    for (int i = 0; i < 5; i++) {
+                        source.tryEmitNext(i);
+                    }
+                })
+                .expectNext(0, 2, 4)
+                .then(() -> sleep(Duration.ofMillis(20)))
+                .then(() -> {
+                    GroupByMetrics metrics = registry.get("sink");
+                    Assertions.assertNotNull(metrics);
+                    Assertions.assertEquals(5, metrics.received());
+                    Assertions.assertEquals(3, metrics.emitted());
+                    Assertions.assertEquals(2, metrics.groupsCreated());
+                    Assertions.assertEquals(2, metrics.liveGroups());
+                    Assertions.assertEquals(2, metrics.buffered());
+                    Assertions.assertTrue(metrics.oldestBufferedAge().compareTo(Duration.ofMillis(20)) >= 0);
+
+                    List<GroupByMetrics.GroupStats> groups = metrics.groups().stream()
+                            .sorted(Comparator.comparing(g -> (Integer) g.key()))
+                            .toList();
+                    GroupByMetrics.GroupStats even = groups.get(0);
+                    Assertions.assertTrue(even.subscribed());
+                    Assertions.assertEquals(0, even.buffered());
+                    Assertions.assertEquals(Duration.ZERO, even.oldestBufferedAge());
+                    Assertions.assertEquals(3, even.emitted());
+                    GroupByMetrics.GroupStats odd = groups.get(1);
+                    Assertions.assertFalse(odd.subscribed());
+                    Assertions.assertEquals(2, odd.buffered());
+                    Assertions.assertEquals(2, odd.received());
+                    Assertions.assertEquals(0, odd.emitted());
+                })
+                .then(source::tryEmitComplete)
+                .verifyComplete();
+
+        Assertions.assertEquals(List.of(), registry.registered());
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * {@link ExxFlux#groupByLong(java.util.function.ToLongFunction, GroupBySpec)},
+ * {@link ExxFlux#groupByInt(java.util.function.ToIntFunction, GroupBySpec)} и
+ * {@link ExxFlux#groupBySlot(java.util.function.ToIntFunction, int, java.util.function.IntFunction, GroupBySpec)}
+ * должны группировать так же, как обычный groupBy, в том числе когда индекс растёт и когда группы из него удаляются.
+ */
+public class GroupByPrimitiveKeyTest {
+
+    /**
+     * Ключей заметно больше начальной ёмкости индекса, среди них отрицательные и отличающиеся только старшими битами
+     */
+    @Test
+    void groupByLongMatchesGroupBy() {
+        List<Long> accounts = LongStream.range(0, 10_000)
+                .map(i -> (i % 2 == 0 ? 1L : -1L) * ((i % 1000) << 40))
+                .boxed()
+                .toList();
+        Map<Long, List<Long>> expected = accounts.stream()
+                .collect(Collectors.groupingBy(id -> id));
+        StepVerifier.create(
+                        Flux.fromIterable(accounts)
+                                .transform(ExxFlux.groupByLong(id -> id, GroupBySpec.create()))
+                                .flatMap(g -> g.collectList().map(list -> Map.entry(g.key(), list)), 2000)
+                                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                )
+                .assertNext(actual -> Assertions.assertEquals(expected, actual))
+                .verifyComplete();
+    }
+
+    /**
+     * Сценарий из {@link GroupByEvictionTest#groupByWithFlatMapEvictsLeastRecentlyUsedGroup()} на ключах-int:
+     * вытесненная группа удаляется из индекса, и её ключ получает новую группу
+     */
+    @Test
+    void groupByIntRecreatesEvictedGroup() {
+        int groupsAmount = 5;
+        int flatMapConcurrency = groupsAmount - 1;
+        StepVerifier.create(
+                        Flux.just(1, 3, 5, 2, 4, 6, 11, 12, 13)
+                                .transform(ExxFlux.groupByInt(
+                                        i -> i % groupsAmount,
+                                        GroupBySpec.create().maxGroups(flatMapConcurrency)
+                                ))
+                                .flatMap(g -> g.map(i -> g.key() + ":" + i), flatMapConcurrency)
+                )
+                .expectNext("1:1", "3:3", "0:5", "2:2", "4:4", "1:6", "1:11", "2:12", "3:13")
+                .verifyComplete();
+    }
+
+    /**
+     * Группы постоянно вытесняются и создаются заново, удаление из открытой адресации
+     * не должно терять соседей по кластеру
+     */
+    @Test
+    void groupByLongSurvivesGroupChurn() {
+        int keys = 300;
+        int elements = 30_000;
+        StepVerifier.create(
+                        Flux.range(0, elements)
+                                .transform(ExxFlux.groupByLong(
+                                        i -> (long) (i * 7919 % keys) << 32,
+                                        GroupBySpec.create().maxGroups(64)
+                                ))
+                                .flatMap(g -> g.map(i -> ((long) (i * 7919 % keys) << 32) == g.key()), 64)
+                                .all(sameKey -> sameKey)
+                )
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    /**
+     * Ключи из {@link GroupByTest}, но строка ключа строится по слоту, а не по каждому элементу
+     */
+    @Test
+    void groupBySlotMatchesGroupByWithFormattedKeys() {
+        int groupsCount = 3;
+        Map<String, List<Integer>> expected = Flux.range(0, 100)
+                .groupBy(i -> "modulo is %s:".formatted(i % groupsCount))
+                .flatMap(g -> g.collectList().map(list -> Map.entry(g.key(), list)))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .block();
+        StepVerifier.create(
+                        Flux.range(0, 100)
+                                .transform(ExxFlux.groupBySlot(
+                                        i -> i % groupsCount, groupsCount,
+                                        slot -> "modulo is %s:".formatted(slot),
+                                        GroupBySpec.create()
+                                ))
+                                .flatMap(g -> g.collectList().map(list -> Map.entry(g.key(), list)))
+                                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                )
+                .assertNext(actual -> Assertions.assertEquals(expected, actual))
+                .verifyComplete();
+    }
+
+    /**
+     * Группы вытесняются и создаются заново, а ключ каждого слота строится один раз
+     */
+    @Test
+    void groupBySlotBuildsKeyOncePerSlot() {
+        int slots = 5;
+        AtomicInteger keysBuilt = new AtomicInteger();
+        StepVerifier.create(
+                        Flux.range(0, 1000)
+                                .transform(ExxFlux.groupBySlot(
+                                        i -> i % slots, slots,
+                                        slot -> {
+                                            keysBuilt.incrementAndGet();
+                                            return "slot " + slot;
+                                        },
+                                        GroupBySpec.create().maxGroups(2)
+                                ))
+                                .flatMap(g -> g, 2)
+                )
+                .expectNextCount(1000)
+                .verifyComplete();
+        Assertions.assertEquals(slots, keysBuilt.get());
+    }
+
+    @Test
+    void groupBySlotRejectsSlotOutOfRange() {
+        StepVerifier.create(
+                        Flux.just(0, 1, 2)
+                                .transform(ExxFlux.groupBySlot(i -> i, 2, String::valueOf, GroupBySpec.create()))
+                                .flatMap(g -> g)
+                )
+                .expectNext(0, 1)
+                .verifyError(IndexOutOfBoundsException.class);
+    }
+}
@@ -0,0 +1,133 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.SignalType;
+import reactor.test.StepVerifier;
+
+import java.util.logging.Level;
+
+/**
+ * Те же сценарии, что зависают в {@link GroupByTest}, но на {@link ExxFlux#groupBy(java.util.function.Function, GroupBySpec)}.
+ * Элементы групп, на которые flatMap/concatMap ещё не подписался, паркуются и дозапрашиваются у источника,
+ * поэтому источник дочитывается до конца, первые группы завершаются и очередь доходит до остальных.
+ */
+public class GroupBySpillTest {
+
+    /**
+     * Зеркало {@link GroupByTest#groupByWithFlatMapTimeoutBecauseOfSmallPrefetch10ElementsOfRange()}.
+     * Элементы "2", "5", "8" третьей группы лежат в буфере парковки и не занимают prefetch,
+     * поэтому range отдаёт и элемент "9", а flatMap после завершения первых двух групп подписывается на третью
+     */
+    @Test
+    void groupByWithFlatMapCompletesWithSmallPrefetch10ElementsOfRange() {
+        int elementsCount = 10;
+        int groupsAmount = 3;
+        int flatMapConcurrency = 2;
+        int groupByPrefetch = 3;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .log("range", Level.INFO, SignalType.REQUEST, SignalType.ON_NEXT)
+                                .transform(ExxFlux.groupBy(
+                                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                                        GroupBySpec.create().prefetch(groupByPrefetch)
+                                ))
+                                .flatMap((GroupedFlux<String, Integer> g) ->
+                                                g.log("groupedFlux " + g.key(), Level.INFO, SignalType.REQUEST, SignalType.ON_NEXT)
+                                                        .map(String::valueOf)
+                                                        .startWith(g.key()),
+                                        flatMapConcurrency)
+                                .log("flatMapped", Level.INFO, SignalType.ON_NEXT, SignalType.CANCEL)
+                )
+                .expectNext("modulo is 0:", "0")
+                .expectNext("modulo is 1:", "1")
+                .expectNext("3", "4", "6", "7", "9")
+                .expectNext("modulo is 2:", "2", "5", "8")
+                .verifyComplete();
+    }
+
+    /**
+     * Зеркало {@link GroupByTest#groupByWithFlatMapTimeoutBecauseOfSmallPrefetchOnSpecificElements4Groups()}.
+     * Элемент 32, который стандартный groupBy так и не запросил, тоже доходит до подписчика
+     */
+    @Test
+    void groupByWithFlatMapCompletesWithSmallPrefetchOnSpecificElements4Groups() {
+        int groupsAmount = 4;
+        int flatMapConcurrency = 2;
+        int groupByPrefetch = 3;
+        StepVerifier.create(
+                        Flux.just(
+                                        0, 4, 8, // 0 group
+                                        1, // 1 group
+                                        12, 16, 20, 24, 28, // 0 group
+                                        2, 6, // 2 group, spilled until flatMap is free
+                                        7, // 3 group, spilled until flatMap is free
+                                        32 // 0 group
+                                )
+                                .transform(ExxFlux.groupBy(
+                                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                                        GroupBySpec.create().prefetch(groupByPrefetch)
+                                ))
+                                .flatMap((GroupedFlux<String, Integer> g) ->
+                                                g.map(String::valueOf)
+                                                        .startWith(g.key()),
+                                        flatMapConcurrency)
+                )
+                .expectNext("modulo is 0:", "0", "4", "8")
+                .expectNext("modulo is 1:", "1")
+                .expectNext("12", "16", "20", "24", "28", "32")
+                .expectNext("modulo is 2:", "2", "6")
+                .expectNext("modulo is 3:", "7")
+                .verifyComplete();
+    }
+
+    /**
+     * Зеркало {@link GroupByTest#groupByWithConcatMapTimeoutWithSmallPrefetch()}.
+     * Результат совпадает с {@link GroupByTest#groupByWithConcatMapFineWithBigPrefetch()},
+     * хотя prefetch остался маленьким
+     */
+    @Test
+    void groupByWithConcatMapCompletesWithSmallPrefetch() {
+        int elementsCount = 10;
+        int groupsAmount = 3;
+        int groupByPrefetch = 3;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .transform(ExxFlux.groupBy(
+                                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                                        GroupBySpec.create().prefetch(groupByPrefetch)
+                                ))
+                                .concatMap((GroupedFlux<String, Integer> g) ->
+                                        g.defaultIfEmpty(-1)
+                                                .map(String::valueOf)
+                                                .startWith(g.key()))
+                )
+                .expectNext("modulo is 0:", "0", "3", "6", "9")
+                .expectNext("modulo is 1:", "1", "4", "7")
+                .expectNext("modulo is 2:", "2", "5", "8")
+                .verifyComplete();
+    }
+
+    /**
+     * Буфер парковки ограничен: когда в группах без подписчика скопилось больше maxSpilled элементов,
+     * последовательность падает с переполнением, а не зависает молча
+     */
+    @Test
+    void groupByWithConcatMapFailsWhenSpillBufferIsExhausted() {
+        int elementsCount = 100;
+        int groupsAmount = 3;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % groupsAmount,
+                                        GroupBySpec.create().prefetch(3).maxSpilled(10)
+                                ))
+                                .concatMap(g -> g.map(String::valueOf))
+                )
+                .expectNext("0", "3")
+                .thenConsumeWhile(s -> true)
+                .verifyErrorMatches(Exceptions::isOverflow);
+    }
+}
@@ -0,0 +1,120 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Зависания из {@link GroupByTest} с включённым детектором.
+ * Парковка выключена (maxSpilled = 0), поэтому оператор ведёт себя как стандартный groupBy и честно зависает,
+ * но вместо verifyTimeout мы сразу получаем диагностику: кто держит окно prefetch и сколько элементов.
+ */
+public class GroupByStarvationTest {
+
+    private static final Duration CHECK_INTERVAL = Duration.ofMillis(50);
+
+    /**
+     * Зеркало {@link GroupByTest#groupByWithFlatMapTimeoutBecauseOfSmallPrefetch10ElementsOfRange()}.
+     * Все 3 элемента prefetch держит третья группа, на которую flatMap не может подписаться
+     */
+    @Test
+    void groupByWithFlatMapFailsOnStarvationBecauseOfSmallPrefetch10ElementsOfRange() {
+        int elementsCount = 10;
+        int groupsAmount = 3;
+        int flatMapConcurrency = 2;
+        int groupByPrefetch = 3;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .transform(ExxFlux.groupBy(
+                                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                                        GroupBySpec.create()
+                                                .prefetch(groupByPrefetch)
+                                                .maxSpilled(0)
+                                                .failOnStarvation(CHECK_INTERVAL)
+                                ))
+                                .flatMap((GroupedFlux<String, Integer> g) ->
+                                                g.map(String::valueOf)
+                                                        .startWith(g.key()),
+                                        flatMapConcurrency)
+                )
+                .expectNext("modulo is 0:", "0")
+                .expectNext("modulo is 1:", "1")
+                .expectNext("3", "4", "6", "7")
+                .expectErrorSatisfies(e -> {
+                    GroupByStarvation starvation = ((GroupByStarvationException) e).starvation();
+                    Assertions.assertEquals(0, starvation.upstreamOutstanding());
+                    Assertions.assertEquals(2, starvation.subscribedGroups());
+                    Assertions.assertEquals(1, starvation.pendingGroups());
+                    Assertions.assertEquals(0, starvation.downstreamRequested());
+                    Assertions.assertEquals(groupByPrefetch, starvation.bufferedInUnsubscribed());
+                    Assertions.assertEquals("modulo is 2:", starvation.unsubscribedGroups().get(0).key());
+                })
+                .verify(Duration.ofSeconds(1));
+    }
+
+    /**
+     * Зеркало {@link GroupByTest#groupByWithConcatMapTimeoutWithSmallPrefetch()}.
+     * Здесь группы уже отданы concatMap'у, но он подпишется на них только после завершения первой,
+     * поэтому pendingGroups пустой, а окно держат две отданные, но не подписанные группы.
+     * Последовательность не падает, детектор только сообщает о проблеме
+     */
+    @Test
+    void groupByWithConcatMapReportsStarvationWithSmallPrefetch() {
+        int elementsCount = 10;
+        int groupsAmount = 3;
+        int groupByPrefetch = 3;
+        Sinks.One<GroupByStarvation> starvationSink = Sinks.one();
+        Disposable subscription = Flux.range(0, elementsCount)
+                .transform(ExxFlux.groupBy(
+                        i -> "modulo is %s:".formatted(i % groupsAmount),
+                        GroupBySpec.create()
+                                .prefetch(groupByPrefetch)
+                                .maxSpilled(0)
+                                .detectStarvation(CHECK_INTERVAL, starvationSink::tryEmitValue)
+                ))
+                .concatMap(g -> g.map(String::valueOf).startWith(g.key()))
+                .subscribe();
+        try {
+            StepVerifier.create(starvationSink.asMono())
+                    .assertNext(starvation -> {
+                        Assertions.assertEquals(0, starvation.pendingGroups());
+                        Assertions.assertEquals(1, starvation.subscribedGroups());
+                        Assertions.assertEquals(groupByPrefetch, starvation.bufferedInUnsubscribed());
+                        Assertions.assertEquals(List.of("modulo is 1:", "modulo is 2:"),
+                                starvation.unsubscribedGroups().stream()
+                                        .map(GroupByStarvation.GroupState::key)
+                                        .sorted()
+                                        .toList());
+                    })
+                    .verifyComplete();
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * С парковкой тот же сценарий не зависает, и детектор молчит
+     */
+    @Test
+    void groupByWithSpillNeverStarves() {
+        StepVerifier.create(
+                        Flux.range(0, 300)
+                                .transform(ExxFlux.groupBy(
+                                        i -> i % 30,
+                                        GroupBySpec.create()
+                                                .prefetch(3)
+                                                .failOnStarvation(Duration.ofMillis(1))
+                                ))
+                                .concatMap(g -> g.delayElements(Duration.ofMillis(1)).count(), 1)
+                )
+                .expectNextCount(30)
+                .verifyComplete();
+    }
+}
@@ -6,7 +6,6 @@ import reactor.core.publisher.GroupedFlux;
 import reactor.core.publisher.SignalType;
 import reactor.test.StepVerifier;
 
-import java.time.Duration;
 import java.util.logging.Level;
 
 
@@ -156,7 +155,7 @@ public class GroupByTest {
 
     /**
      * Всё то же самое, что в предыдущем тесте, но количество элементов вместо 9 стало 10.
-     * Обратите внимание на verifyTimeout(stepVerifierTimeout) в конце теста.
+     * Обратите внимание на assertHung() в конце теста.
      * В предыдущем примере {@link #groupByWithFlatMapFineWithSmallPrefetchOn9Elements()}
      * последовательность завершалась успешно сигналом complete.
      * Ага! Сломалось! Сломалось?
@@ -182,8 +181,7 @@ public class GroupByTest {
         int groupsAmount = 3;
         int flatMapConcurrency = 2;
         int groupByPrefetch = 3;
-        Duration stepVerifierTimeout = Duration.ofSeconds(3);
-        StepVerifier.create(
+        HangHarness.run(() ->
                         Flux.range(0, elementsCount)
                                 .log("range", Level.INFO, SignalType.REQUEST, SignalType.ON_NEXT)
                                 .groupBy(
@@ -197,10 +195,11 @@ public class GroupByTest {
                                         flatMapConcurrency)
                                 .log("flatMapped", Level.INFO, SignalType.ON_NEXT, SignalType.CANCEL)
                 )
-                .expectNext("modulo is 0:", "0")
-                .expectNext("modulo is 1:", "1")
-                .expectNext("3", "4", "6", "7")
-                .verifyTimeout(stepVerifierTimeout);
+                .assertValues(
+                        "modulo is 0:", "0",
+                        "modulo is 1:", "1",
+                        "3", "4", "6", "7")
+                .assertHung();
     }
 
     /**
@@ -213,8 +212,7 @@ public class GroupByTest {
         int groupsAmount = 4;
         int flatMapConcurrency = 2;
         int groupByPrefetch = 3;
-        Duration stepVerifierTimeout = Duration.ofSeconds(3);
-        StepVerifier.create(
+        HangHarness.run(() ->
                         Flux.just(
                                         0, 4, 8, // 0 group
                                         1, // 1 group
@@ -235,10 +233,11 @@ public class GroupByTest {
                                         flatMapConcurrency)
                                 .log("flatMapped", Level.INFO, SignalType.ON_NEXT, SignalType.CANCEL)
                 )
-                .expectNext("modulo is 0:", "0", "4", "8")
-                .expectNext("modulo is 1:", "1")
-                .expectNext("12", "16", "20", "24", "28")
-                .verifyTimeout(stepVerifierTimeout);
+                .assertValues(
+                        "modulo is 0:", "0", "4", "8",
+                        "modulo is 1:", "1",
+                        "12", "16", "20", "24", "28")
+                .assertHung();
     }
 
     @Test
@@ -267,8 +266,7 @@ public class GroupByTest {
         int elementsCount = 10;
         int groupsAmount = 3;
         int groupByPrefetch = 3;
-        Duration stepVerifierTimeout = Duration.ofSeconds(3);
-        StepVerifier.create(
+        HangHarness.run(() ->
                         Flux.range(0, elementsCount)
                                 .log("range", Level.INFO, SignalType.REQUEST, SignalType.ON_NEXT)
                                 .groupBy(i -> "modulo is %s:".formatted(i % groupsAmount), groupByPrefetch)
@@ -278,7 +276,7 @@ public class GroupByTest {
                                                 .startWith(g.key()))
                                 .log("concatMap", Level.INFO, SignalType.ON_NEXT, SignalType.CANCEL)
                 )
-                .expectNext("modulo is 0:", "0")
-                .verifyTimeout(stepVerifierTimeout);
+                .assertValues("modulo is 0:", "0")
+                .assertHung();
     }
 }
@@ -0,0 +1,92 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link ExxFlux#groupWithHeader} вместо g.defaultIfEmpty(-1).map(String::valueOf).startWith(g.key())
+ * из {@link GroupByTest}
+ */
+public class GroupWithHeaderTest {
+
+    @Test
+    void groupWithHeaderMatchesConcatOfHeaderAndGroup() {
+        int groupsCount = 5;
+        StepVerifier.create(
+                        Flux.just(1, 3, 5, 2, 4, 6, 11, 12, 13)
+                                .groupBy(i -> "modulo is %s:".formatted(i % groupsCount))
+                                .concatMap(ExxFlux.groupWithHeader(key -> key, String::valueOf, "-1"))
+                )
+                .expectNext("modulo is 1:", "1", "6", "11")
+                .expectNext("modulo is 3:", "3", "13")
+                .expectNext("modulo is 0:", "5")
+                .expectNext("modulo is 2:", "2", "12")
+                .expectNext("modulo is 4:", "4")
+                .verifyComplete();
+    }
+
+    /**
+     * Заголовок забирает единицу спроса, группа получает только остаток
+     */
+    @Test
+    void groupWithHeaderHonoursBackpressure() {
+        List<Long> groupRequests = new CopyOnWriteArrayList<>();
+        GroupedFlux<String, Integer> group = group("key", Flux.range(1, 3).doOnRequest(groupRequests::add));
+        StepVerifier.create(ExxFlux.<String, Integer, String>groupWithHeader(key -> key, String::valueOf, "-1")
+                        .apply(group), 0)
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenRequest(1)
+                .expectNext("key")
+                .thenRequest(2)
+                .expectNext("1", "2")
+                .thenRequest(1)
+                .expectNext("3")
+                .verifyComplete();
+        Assertions.assertEquals(List.of(2L, 1L), groupRequests);
+    }
+
+    @Test
+    void groupWithHeaderEmitsEmptyMarkerOnDemand() {
+        GroupedFlux<String, Integer> group = group("empty", Flux.empty());
+        StepVerifier.create(ExxFlux.<String, Integer, String>groupWithHeader(key -> key, String::valueOf, "-1")
+                        .apply(group), 0)
+                .expectSubscription()
+                .thenRequest(1)
+                .expectNext("empty")
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenRequest(1)
+                .expectNext("-1")
+                .verifyComplete();
+    }
+
+    @Test
+    void groupWithHeaderPassesErrorWithoutWaitingForDemand() {
+        GroupedFlux<String, Integer> group = group("failed", Flux.error(new IllegalStateException("boom")));
+        StepVerifier.create(ExxFlux.<String, Integer, String>groupWithHeader(key -> key, String::valueOf, "-1")
+                        .apply(group), 0)
+                .verifyErrorMessage("boom");
+    }
+
+    static <K, T> GroupedFlux<K, T> group(K key, Flux<T> elements) {
+        return new GroupedFlux<K, T>() {
+            @Override
+            public K key() {
+                return key;
+            }
+
+            @Override
+            public void subscribe(CoreSubscriber<? super T> actual) {
+                elements.subscribe(actual);
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * {@link GroupByTest#groupByWithFlatMapPassesInStrangeOrder()} показывает, что при конкурентности flatMap
+ * меньше количества групп последняя группа ждёт завершения предыдущих.
+ * {@link ExxFlux#groupedMerge(int)} отдаёт группы по очереди, и каждая продвигается.
+ */
+public class GroupedMergeTest {
+
+    /**
+     * Бесконечный источник: у flatMap с конкурентностью 2 ключи 2, 3 и 4 так и не появились бы,
+     * здесь за первые 100 элементов встречаются все ключи
+     */
+    @Test
+    void groupedMergeLetsEveryKeyProgressOnInfiniteSource() {
+        int groupsAmount = 5;
+        StepVerifier.create(
+                        Flux.<Integer, Integer>generate(() -> 0, (i, sink) -> {
+                                    sink.next(i);
+                                    return i + 1;
+                                })
+                                .transform(ExxFlux.groupBy(i -> i % groupsAmount))
+                                .transform(ExxFlux.groupedMerge(4))
+                                .take(100)
+                                .map(i -> i % groupsAmount)
+                                .collect(Collectors.toSet())
+                )
+                .assertNext(keys -> Assertions.assertEquals(Set.of(0, 1, 2, 3, 4), keys))
+                .verifyComplete();
+    }
+
+    /**
+     * Подписчик просит понемногу: каждая группа отдаёт за свою очередь не больше quantum элементов,
+     * после чего очередь переходит к следующей группе
+     */
+    @Test
+    void groupedMergeDrainsGroupsRoundRobinUnderBackpressure() {
+        int groupsAmount = 3;
+        StepVerifier.create(
+                        Flux.range(0, 12)
+                                .groupBy(i -> i % groupsAmount)
+                                .transform(ExxFlux.groupedMerge(2)),
+                        0)
+                .thenRequest(6)
+                .expectNext(0, 3, 1, 4, 2, 5)
+                .thenRequest(6)
+                .expectNext(6, 9, 7, 10, 8, 11)
+                .verifyComplete();
+    }
+
+    /**
+     * Подписчик просит ровно 4 элемента, а группы и источник завершаются позже, на другом потоке.
+     * Спроса к этому моменту нет, но завершение его и не ждёт
+     */
+    @Test
+    void groupedMergeCompletesWithoutDemandWhenGroupsCompleteAsynchronously() {
+        StepVerifier.create(
+                        Flux.range(0, 4)
+                                .concatWith(Mono.delay(Duration.ofMillis(50)).then(Mono.empty()))
+                                .groupBy(i -> i % 2)
+                                .transform(ExxFlux.groupedMerge(2)),
+                        4)
+                .expectNextCount(4)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+}
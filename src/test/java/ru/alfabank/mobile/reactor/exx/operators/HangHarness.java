@@ -0,0 +1,369 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import reactor.util.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Проверка на зависание без реального ожидания, вместо verifyTimeout.
+ * <p>
+ * Цепочка собирается и запускается на часах {@link VirtualTimeScheduler}, которые подменяют все Schedulers.*,
+ * поэтому ни один сигнал не приходит из чужого потока: всё, что цепочка может сделать, она делает
+ * при подписке или в задачах на этих часах. Подписчик сразу запрашивает Long.MAX_VALUE,
+ * так что спрос снизу не ограничивает цепочку. Харнесс помнит, какие задачи поставлены и ещё не выполнены
+ * и не отменены, и переводит часы к ближайшей из них. Если задач не осталось, а последовательность
+ * не завершилась, продвинуться ей больше нечем: это зависание, и оно видно сразу, сколько бы виртуального
+ * времени ни понадобилось цепочке до этого.
+ * <p>
+ * Цепочка должна собираться внутри supplier, иначе планировщики захватятся до подмены.
+ * Периодическая задача остаётся поставленной, пока её не отменят, поэтому цепочка с живым таймером
+ * зависшей не считается, а прогон обрывается ошибкой после {@link #MAX_STEPS} переводов часов
+ */
+final class HangHarness {
+
+    static final int MAX_STEPS = 100_000;
+
+    private HangHarness() {
+    }
+
+    static <T> Outcome<T> run(Supplier<? extends Publisher<? extends T>> pipeline) {
+        VirtualTimeScheduler clock = VirtualTimeScheduler.create();
+        TrackingScheduler scheduler = new TrackingScheduler(clock);
+        Schedulers.setFactory(new Schedulers.Factory() {
+            @Override
+            public Scheduler newBoundedElastic(int threadCap, int queuedTaskCap, ThreadFactory threadFactory,
+                                               int ttlSeconds) {
+                return scheduler;
+            }
+
+            @Override
+            public Scheduler newParallel(int parallelism, ThreadFactory threadFactory) {
+                return scheduler;
+            }
+
+            @Override
+            public Scheduler newSingle(ThreadFactory threadFactory) {
+                return scheduler;
+            }
+        });
+        Recorder<T> recorder = new Recorder<>();
+        try {
+            pipeline.get().subscribe(recorder);
+            for (int step = 0; step < MAX_STEPS; step++) {
+                clock.advanceTime();
+                if (recorder.terminated()) {
+                    return recorder.outcome();
+                }
+                OptionalLong next = scheduler.nextDue();
+                if (next.isEmpty()) {
+                    return recorder.outcome();
+                }
+                long delay = next.getAsLong() - clock.now(TimeUnit.NANOSECONDS);
+                clock.advanceTimeBy(Duration.ofNanos(Math.max(0L, delay)));
+            }
+            throw new AssertionError("Pipeline still has scheduled tasks after " + MAX_STEPS + " steps: "
+                    + recorder.outcome());
+        } finally {
+            recorder.cancel();
+            Schedulers.resetFactory();
+            clock.dispose();
+        }
+    }
+
+    enum State {
+        COMPLETED,
+        FAILED,
+        HUNG
+    }
+
+    static final class Outcome<T> {
+
+        final State state;
+        final List<T> values;
+        @Nullable
+        final Throwable error;
+
+        Outcome(State state, List<T> values, @Nullable Throwable error) {
+            this.state = state;
+            this.values = values;
+            this.error = error;
+        }
+
+        State state() {
+            return state;
+        }
+
+        List<T> values() {
+            return values;
+        }
+
+        Outcome<T> assertCompleted() {
+            Assertions.assertEquals(State.COMPLETED, state, this::toString);
+            return this;
+        }
+
+        Outcome<T> assertHung() {
+            Assertions.assertEquals(State.HUNG, state, this::toString);
+            return this;
+        }
+
+        @SafeVarargs
+        final Outcome<T> assertValues(T... expected) {
+            Assertions.assertEquals(Arrays.asList(expected), values, this::toString);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return state + " after " + values.size() + " values " + values + (error == null ? "" : ": " + error);
+        }
+    }
+
+    static final class Recorder<T> implements CoreSubscriber<T> {
+
+        final List<T> values = new ArrayList<>();
+
+        Subscription s;
+
+        @Nullable
+        State terminal;
+
+        @Nullable
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(this.s, s)) {
+                this.s = s;
+                s.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public synchronized void onNext(T t) {
+            values.add(t);
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            error = t;
+            terminal = State.FAILED;
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            terminal = State.COMPLETED;
+        }
+
+        synchronized boolean terminated() {
+            return terminal != null;
+        }
+
+        synchronized Outcome<T> outcome() {
+            return new Outcome<>(terminal == null ? State.HUNG : terminal, List.copyOf(values), error);
+        }
+
+        void cancel() {
+            Subscription s = this.s;
+            if (s != null) {
+                s.cancel();
+            }
+        }
+    }
+
+    /**
+     * Планировщик на часах clock, который знает свои поставленные и ещё не выполненные задачи
+     */
+    static final class TrackingScheduler implements Scheduler {
+
+        final VirtualTimeScheduler clock;
+        final Set<Task> pending = ConcurrentHashMap.newKeySet();
+
+        TrackingScheduler(VirtualTimeScheduler clock) {
+            this.clock = clock;
+        }
+
+        /**
+         * @return время ближайшей задачи по часам clock или пусто, если задач нет
+         */
+        OptionalLong nextDue() {
+            return pending.stream().mapToLong(t -> t.due).min();
+        }
+
+        Task track(Runnable run, long delay, long period, TimeUnit unit, @Nullable Set<Task> owner) {
+            Task task = new Task(this, owner, run, clock.now(TimeUnit.NANOSECONDS) + unit.toNanos(delay),
+                    unit.toNanos(period));
+            pending.add(task);
+            if (owner != null) {
+                owner.add(task);
+            }
+            return task;
+        }
+
+        @Override
+        public Disposable schedule(Runnable run) {
+            return schedule(run, 0L, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public Disposable schedule(Runnable run, long delay, TimeUnit unit) {
+            Task task = track(run, delay, 0L, unit, null);
+            return task.attach(clock.schedule(task, delay, unit));
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable run, long initialDelay, long period, TimeUnit unit) {
+            Task task = track(run, initialDelay, period, unit, null);
+            return task.attach(clock.schedulePeriodically(task, initialDelay, period, unit));
+        }
+
+        @Override
+        public long now(TimeUnit unit) {
+            return clock.now(unit);
+        }
+
+        @Override
+        public Worker createWorker() {
+            return new TrackingWorker(this, clock.createWorker());
+        }
+
+        @Override
+        public void dispose() {
+            // часы общие для всех Schedulers.*, их закрывает харнесс
+        }
+    }
+
+    static final class TrackingWorker implements Scheduler.Worker {
+
+        final TrackingScheduler parent;
+        final Scheduler.Worker worker;
+        final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+
+        TrackingWorker(TrackingScheduler parent, Scheduler.Worker worker) {
+            this.parent = parent;
+            this.worker = worker;
+        }
+
+        @Override
+        public Disposable schedule(Runnable run) {
+            return schedule(run, 0L, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public Disposable schedule(Runnable run, long delay, TimeUnit unit) {
+            Task task = parent.track(run, delay, 0L, unit, tasks);
+            return task.attach(worker.schedule(task, delay, unit));
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable run, long initialDelay, long period, TimeUnit unit) {
+            Task task = parent.track(run, initialDelay, period, unit, tasks);
+            return task.attach(worker.schedulePeriodically(task, initialDelay, period, unit));
+        }
+
+        @Override
+        public void dispose() {
+            worker.dispose();
+            for (Task task : tasks) {
+                task.dispose();
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return worker.isDisposed();
+        }
+    }
+
+    /**
+     * Задача считается поставленной, пока не выполнилась, а периодическая, пока её не отменили
+     */
+    static final class Task implements Runnable, Disposable {
+
+        final TrackingScheduler parent;
+        @Nullable
+        final Set<Task> owner;
+        final Runnable run;
+        final long period;
+
+        volatile long due;
+
+        final AtomicBoolean settled = new AtomicBoolean();
+
+        volatile Disposable inner;
+
+        Task(TrackingScheduler parent, @Nullable Set<Task> owner, Runnable run, long due, long period) {
+            this.parent = parent;
+            this.owner = owner;
+            this.run = run;
+            this.due = due;
+            this.period = period;
+        }
+
+        Disposable attach(Disposable inner) {
+            this.inner = inner;
+            if (settled.get() && period != 0L) {
+                inner.dispose();
+            }
+            return this;
+        }
+
+        @Override
+        public void run() {
+            if (period == 0L) {
+                if (!settle()) {
+                    return;
+                }
+            } else if (settled.get()) {
+                return;
+            } else {
+                due += period;
+            }
+            run.run();
+        }
+
+        boolean settle() {
+            if (settled.compareAndSet(false, true)) {
+                parent.pending.remove(this);
+                if (owner != null) {
+                    owner.remove(this);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void dispose() {
+            settle();
+            Disposable i = inner;
+            if (i != null) {
+                i.dispose();
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return settled.get();
+        }
+    }
+}
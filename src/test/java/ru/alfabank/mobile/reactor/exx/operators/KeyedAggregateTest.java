@@ -0,0 +1,106 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Вместо groupBy + collectList/reduce, который держит в группе все элементы, как цепочки в {@link GroupByTest},
+ * {@link ExxFlux#keyedAggregate} хранит на ключ только аккумулятор окна.
+ * Элементы приходят каждые 300мс, ключ это чётность номера элемента.
+ */
+public class KeyedAggregateTest {
+
+    /**
+     * Окна [0, 1с), [1с, 2с) закрываются по таймеру, окно [2с, 3с) отдаётся при завершении источника
+     */
+    @Test
+    void keyedAggregateCountsPerKeyInTumblingWindows() {
+        StepVerifier.withVirtualTime(() -> Flux.interval(Duration.ofMillis(300))
+                        .take(9)
+                        .transform(ExxFlux.keyedAggregate(
+                                i -> i % 2,
+                                WindowSpec.tumbling(Duration.ofSeconds(1)),
+                                () -> 0L,
+                                (count, i) -> count + 1))
+                        .map(KeyedAggregateTest::format))
+                .thenAwait(Duration.ofSeconds(1))
+                .recordWith(ArrayList::new)
+                .expectNextCount(2)
+                .consumeRecordedWith(window -> Assertions.assertEquals(Set.of("0@0=2", "1@0=1"), Set.copyOf(window)))
+                .thenAwait(Duration.ofSeconds(2))
+                .expectNextCount(4)
+                .consumeRecordedWith(windows -> Assertions.assertEquals(
+                        Set.of("0@0=2", "1@0=1", "1@1000=2", "0@1000=1", "0@2000=2", "1@2000=1"),
+                        Set.copyOf(windows)))
+                .verifyComplete();
+    }
+
+    /**
+     * Окна по 2с каждую секунду: элемент попадает в два окна, окно [0, 2с) закрывается по таймеру,
+     * [1с, 3с) и [2с, 4с) при завершении
+     */
+    @Test
+    void keyedAggregateSumsPerKeyInSlidingWindows() {
+        StepVerifier.withVirtualTime(() -> Flux.interval(Duration.ofMillis(300))
+                        .take(9)
+                        .transform(ExxFlux.keyedAggregate(
+                                i -> i % 2,
+                                WindowSpec.sliding(Duration.ofSeconds(2), Duration.ofSeconds(1)),
+                                () -> 0L,
+                                Long::sum))
+                        .map(KeyedAggregateTest::format)
+                        .collect(Collectors.toSet()))
+                .thenAwait(Duration.ofSeconds(3))
+                .assertNext(windows -> Assertions.assertEquals(
+                        Set.of("0@0=6", "1@0=9",
+                                "0@1000=18", "1@1000=15",
+                                "0@2000=14", "1@2000=7"),
+                        windows))
+                .verifyComplete();
+    }
+
+    /**
+     * Подписчик ничего не просит, ключ у каждого элемента свой, окна по 1010мс, чтобы не совпадать с элементами.
+     * Окно 0 даёт 10 итогов, окно 1 ещё 10, и на этом очередь набирает maxPending = 16,
+     * так что источник больше не дозапрашивается: дочитываются уже запрошенные элементы 21..28 в окно 2,
+     * а всё остальное отбрасывает onBackpressureDrop
+     */
+    @Test
+    void keyedAggregateStopsPullingSourceWhileWindowsAreNotConsumed() {
+        AtomicInteger dropped = new AtomicInteger();
+        StepVerifier.withVirtualTime(() -> Flux.interval(Duration.ofMillis(100))
+                                .map(i -> i + 1)
+                                .onBackpressureDrop(i -> dropped.incrementAndGet())
+                                .transform(ExxFlux.keyedAggregate(
+                                        i -> i,
+                                        WindowSpec.tumbling(Duration.ofMillis(1010)).maxPending(16),
+                                        () -> 0L,
+                                        (count, i) -> count + 1)),
+                        0)
+                .thenAwait(Duration.ofSeconds(60))
+                .then(() -> Assertions.assertTrue(dropped.get() > 500, () -> "dropped " + dropped.get()))
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextCount(28)
+                .expectNoEvent(Duration.ofMillis(500))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void windowSizeMustBeMultipleOfSlide() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> WindowSpec.sliding(Duration.ofSeconds(3), Duration.ofSeconds(2)));
+    }
+
+    private static String format(KeyedWindow<Long, Long> w) {
+        return w.key() + "@" + w.start().toEpochMilli() + "=" + w.value();
+    }
+}
@@ -0,0 +1,109 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Сценарий range/modulo из {@link GroupByTest} на {@link ExxFlux#parallelGroupBy}: группы разложены по рельсам,
+ * у каждой рельсы своя таблица групп
+ */
+public class ParallelGroupByTest {
+
+    /**
+     * Каждый ключ попадает ровно в одну группу одной рельсы, элементы группы идут в исходном порядке
+     */
+    @Test
+    void parallelGroupByKeepsEveryKeyInOneGroup() {
+        int elementsCount = 10_000;
+        int groupsAmount = 100;
+        int rails = 4;
+        Scheduler scheduler = Schedulers.newParallel("parallelGroupBy", rails);
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .as(ExxFlux.parallelGroupBy(i -> i % groupsAmount, rails, GroupBySpec.create(), scheduler))
+                                .flatMap(g -> g.collectList().map(values -> Tuples.of(g.key(), values)))
+                                .sequential()
+                                .collectMap(Tuple2::getT1, Tuple2::getT2)
+                )
+                .assertNext(byKey -> {
+                    Assertions.assertEquals(groupsAmount, byKey.size());
+                    byKey.forEach((key, values) -> Assertions.assertEquals(
+                            IntStream.iterate(key, i -> i < elementsCount, i -> i + groupsAmount).boxed().toList(),
+                            values));
+                })
+                .verifyComplete();
+        scheduler.dispose();
+    }
+
+    /**
+     * Мало групп и маленький prefetch, как в зависающих сценариях {@link GroupByTest}:
+     * парковка в каждой рельсе дочитывает источник до конца
+     */
+    @Test
+    void parallelGroupByCompletesWithSmallPrefetch() {
+        ParallelFlux<String> rails = Flux.range(0, 10)
+                .as(ExxFlux.parallelGroupBy(
+                        i -> "modulo is %s:".formatted(i % 3), 2, GroupBySpec.create().prefetch(3), Schedulers.parallel()))
+                .flatMap(g -> g.map(String::valueOf));
+        Assertions.assertEquals(2, rails.parallelism());
+        StepVerifier.create(rails.sequential().collectSortedList())
+                .assertNext(values -> Assertions.assertEquals(
+                        IntStream.range(0, 10).mapToObj(String::valueOf).sorted().toList(),
+                        List.copyOf(values)))
+                .verifyComplete();
+    }
+
+    /**
+     * Каждая рельса берёт первую группу, отменяет её и отменяется сама. После этого partitionBy заводит
+     * новые дорожки для тех же слотов, но рельсы повторно не подписываются, а бесконечный источник отменяется
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void parallelGroupByCancelsInfiniteSourceWhenAllRailsCancel() throws InterruptedException {
+        int rails = 2;
+        CountDownLatch sourceCancelled = new CountDownLatch(1);
+        AtomicInteger subscriptions = new AtomicInteger();
+        CountDownLatch railsCancelled = new CountDownLatch(rails);
+        Flux.interval(Duration.ofMillis(1))
+                .doOnCancel(sourceCancelled::countDown)
+                .as(ExxFlux.parallelGroupBy(i -> i % 4, rails, GroupBySpec.create(), Schedulers.parallel()))
+                .subscribe(IntStream.range(0, rails)
+                        .mapToObj(rail -> new BaseSubscriber<GroupedFlux<Long, Long>>() {
+                            @Override
+                            protected void hookOnSubscribe(Subscription subscription) {
+                                subscriptions.incrementAndGet();
+                                request(1);
+                            }
+
+                            @Override
+                            protected void hookOnNext(GroupedFlux<Long, Long> group) {
+                                group.take(1).subscribe();
+                                cancel();
+                                railsCancelled.countDown();
+                            }
+                        })
+                        .toArray(CoreSubscriber[]::new));
+        Assertions.assertTrue(railsCancelled.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(sourceCancelled.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        Assertions.assertEquals(rails, subscriptions.get());
+    }
+}
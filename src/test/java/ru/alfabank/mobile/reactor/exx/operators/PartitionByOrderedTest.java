@@ -0,0 +1,76 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * {@link GroupByTest#groupByWithFlatMapPasses()} показывает, что flatMap по группам перемешивает элементы,
+ * а concatMap из {@link GroupByTest#groupByWithConcatMapPasses()} сохраняет порядок только внутри группы.
+ * partitionByOrdered обрабатывает ключи параллельно, но отдаёт результаты в порядке источника.
+ */
+public class PartitionByOrderedTest {
+
+    /**
+     * Элементы ключа 0 обрабатываются заметно дольше остальных, поэтому после flatMap они бы отстали,
+     * а здесь результаты идут строго в исходном порядке
+     */
+    @Test
+    void partitionByOrderedKeepsSourceOrderWhenKeysAreSlowedDown() {
+        int elementsCount = 2_000;
+        int partitions = 4;
+        Scheduler scheduler = Schedulers.newParallel("lane", partitions);
+        try {
+            StepVerifier.create(
+                            Flux.range(0, elementsCount)
+                                    .transform(ExxFlux.partitionByOrdered(i -> i % 10, partitions, i -> {
+                                        if (i % 10 == 0) {
+                                            LockSupport.parkNanos(50_000);
+                                        }
+                                        return "v" + i;
+                                    }, 64, scheduler))
+                                    .collectList()
+                    )
+                    .assertNext(list -> Assertions.assertEquals(
+                            IntStream.range(0, elementsCount).mapToObj(i -> "v" + i).collect(Collectors.toList()),
+                            list))
+                    .verifyComplete();
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    /**
+     * Первый элемент обрабатывается долго, но источник не уходит дальше окна,
+     * так что ждущих своей очереди результатов никогда не больше maxInFlight
+     */
+    @Test
+    void partitionByOrderedReadsSourceNoFurtherThanMaxInFlight() {
+        int maxInFlight = 16;
+        AtomicLong read = new AtomicLong();
+        AtomicLong emitted = new AtomicLong();
+        AtomicLong maxAhead = new AtomicLong();
+        StepVerifier.create(
+                        Flux.range(0, 1_000)
+                                .doOnNext(i -> maxAhead.accumulateAndGet(read.incrementAndGet() - emitted.get(), Math::max))
+                                .transform(ExxFlux.partitionByOrdered(i -> i, 4, i -> {
+                                    if (i == 0) {
+                                        LockSupport.parkNanos(50_000_000);
+                                    }
+                                    return i;
+                                }, maxInFlight, Schedulers.parallel()))
+                                .doOnNext(i -> emitted.incrementAndGet())
+                )
+                .expectNextSequence(IntStream.range(0, 1_000).boxed().collect(Collectors.toList()))
+                .verifyComplete();
+        Assertions.assertTrue(maxAhead.get() <= maxInFlight, "read ahead " + maxAhead.get());
+    }
+}
@@ -0,0 +1,92 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Большая часть groupBy из {@link GroupByTest} на самом деле означает "ключи параллельно, элементы ключа по очереди".
+ * partitionBy делает то же самое на фиксированном количестве дорожек, не заводя группу на каждый ключ.
+ */
+public class PartitionByTest {
+
+    /**
+     * Ключей больше, чем дорожек, но у каждого ключа элементы приходят в исходном порядке
+     */
+    @Test
+    void partitionByKeepsPerKeyOrder() {
+        int elementsCount = 10_000;
+        int keysCount = 100;
+        int partitions = 4;
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .transform(ExxFlux.partitionBy(i -> i % keysCount, partitions, i -> i))
+                                .collectMultimap(i -> i % keysCount)
+                )
+                .assertNext(byKey -> {
+                    Assertions.assertEquals(keysCount, byKey.size());
+                    byKey.forEach((key, values) -> Assertions.assertEquals(
+                            IntStream.iterate(key, i -> i < elementsCount, i -> i + keysCount).boxed().toList(),
+                            List.copyOf(values)));
+                })
+                .verifyComplete();
+    }
+
+    /**
+     * Дорожек создаётся не больше partitions, как бы много ключей ни было
+     */
+    @Test
+    void partitionByCreatesNoMoreLanesThanPartitions() {
+        int partitions = 3;
+        StepVerifier.create(
+                        Flux.range(0, 1000)
+                                .transform(ExxFlux.partitionBy(i -> "key " + i, partitions, Schedulers.immediate()))
+                                .flatMap(lane -> lane.count().map(count -> lane.key() + ":" + count), partitions)
+                                .collectList()
+                )
+                .assertNext(lanes -> Assertions.assertEquals(partitions, lanes.size()))
+                .verifyComplete();
+    }
+
+    /**
+     * Каждый ключ обрабатывается на одном и том же воркере своей дорожки,
+     * разные дорожки работают на разных потоках
+     */
+    @Test
+    void partitionByProcessesEachKeyOnSingleLaneThread() {
+        int partitions = 4;
+        Scheduler scheduler = Schedulers.newParallel("lane", partitions);
+        Map<Integer, Set<String>> threadsByKey = new ConcurrentHashMap<>();
+        try {
+            StepVerifier.create(
+                            Flux.range(0, 10_000)
+                                    .transform(ExxFlux.partitionBy(i -> i % 50, partitions, i -> {
+                                        threadsByKey.computeIfAbsent(i % 50, k -> ConcurrentHashMap.newKeySet())
+                                                .add(Thread.currentThread().getName());
+                                        return i;
+                                    }, scheduler))
+                    )
+                    .expectNextCount(10_000)
+                    .verifyComplete();
+        } finally {
+            scheduler.dispose();
+        }
+        Assertions.assertEquals(50, threadsByKey.size());
+        threadsByKey.values().forEach(threads -> Assertions.assertEquals(1, threads.size()));
+        Set<String> allThreads = threadsByKey.values().stream()
+                .flatMap(Set::stream)
+                .collect(Collectors.toSet());
+        Assertions.assertTrue(allThreads.size() > 1, "keys should be spread across lanes: " + allThreads);
+        allThreads.forEach(name -> Assertions.assertTrue(name.startsWith("lane-"), name));
+    }
+}
@@ -0,0 +1,112 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class PublishOnBatchedTest {
+
+    @Test
+    void publishOnBatchedKeepsOrder() {
+        List<Integer> expected = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+        StepVerifier.create(
+                        Flux.range(0, 10_000)
+                                .transform(ExxFlux.publishOnBatched(Schedulers.parallel(), 64, Duration.ofMillis(10)))
+                                .collectList()
+                )
+                .assertNext(list -> Assertions.assertEquals(expected, list))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void publishOnBatchedDeliversOnSchedulerThread() {
+        StepVerifier.create(
+                        Flux.range(0, 1_000)
+                                .transform(ExxFlux.publishOnBatched(Schedulers.single(), 64, Duration.ofMillis(10)))
+                                .map(i -> Thread.currentThread().getName())
+                                .distinct()
+                )
+                .assertNext(name -> Assertions.assertTrue(name.startsWith("single-"), name))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    /**
+     * Неполная пачка на молчащем источнике уходит по таймеру через maxDelay
+     */
+    @Test
+    void publishOnBatchedFlushesPartialBatchAfterMaxDelay() {
+        StepVerifier.withVirtualTime(() ->
+                        Flux.just(1, 2, 3)
+                                .concatWith(Flux.never())
+                                .transform(ExxFlux.publishOnBatched(Schedulers.parallel(), 64, Duration.ofMillis(100)))
+                )
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(90))
+                .thenAwait(Duration.ofMillis(10))
+                .expectNext(1, 2, 3)
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Завершение источника отдаёт неполную пачку сразу, не дожидаясь таймера
+     */
+    @Test
+    void publishOnBatchedFlushesPartialBatchOnComplete() {
+        StepVerifier.create(
+                        Flux.range(0, 10)
+                                .transform(ExxFlux.publishOnBatched(Schedulers.parallel(), 64, Duration.ofHours(1)))
+                )
+                .expectNextCount(10)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void publishOnBatchedRespectsDownstreamDemand() {
+        StepVerifier.create(
+                        Flux.range(0, 100)
+                                .transform(ExxFlux.publishOnBatched(Schedulers.parallel(), 16, Duration.ofMillis(10))),
+                        0
+                )
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(10)
+                .expectNextCount(10)
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(90)
+                .expectNextCount(90)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    /**
+     * Как publishOn, ошибка отдаётся после уже пришедших элементов
+     */
+    @Test
+    void publishOnBatchedDelaysErrorUntilBufferedElementsAreDelivered() {
+        StepVerifier.create(
+                        Flux.range(0, 3)
+                                .concatWith(Flux.error(new IllegalStateException("boom")))
+                                .transform(ExxFlux.publishOnBatched(Schedulers.parallel(), 64, Duration.ofHours(1)))
+                )
+                .expectNext(0, 1, 2)
+                .expectErrorMessage("boom")
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void publishOnBatchedRejectsPrefetchBelowMaxBatch() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ExxFlux.publishOnBatched(Schedulers.parallel(), 64, Duration.ofMillis(10), 32));
+    }
+}
@@ -0,0 +1,110 @@
+package ru.alfabank.mobile.reactor.exx.operators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuple2;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * В {@link GroupByTest} все группы одного размера, а на реальном трафике несколько ключей горячие.
+ * {@link ExxFlux#reduceByKey} раскладывает горячий ключ по нескольким дорожкам и сводит частичные результаты.
+ */
+public class ReduceByKeyTest {
+
+    /**
+     * Ключ 0 это половина трафика: он раскладывается по всем дорожкам, а результат тот же,
+     * что и у свёртки без разделения
+     */
+    @Test
+    void reduceByKeySplitsHotKeyAcrossLanesAndRecombines() {
+        int elementsCount = 100_000;
+        int partitions = 4;
+        Map<Integer, Set<String>> threadsByKey = new ConcurrentHashMap<>();
+        Scheduler scheduler = Schedulers.newParallel("reduceByKey", partitions);
+        StepVerifier.create(
+                        Flux.range(0, elementsCount)
+                                .map(i -> i % 2 == 0 ? 0 : i % 100)
+                                .transform(ExxFlux.reduceByKey(
+                                        k -> k,
+                                        k -> {
+                                            threadsByKey.computeIfAbsent(k, key -> ConcurrentHashMap.newKeySet())
+                                                    .add(Thread.currentThread().getName());
+                                            return 1L;
+                                        },
+                                        Long::sum,
+                                        partitions,
+                                        0.25,
+                                        scheduler))
+                                .collectMap(Tuple2::getT1, Tuple2::getT2)
+                )
+                .assertNext(counts -> Assertions.assertEquals(
+                        IntStream.range(0, elementsCount)
+                                .mapToObj(i -> i % 2 == 0 ? 0 : i % 100)
+                                .collect(Collectors.groupingBy(k -> k, Collectors.counting())),
+                        counts))
+                .verifyComplete();
+        scheduler.dispose();
+
+        Assertions.assertTrue(threadsByKey.get(0).size() > 1, "hot key stayed on one lane");
+        Assertions.assertEquals(1, threadsByKey.get(1).size());
+    }
+
+    /**
+     * С hotKeyShare = 1.0 разделения нет, и все значения ключа идут через одну дорожку
+     */
+    @Test
+    void reduceByKeyKeepsKeyOnOneLaneWhenSplittingDisabled() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        StepVerifier.create(
+                        Flux.range(0, 10_000)
+                                .transform(ExxFlux.reduceByKey(
+                                        i -> "hot",
+                                        i -> {
+                                            threads.add(Thread.currentThread().getName());
+                                            return i;
+                                        },
+                                        Math::max,
+                                        4,
+                                        1.0,
+                                        Schedulers.parallel()))
+                )
+                .assertNext(result -> {
+                    Assertions.assertEquals("hot", result.getT1());
+                    Assertions.assertEquals(9_999, result.getT2());
+                })
+                .verifyComplete();
+
+        Assertions.assertEquals(1, threads.size());
+    }
+
+    /**
+     * Оценка count-min sketch никогда не меньше настоящей частоты
+     */
+    @Test
+    void sketchNeverUnderestimates() {
+        HotKeySplitter<Integer> splitter = new HotKeySplitter<>(4, 1.0, 64);
+        int[] counts = new int[1000];
+        for (int i = 0; i < 400; i++) {
+            int key = (i * 7919) % counts.length;
+            splitter.lane(key);
+            counts[key]++;
+        }
+        Set<Integer> underestimated = new HashSet<>();
+        for (int key = 0; key < counts.length; key++) {
+            if (splitter.estimate(key) < counts[key]) {
+                underestimated.add(key);
+            }
+        }
+        Assertions.assertEquals(Set.of(), underestimated);
+    }
+}
@@ -0,0 +1,107 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+
+/**
+ * То, что в {@link PublishOnSubscribeOnTest} видно по логам, здесь проверяется счётчиками {@link ThreadHops}
+ */
+public class ThreadHopsTest {
+
+    ThreadHops hops;
+
+    @BeforeEach
+    void install() {
+        hops = ThreadHops.install();
+    }
+
+    @AfterEach
+    void dispose() {
+        hops.dispose();
+    }
+
+    /**
+     * Как в {@link PublishOnSubscribeOnTest#intervalSubscribeOn()}: подписка уходит на mySingle,
+     * а элементы всё равно идут с parallel, то есть переходов два там, где ожидали один
+     */
+    @Test
+    void intervalSubscribeOnHopsTwice() {
+        Scheduler mySingle = Schedulers.newSingle("mySingle");
+        try {
+            Flux.interval(Duration.ofMillis(10))
+                    .subscribeOn(mySingle)
+                    .take(5)
+                    .blockLast();
+        } finally {
+            mySingle.dispose();
+        }
+
+        ThreadHops.Point interval = point("interval", "intervalSubscribeOnHopsTwice");
+        ThreadHops.Point subscribeOn = point("subscribeOn", "intervalSubscribeOnHopsTwice");
+        Assertions.assertEquals(5, interval.hops());
+        Assertions.assertEquals(1, subscribeOn.subscribeHops());
+        Assertions.assertEquals(0, subscribeOn.hops());
+        Assertions.assertEquals(1, subscribeOn.delay().count());
+
+        ThreadHops.Chain chain = hops.topChains(1).get(0);
+        Assertions.assertTrue(chain.name().startsWith("take at "), chain.name());
+        Assertions.assertEquals(6, chain.hops());
+        Assertions.assertEquals(5, chain.elements());
+        Assertions.assertEquals(3, chain.points().size());
+        Assertions.assertSame(interval, chain.points().get(0));
+    }
+
+    @Test
+    void publishOnHopsOncePerElementAndRecordsQueueDelay() {
+        Flux.range(0, 100)
+                .publishOn(Schedulers.single())
+                .map(i -> i + 1)
+                .blockLast();
+
+        ThreadHops.Point publishOn = point("publishOn", "publishOnHopsOncePerElementAndRecordsQueueDelay");
+        ThreadHops.Point map = point("map", "publishOnHopsOncePerElementAndRecordsQueueDelay");
+        Assertions.assertEquals(100, publishOn.hops());
+        Assertions.assertEquals(100, publishOn.delay().count());
+        Assertions.assertEquals(0, map.hops());
+        Assertions.assertEquals(100, map.signals());
+    }
+
+    @Test
+    void synchronousChainHasNoHops() {
+        Flux.range(0, 100)
+                .map(i -> i + 1)
+                .filter(i -> i % 2 == 0)
+                .blockLast();
+
+        for (String operator : new String[]{"range", "map", "filter"}) {
+            ThreadHops.Point p = point(operator, "synchronousChainHasNoHops");
+            Assertions.assertEquals(0, p.hops(), p.name());
+        }
+        Assertions.assertTrue(hops.report(10).contains("synchronousChainHasNoHops"));
+    }
+
+    @Test
+    void disposedHopsDoNotInstrumentNewChains() {
+        hops.dispose();
+        Flux.range(0, 10)
+                .publishOn(Schedulers.single())
+                .blockLast();
+
+        Assertions.assertTrue(hops.points().stream()
+                .noneMatch(p -> p.name().contains(".disposedHopsDoNotInstrumentNewChains(")));
+    }
+
+    ThreadHops.Point point(String operator, String method) {
+        return hops.points().stream()
+                .filter(p -> p.name().startsWith(operator + " at ") && p.name().contains("." + method + "("))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError(operator + " in " + method + " not found in\n" + hops.report(10)));
+    }
+}
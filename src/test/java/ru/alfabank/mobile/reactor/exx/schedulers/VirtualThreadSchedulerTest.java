@@ -0,0 +1,211 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сценарии {@link PublishOnSubscribeOnTest} с {@link ExxSchedulers#newVirtualThread} вместо boundedElastic,
+ * плюс то, что от планировщика ждут операторы: порядок задач воркера, лимит конкурентности и отказ после dispose
+ */
+public class VirtualThreadSchedulerTest {
+
+    final Scheduler io = ExxSchedulers.newVirtualThread("io");
+
+    @AfterEach
+    void dispose() {
+        io.dispose();
+    }
+
+    /**
+     * Как {@link PublishOnSubscribeOnTest#publishOnInterval()}: после publishOn элементы идут в потоках io
+     */
+    @Test
+    void publishOnInterval() {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        Flux.interval(Duration.ofMillis(10))
+                .map(Object::toString)
+                .log("thread.boundary.before.single")
+                .publishOn(Schedulers.single())
+                .map(Long::parseLong)
+                .log("thread.boundary.after.signal")
+                .publishOn(io)
+                .doOnNext(i -> threads.add(Thread.currentThread().getName()))
+                .map(Object::toString)
+                .log("thread.boundary.after.virtualThread")
+                .take(5).blockLast();
+        Assertions.assertEquals(5, threads.size());
+        Assertions.assertTrue(threads.stream().allMatch(name -> name.startsWith("io-")), threads::toString);
+    }
+
+    /**
+     * Как {@link PublishOnSubscribeOnTest#subscribeOnAndPublishOn()}
+     */
+    @Test
+    void subscribeOnAndPublishOn() {
+        StepVerifier.create(
+                        Flux.range(0, 5)
+                                .log("thread.boundary.before.parallel")
+                                .subscribeOn(Schedulers.parallel())
+                                .map(Object::toString)
+                                .log("thread.boundary.before.virtualThread")
+                                .publishOn(io)
+                                .map(Long::parseLong)
+                                .log("thread.boundary.after.virtualThread")
+                )
+                .expectNext(0L, 1L, 2L, 3L, 4L)
+                .verifyComplete();
+    }
+
+    /**
+     * Пропускается на JDK без виртуальных потоков, кроме прогона gradle virtualThreadTest на JDK 21
+     */
+    @Test
+    void tasksRunOnVirtualThreadsWhenSupported() {
+        if (Boolean.getBoolean("exx.requireVirtualThreads")) {
+            Assertions.assertTrue(ExxSchedulers.virtualThreadsSupported(), "virtual threads required");
+        }
+        Assumptions.assumeTrue(ExxSchedulers.virtualThreadsSupported(), "JDK without virtual threads");
+        Assertions.assertTrue(((VirtualThreadScheduler) io).isVirtual());
+        StepVerifier.create(Mono.fromCallable(() -> Thread.currentThread().toString()).subscribeOn(io))
+                .assertNext(thread -> Assertions.assertTrue(thread.startsWith("VirtualThread"), thread))
+                .verifyComplete();
+    }
+
+    /**
+     * Блокирующие вызовы не ждут друг друга: 1000 задач по 200 мс на виртуальных потоках идут одной волной
+     * и укладываются в секунду, а boundedElastic выполнял бы их волнами по 10 * cores,
+     * то есть не меньше пяти волн на машине до 24 ядер
+     */
+    @Test
+    void blockingTasksDoNotQueueBehindEachOther() {
+        Assumptions.assumeTrue(ExxSchedulers.virtualThreadsSupported(), "JDK without virtual threads");
+        StepVerifier.create(
+                        Flux.range(0, 1000)
+                                .flatMap(i -> Mono.fromCallable(() -> {
+                                    Thread.sleep(200);
+                                    return i;
+                                }).subscribeOn(io), 1000)
+                                .count()
+                )
+                .expectNext(1000L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void maxConcurrencyLimitsRunningTasks() {
+        Scheduler limited = ExxSchedulers.newVirtualThread("limited", 4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            StepVerifier.create(
+                            Flux.range(0, 50)
+                                    .flatMap(i -> Mono.fromCallable(() -> {
+                                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                        Thread.sleep(5);
+                                        running.decrementAndGet();
+                                        return i;
+                                    }).subscribeOn(limited), 50)
+                                    .count()
+                    )
+                    .expectNext(50L)
+                    .verifyComplete();
+        } finally {
+            limited.dispose();
+        }
+        Assertions.assertTrue(maxRunning.get() <= 4, "max running " + maxRunning.get());
+    }
+
+    /**
+     * Без виртуальных потоков задачи сверх лимита ждут в очереди пула, а не держат по потоку ОС каждая
+     */
+    @Test
+    void platformFallbackRunsTasksOnBoundedPool() {
+        Assumptions.assumeFalse(ExxSchedulers.virtualThreadsSupported(), "JDK with virtual threads");
+        Scheduler limited = ExxSchedulers.newVirtualThread("pool", 2);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        try {
+            StepVerifier.create(
+                            Flux.range(0, 50)
+                                    .flatMap(i -> Mono.fromCallable(() -> {
+                                        threads.add(Thread.currentThread().getName());
+                                        Thread.sleep(2);
+                                        return i;
+                                    }).subscribeOn(limited), 50)
+                                    .count()
+                    )
+                    .expectNext(50L)
+                    .verifyComplete();
+        } finally {
+            limited.dispose();
+        }
+        Assertions.assertTrue(threads.size() <= 2, threads::toString);
+    }
+
+    @Test
+    void workerRunsTasksOneByOneInOrder() throws InterruptedException {
+        Scheduler.Worker worker = io.createWorker();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            worker.schedule(() -> {
+                if (running.incrementAndGet() != 1) {
+                    overlaps.incrementAndGet();
+                }
+                order.add(n);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        worker.dispose();
+        Assertions.assertEquals(0, overlaps.get());
+        Assertions.assertEquals(Flux.range(0, 100).collectList().block(), order);
+    }
+
+    @Test
+    void periodicTaskStopsOnDispose() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch three = new CountDownLatch(3);
+        Disposable task = io.schedulePeriodically(() -> {
+            runs.incrementAndGet();
+            three.countDown();
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(three.await(5, TimeUnit.SECONDS));
+        task.dispose();
+        int afterDispose = runs.get();
+        Thread.sleep(50);
+        Assertions.assertTrue(runs.get() <= afterDispose + 1);
+    }
+
+    @Test
+    void disposedSchedulerRejectsTasks() {
+        Scheduler scheduler = ExxSchedulers.newVirtualThread("disposed");
+        scheduler.dispose();
+        Assertions.assertThrows(RejectedExecutionException.class, () -> scheduler.schedule(() -> {
+        }));
+        StepVerifier.create(Mono.just(1).subscribeOn(scheduler))
+                .verifyError(RejectedExecutionException.class);
+    }
+}
@@ -0,0 +1,155 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Интервалы и задержки на {@link ExxSchedulers#newWheelTimer} вместо parallel, как в
+ * {@link PublishOnSubscribeOnTest#flatMapThread()}, плюс отмена, порядок задач воркера и отказ после dispose
+ */
+public class WheelTimerSchedulerTest {
+
+    final Scheduler timers = ExxSchedulers.newWheelTimer("timers", Duration.ofMillis(5), Schedulers.parallel());
+
+    @AfterEach
+    void dispose() {
+        timers.dispose();
+    }
+
+    @Test
+    void intervalTicksOnWorkers() {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        StepVerifier.create(
+                        Flux.interval(Duration.ofMillis(20), timers)
+                                .doOnNext(i -> threads.add(Thread.currentThread().getName()))
+                                .take(5)
+                )
+                .expectNext(0L, 1L, 2L, 3L, 4L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        Assertions.assertTrue(threads.stream().allMatch(name -> name.startsWith("parallel-")), threads.toString());
+        // периодическая задача закреплена за одним воркером
+        Assertions.assertEquals(1, threads.stream().distinct().count(), threads.toString());
+    }
+
+    /**
+     * Четыре интервала через flatMap, как в {@link PublishOnSubscribeOnTest#flatMapThread()}
+     */
+    @Test
+    void flatMapOfIntervals() {
+        StepVerifier.create(
+                        Flux.range(0, 4)
+                                .flatMap(i -> Flux.interval(Duration.ofMillis(10 * (i + 1)), timers).take(3))
+                                .count()
+                )
+                .expectNext(12L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void delayDoesNotFireEarly() {
+        long start = System.nanoTime();
+        StepVerifier.create(Mono.delay(Duration.ofMillis(50), timers))
+                .expectNext(0L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void manyConcurrentIntervals() {
+        StepVerifier.create(
+                        Flux.range(0, 10_000)
+                                .flatMap(i -> Flux.interval(Duration.ofMillis(10), timers).take(3), 10_000)
+                                .count()
+                )
+                .expectNext(30_000L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void disposedTaskDoesNotRun() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        Disposable task = timers.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        Disposable periodic = timers.schedulePeriodically(runs::incrementAndGet, 50, 10, TimeUnit.MILLISECONDS);
+        task.dispose();
+        periodic.dispose();
+        Thread.sleep(150);
+        Assertions.assertEquals(0, runs.get());
+        Assertions.assertTrue(task.isDisposed());
+    }
+
+    /**
+     * Отменённые задачи на час вперёд вынимаются из корзин на ближайшем тике, и колесо засыпает,
+     * а не просыпается каждые 5 мс, пока не дойдёт до их корзин
+     */
+    @Test
+    void cancelledTasksDoNotKeepWheelAwake() throws InterruptedException {
+        WheelTimerScheduler wheel = (WheelTimerScheduler) timers;
+        List<Disposable> tasks = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            tasks.add(timers.schedule(() -> {
+            }, 1, TimeUnit.HOURS));
+        }
+        Thread.sleep(20);
+        Assertions.assertFalse(wheel.idle);
+        tasks.forEach(Disposable::dispose);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!wheel.idle && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assertions.assertTrue(wheel.idle);
+    }
+
+    @Test
+    void workerRunsDelayedTasksInDeadlineOrder() throws InterruptedException {
+        Scheduler.Worker worker = timers.createWorker();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        try {
+            worker.schedule(() -> {
+                order.add(3);
+                latch.countDown();
+            }, 90, TimeUnit.MILLISECONDS);
+            worker.schedule(() -> {
+                order.add(1);
+                latch.countDown();
+            }, 10, TimeUnit.MILLISECONDS);
+            worker.schedule(() -> {
+                order.add(2);
+                latch.countDown();
+            }, 50, TimeUnit.MILLISECONDS);
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of(1, 2, 3), order);
+        } finally {
+            worker.dispose();
+        }
+    }
+
+    @Test
+    void disposedSchedulerRejectsTasks() {
+        timers.dispose();
+        Assertions.assertTrue(timers.isDisposed());
+        Assertions.assertThrows(RejectedExecutionException.class,
+                () -> timers.schedule(() -> {
+                }, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertThrows(RejectedExecutionException.class, timers::createWorker);
+    }
+}
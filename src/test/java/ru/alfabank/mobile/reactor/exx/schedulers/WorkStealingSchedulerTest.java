@@ -0,0 +1,124 @@
+package ru.alfabank.mobile.reactor.exx.schedulers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Сценарии {@link PublishOnSubscribeOnTest} с {@link ExxSchedulers#newWorkStealing} вместо parallel,
+ * плюс то, что от планировщика ждут операторы: порядок задач воркера, кража задач и отказ после dispose
+ */
+public class WorkStealingSchedulerTest {
+
+    final Scheduler stealing = ExxSchedulers.newWorkStealing("stealing", 4);
+
+    @AfterEach
+    void dispose() {
+        stealing.dispose();
+    }
+
+    @Test
+    void publishOnKeepsOrder() {
+        List<Integer> expected = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+        StepVerifier.create(
+                        Flux.range(0, 10_000)
+                                .publishOn(stealing)
+                                .collectList()
+                )
+                .assertNext(list -> Assertions.assertEquals(expected, list))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    /**
+     * Задачи воркера не пересекаются и идут по порядку, даже когда дренаж воркера переезжает между потоками
+     */
+    @Test
+    void workerRunsTasksOneByOneInOrder() throws InterruptedException {
+        Scheduler.Worker worker = stealing.createWorker();
+        AtomicInteger running = new AtomicInteger();
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(10_000);
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                int n = i;
+                worker.schedule(() -> {
+                    Assertions.assertEquals(1, running.incrementAndGet());
+                    order.add(n);
+                    running.decrementAndGet();
+                    latch.countDown();
+                });
+            }
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(IntStream.range(0, 10_000).boxed().collect(Collectors.toList()), order);
+        } finally {
+            worker.dispose();
+        }
+    }
+
+    /**
+     * Задачи, поставленные из потока пула, ложатся в его очередь, но простаивающие потоки их крадут
+     */
+    @Test
+    void idleThreadsStealTasks() throws InterruptedException {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(8);
+        stealing.schedule(() -> {
+            for (int i = 0; i < 8; i++) {
+                stealing.schedule(() -> {
+                    threads.add(Thread.currentThread().getName());
+                    sleep(50);
+                    latch.countDown();
+                });
+            }
+        });
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(threads.size() > 1, threads.toString());
+        Assertions.assertTrue(threads.stream().allMatch(name -> name.startsWith("stealing-")), threads.toString());
+    }
+
+    @Test
+    void intervalAndDelay() {
+        StepVerifier.create(Flux.interval(Duration.ofMillis(10), stealing).take(3))
+                .expectNext(0L, 1L, 2L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(Mono.delay(Duration.ofMillis(10), stealing))
+                .expectNext(0L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void disposedSchedulerRejectsTasks() {
+        stealing.dispose();
+        Assertions.assertTrue(stealing.isDisposed());
+        Assertions.assertThrows(RejectedExecutionException.class, () -> stealing.schedule(() -> {
+        }));
+        Assertions.assertThrows(RejectedExecutionException.class, stealing::createWorker);
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}